@@ -0,0 +1,29 @@
+package com.ram;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count (1 to 64 by default) and writes a
+ * JSON result file per run into target/, so every concurrency change can be
+ * compared against the previous numbers. Any other JMH command line option
+ * (e.g. -p rooms=50 or a benchmark regexp) is passed through.
+ * 
+ * @author Ram
+ * 
+ */
+public class BenchmarkRunner {
+	private static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16, 32, 64 };
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		for (int threads : THREAD_COUNTS) {
+			Options options = new OptionsBuilder().parent(commandLine).threads(threads)
+					.resultFormat(ResultFormatType.JSON).result("target/jmh-threads-" + threads + ".json").build();
+			new Runner(options).run();
+		}
+	}
+}
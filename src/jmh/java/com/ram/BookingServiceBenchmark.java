@@ -0,0 +1,178 @@
+package com.ram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ram.Booking.BookingStatus;
+import com.ram.BookingService.BookingEventListener;
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * Throughput and latency (SampleTime mode reports p99 and friends) of check-in
+ * and check-out. Vary hotel size, membership mix and room service with the
+ * params below, and the thread count with -t (BenchmarkRunner sweeps 1 to 64).
+ * <p>
+ * Each operation checks a guest in and, if they got a room, checks them out
+ * again, so the hotel stays at the pre-filled occupancy and the waiting lists
+ * don't grow without bound while we measure. Guests that had to wait (small
+ * hotels under many threads) are checked out by the next operation once a
+ * check-out hands them a room.
+ *
+ * @author Ram
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+@State(Scope.Benchmark)
+public class BookingServiceBenchmark {
+
+	@Param({ "50", "10000", "1000000" })
+	public int rooms;
+
+	/**
+	 * STANDARD: everybody is a standard member, MIXED: 60% standard, 25% gold
+	 * and 15% platinum (same as the rooms), PLATINUM: everybody can be
+	 * upgraded into any room
+	 */
+	@Param({ "STANDARD", "MIXED", "PLATINUM" })
+	public String membershipMix;
+
+	@Param({ "default", "lockfree" })
+	public String roomServiceType;
+
+	/**
+	 * For the default room service, e.g. -p
+	 * roomSelection=LEAST_RECENTLY_USED,FLOOR_CLUSTERED,CLEANED_FIRST
+	 */
+	@Param({ "LEAST_RECENTLY_USED" })
+	public String roomSelection;
+
+	@Param({ "0.5" })
+	public double occupancy;
+
+	DefaultBookingService bookingService;
+	String[] guestIds;
+	// rooms given to guests from the waiting list, waiting to be checked out
+	final Queue<String> confirmedFromWaiting = new ConcurrentLinkedQueue<>();
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Map<String, Room> roomsCache = Hotels.rooms(rooms);
+		RoomService roomService = "lockfree".equals(roomServiceType) ? new LockFreeRoomService(roomsCache)
+				: new DefaultRoomService(roomsCache, RoomSelection.valueOf(roomSelection));
+		Map<String, Guest> guestCache = Hotels.guests(rooms, membershipMix);
+		guestIds = guestCache.keySet().toArray(new String[guestCache.size()]);
+		bookingService = new DefaultBookingService(20, new DefaultGuestService(guestCache), roomService,
+				new PriorityBasedRoomMembershipTypesConverter());
+
+		// pre-fill with guests that stay for the whole trial, spread over the
+		// membership mix
+		int staying = (int) (rooms * occupancy);
+		for (int i = 0; i < staying; i++) {
+			bookingService.checkIn(guestIds[(int) ((long) i * guestIds.length / staying)]);
+		}
+		bookingService.subscribeToBookingEvents(new BookingEventListener() {
+			@Override
+			public void updated(Booking booking) {
+				confirmedFromWaiting.offer(booking.getRoomNo());
+			}
+		});
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		bookingService.shutdown();
+	}
+
+	@State(Scope.Thread)
+	public static class GuestPicker {
+		private final Random random = new Random();
+
+		String next(BookingServiceBenchmark benchmark) {
+			return benchmark.guestIds[random.nextInt(benchmark.guestIds.length)];
+		}
+	}
+
+	@Benchmark
+	public Booking checkInCheckOut(GuestPicker picker) {
+		Booking booking = bookingService.checkIn(picker.next(this));
+		if (booking.getStatus() == BookingStatus.CONFIRMED) {
+			bookingService.checkOut(booking.getRoomNo());
+		}
+		String roomNo = confirmedFromWaiting.poll();
+		if (roomNo != null) {
+			bookingService.checkOut(roomNo);
+		}
+		return booking;
+	}
+
+	@Benchmark
+	public double occupancyRatio() {
+		return bookingService.getOccupancyRatio();
+	}
+
+	/**
+	 * Same fixtures as ReservationRunner, just sized by the benchmark params.
+	 */
+	static class Hotels {
+		static Map<String, Room> rooms(int size) {
+			Map<String, Room> roomCache = new LinkedHashMap<>(size * 2);
+			for (int i = 1; i <= size; i++) {
+				Room room = new Room();
+				room.setRoomNo("R" + i);
+				room.setFloor((i - 1) / 100 + 1);
+				if (i <= size * 0.6)
+					room.setType(RoomType.STANDARD);
+				else if (i <= size * 0.85)
+					room.setType(RoomType.GOLD);
+				else
+					room.setType(RoomType.PLATINUM);
+				roomCache.put(room.getRoomNo(), room);
+			}
+			return roomCache;
+		}
+
+		static Map<String, Guest> guests(int size, String membershipMix) {
+			Map<String, Guest> guestCache = new LinkedHashMap<>(size * 2);
+			for (int i = 1; i <= size; i++) {
+				Guest guest = new Guest();
+				guest.setGuestId("G" + i);
+				if ("STANDARD".equals(membershipMix))
+					guest.setMemType(MembershipType.STANDARD);
+				else if ("PLATINUM".equals(membershipMix))
+					guest.setMemType(MembershipType.PLATINUM);
+				else if (i <= size * 0.6)
+					guest.setMemType(MembershipType.STANDARD);
+				else if (i <= size * 0.85)
+					guest.setMemType(MembershipType.GOLD);
+				else
+					guest.setMemType(MembershipType.PLATINUM);
+				guest.setName("GuestName" + i);
+				guestCache.put(guest.getGuestId(), guest);
+			}
+			return guestCache;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package com.ram;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ram.Room.RoomType;
+
+/**
+ * Cost of picking a room with each {@link RoomSelection}, against BASELINE:
+ * the bare IntFifoSet pick DefaultRoomService made before the strategies.
+ * Each operation hands out a room, frees the one handed out longest ago (the
+ * pool stays at the given occupancy) and has housekeeping clean a room
+ * checked out a while before, which only CLEANED_FIRST takes notice of.
+ * <p>
+ * The pools are single-threaded, like under the room type lock of the
+ * booking service. BookingServiceBenchmark -p roomSelection=... shows the
+ * same end to end.
+ *
+ * @author Ram
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+@State(Scope.Thread)
+public class RoomSelectionBenchmark {
+	private static final int ROOMS_PER_FLOOR = 100;
+	// check-outs between a room being freed and cleaned
+	private static final int CLEANING_LAG = 64;
+
+	@Param({ "10000", "1000000" })
+	public int rooms;
+
+	@Param({ "BASELINE", "LEAST_RECENTLY_USED", "FLOOR_CLUSTERED", "CLEANED_FIRST" })
+	public String selection;
+
+	@Param({ "0.5" })
+	public double occupancy;
+
+	// one of the two
+	IntFifoSet baseline;
+	FreeRooms free;
+	// the occupied rooms, oldest stay next
+	int[] staying;
+	int nextLeaving;
+	// the freed rooms, the oldest to be cleaned next
+	final int[] dirty = new int[CLEANING_LAG];
+	int nextCleaned;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Room[] hotel = new Room[rooms];
+		for (int i = 0; i < rooms; i++) {
+			hotel[i] = new Room();
+			hotel[i].setRoomNo("R" + (i + 1));
+			hotel[i].setType(RoomType.STANDARD);
+			hotel[i].setFloor(i / ROOMS_PER_FLOOR + 1);
+		}
+		if ("BASELINE".equals(selection))
+			baseline = IntFifoSet.full(rooms);
+		else
+			free = RoomSelection.valueOf(selection).newFreeRooms(hotel);
+		staying = new int[(int) (rooms * occupancy)];
+		for (int i = 0; i < staying.length; i++) {
+			staying[i] = take();
+		}
+		for (int i = 0; i < dirty.length; i++) {
+			dirty[i] = -1;
+		}
+	}
+
+	private int take() {
+		return baseline != null ? baseline.pollFirst() : free.poll();
+	}
+
+	@Benchmark
+	public int reserveAndFree() {
+		int room = take();
+		int leaving = staying[nextLeaving];
+		staying[nextLeaving] = room;
+		nextLeaving = nextLeaving + 1 == staying.length ? 0 : nextLeaving + 1;
+		int cleaned = dirty[nextCleaned];
+		dirty[nextCleaned] = leaving;
+		nextCleaned = nextCleaned + 1 == dirty.length ? 0 : nextCleaned + 1;
+		if (baseline != null) {
+			baseline.addLast(leaving);
+		} else {
+			free.add(leaving);
+			if (cleaned >= 0)
+				free.cleaned(cleaned);
+		}
+		return room;
+	}
+}
@@ -0,0 +1,150 @@
+package com.ram;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * Reservations ahead of time, on top of a {@link RoomCalendar}. A guest gets
+ * a room of the first of their eligible room types that is free for every
+ * night of the stay, with the same preference order as a walk-in check-in.
+ * When the day of arrival comes, {@link #checkInArrivals(LocalDate)} (run it
+ * once a day, e.g. from the night audit) checks the guests into their
+ * reserved rooms through the booking service.
+ * <p>
+ * Walk-in guests don't say when they leave, so the calendar doesn't know
+ * about them. If a walk-in is still in a reserved room on the day of
+ * arrival, the guest is checked in the normal way instead, see
+ * {@link DefaultBookingService#checkInToRoom(String, String)}.
+ *
+ * @author Ram
+ *
+ */
+public class AdvanceReservations {
+	private final RoomCalendar calendar;
+	private final GuestService guestService;
+	private final EligibilityTable eligibility;
+	private final DefaultBookingService bookingService;
+
+	// guards everything below and the calendar
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Map<Integer, Reservation> reservations = new HashMap<>();
+	// day of arrival --> reservations
+	private final NavigableMap<LocalDate, List<Reservation>> arrivals = new TreeMap<>();
+
+	public AdvanceReservations(RoomCalendar calendar, GuestService guestService,
+			RoomMembershipTypesConverter roomTypesFinder, DefaultBookingService bookingService) {
+		if (calendar == null || guestService == null || bookingService == null)
+			throw new IllegalArgumentException("Calendar, guest and booking service must not be null.");
+		this.calendar = calendar;
+		this.guestService = guestService;
+		this.eligibility = EligibilityTable.compile(roomTypesFinder);
+		this.bookingService = bookingService;
+	}
+
+	/**
+	 * @param guestId
+	 * @param from
+	 *            day of arrival
+	 * @param to
+	 *            day of departure
+	 * @return the reservation, null if no eligible room is free for the stay
+	 */
+	public Reservation reserve(String guestId, LocalDate from, LocalDate to) {
+		if (guestId == null)
+			throw new IllegalArgumentException("GuestId must not be null.");
+		Guest guest = guestService.getGuest(guestId);
+		if (guest == null)
+			throw new IllegalArgumentException("Invalid GuestId");
+		MembershipType memType = guest.getMemType();
+
+		lock.lock();
+		try {
+			for (RoomType roomType : eligibility.eligibleRoomTypes(memType)) {
+				String roomNo = calendar.reserve(roomType, from, to);
+				if (roomNo == null)
+					continue;
+				Reservation reservation = new Reservation(guestId, roomNo, from, to);
+				reservations.put(reservation.getReservationId(), reservation);
+				List<Reservation> onDay = arrivals.get(from);
+				if (onDay == null) {
+					onDay = new ArrayList<>();
+					arrivals.put(from, onDay);
+				}
+				onDay.add(reservation);
+				return reservation;
+			}
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return false if there is no such reservation (any more)
+	 */
+	public boolean cancel(int reservationId) {
+		lock.lock();
+		try {
+			Reservation reservation = reservations.remove(reservationId);
+			if (reservation == null)
+				return false;
+			arrivals.get(reservation.getFrom()).remove(reservation);
+			calendar.cancel(reservation.getRoomNo(), reservation.getFrom(), reservation.getTo());
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Reservation getReservation(int reservationId) {
+		lock.lock();
+		try {
+			return reservations.get(reservationId);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Checks in every guest arriving on the day, or earlier and not yet
+	 * checked in, and moves the calendar forward to the day.
+	 *
+	 * @param day
+	 * @return the bookings, in order of reservation per day
+	 */
+	public List<Booking> checkInArrivals(LocalDate day) {
+		List<Reservation> arriving = new ArrayList<>();
+		lock.lock();
+		try {
+			Iterator<List<Reservation>> due = arrivals.headMap(day, true).values().iterator();
+			while (due.hasNext()) {
+				for (Reservation reservation : due.next()) {
+					reservations.remove(reservation.getReservationId());
+					arriving.add(reservation);
+				}
+				due.remove();
+			}
+			if (day.isAfter(calendar.getFirstDay()))
+				calendar.advanceTo(day);
+		} finally {
+			lock.unlock();
+		}
+
+		// the booking service takes its own locks, not under ours
+		List<Booking> bookings = new ArrayList<>(arriving.size());
+		for (Reservation reservation : arriving) {
+			bookings.add(bookingService.checkInToRoom(reservation.getGuestId(), reservation.getRoomNo()));
+		}
+		return bookings;
+	}
+}
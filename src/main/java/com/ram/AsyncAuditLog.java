@@ -0,0 +1,204 @@
+package com.ram;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Audit trail of booking transitions, written off the booking path. The
+ * service hands over each transition while it still holds its locks, that's
+ * one lock-free offer onto a bounded queue. A background writer drains the
+ * queue in batches and appends one tab-separated line per transition:
+ *
+ * <pre>
+ * recordedAtMillis  TYPE  bookingId  guestId  memType  roomNo
+ * </pre>
+ *
+ * Like in the journal, a transition only carries what changed (a check-out
+ * has no guest), the others are "null". Join the lines on the bookingId.
+ * <p>
+ * The booking path never waits for the disk: when the writer falls behind by
+ * more than the capacity, new records are dropped and counted instead.
+ * Batches that could not be written (IOException) are counted as well. An
+ * idle writer sleeps until the next record wakes it up.
+ *
+ * @author Ram
+ *
+ */
+public class AsyncAuditLog implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(AsyncAuditLog.class);
+	private static final int BATCH_SIZE = 1024;
+
+	private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final int capacity;
+	private final Writer writer;
+	private final Thread writerThread;
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	// only touched by the writer: records handed to the writer since the
+	// last flush
+	private int unflushed;
+	// the writer is about to park, whoever queues a record unparks it
+	private volatile boolean idle;
+	private volatile boolean running = true;
+
+	/**
+	 * @param file
+	 *            appended to, created if missing
+	 * @param capacity
+	 *            records that may wait for the writer
+	 * @throws IOException
+	 */
+	public AsyncAuditLog(File file, int capacity) throws IOException {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive.");
+		this.capacity = capacity;
+		this.writer = new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE), 64 * 1024);
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "booking-audit");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Queues the transition stamped with the wall clock, never blocks.
+	 *
+	 * @param transition
+	 * @return false if it was dropped because the writer is too far behind
+	 */
+	public boolean record(BookingTransition transition) {
+		return record(transition, System.currentTimeMillis());
+	}
+
+	/**
+	 * Queues the transition, never blocks.
+	 *
+	 * @param transition
+	 * @param recordedAtMillis
+	 *            on the service's {@link BookingClock}, so the audit trail
+	 *            agrees with the booking times in simulated runs
+	 * @return false if it was dropped because the writer is too far behind
+	 */
+	public boolean record(BookingTransition transition, long recordedAtMillis) {
+		if (queued.incrementAndGet() > capacity) {
+			queued.decrementAndGet();
+			dropped.incrementAndGet();
+			return false;
+		}
+		queue.offer(new Record(recordedAtMillis, transition));
+		if (idle)
+			LockSupport.unpark(writerThread);
+		return true;
+	}
+
+	/**
+	 * @return records written to the file so far
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * @return records thrown away because the queue was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return records lost because writing them to the file failed
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Writes everything queued so far and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writer.close();
+	}
+
+	private void writeLoop() {
+		StringBuilder line = new StringBuilder(128);
+		while (true) {
+			// read the flag first, so the last drain sees everything queued
+			// before close
+			boolean stopping = !running;
+			try {
+				if (drain(line) > 0) {
+					writer.flush();
+					written.addAndGet(unflushed);
+					unflushed = 0;
+					continue;
+				}
+			} catch (IOException e) {
+				failed.addAndGet(unflushed);
+				logger.error("Could not write {} records to the booking audit log", unflushed, e);
+				unflushed = 0;
+			}
+			if (stopping)
+				return;
+			// announce the park before the last look at the queue, a record
+			// queued after that look sees the flag and unparks us
+			idle = true;
+			if (queue.isEmpty() && running)
+				LockSupport.park(this);
+			idle = false;
+		}
+	}
+
+	private int drain(StringBuilder line) throws IOException {
+		int batch = 0;
+		Record record;
+		while (batch < BATCH_SIZE && (record = queue.poll()) != null) {
+			queued.decrementAndGet();
+			BookingTransition transition = record.transition;
+			line.setLength(0);
+			line.append(record.recordedAt).append('\t').append(transition.getType()).append('\t')
+					.append(transition.getBookingId()).append('\t').append(transition.getGuestId()).append('\t')
+					.append(transition.getMemType()).append('\t').append(transition.getRoomNo()).append('\n');
+			unflushed++;
+			writer.append(line);
+			batch++;
+		}
+		return batch;
+	}
+
+	private static final class Record {
+		final long recordedAt;
+		final BookingTransition transition;
+
+		Record(long recordedAt, BookingTransition transition) {
+			this.recordedAt = recordedAt;
+			this.transition = transition;
+		}
+	}
+}
@@ -2,9 +2,17 @@ package com.ram;
 
 import java.util.Date;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import com.ram.Guest.MembershipType;
 
 /**
- * Domain Object for Booking
+ * Domain Object for Booking. Who booked and when never changes, what changes
+ * (status and room) is an immutable {@link State}: every transition publishes
+ * a new State with the next version by compare-and-set. Listeners and readers
+ * of the waiting list get the booking while the service moves it on, so
+ * whoever needs status and room to agree should read {@link #getState()}
+ * once instead of calling getStatus() and getRoomNo() one after the other.
  * 
  * @author Ram
  * 
@@ -14,47 +22,184 @@ public class Booking {
 		CONFIRMED, WAITING, PRIORITY_WAITING, CHECKEDOUT
 	}
 
-	private int bookingId;
-	private String roomNo;
-	private String guestId;
-	private Date created;
-	private BookingStatus status = BookingStatus.WAITING;
+	/**
+	 * One version of a booking's state.
+	 */
+	public static final class State {
+		// every booking starts out waiting, no need for a copy each
+		private static final State NEW = new State(BookingStatus.WAITING, null, 0);
+
+		private final BookingStatus status;
+		private final String roomNo;
+		private final int version;
+
+		private State(BookingStatus status, String roomNo, int version) {
+			this.status = status;
+			this.roomNo = roomNo;
+			this.version = version;
+		}
+
+		public BookingStatus getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return the room, null while waiting
+		 */
+		public String getRoomNo() {
+			return roomNo;
+		}
+
+		/**
+		 * @return 0 for a new booking, one up with every transition
+		 */
+		public int getVersion() {
+			return version;
+		}
+	}
+
+	private static final AtomicReferenceFieldUpdater<Booking, State> STATE = AtomicReferenceFieldUpdater.newUpdater(
+			Booking.class, State.class, "state");
+
+	private final int bookingId;
+	private final String guestId;
+	// membership of the guest at the time of booking, decides the waiting list
+	private final MembershipType memType;
+	// creation time in millis, a Date per booking is a second object for nothing
+	private final long created;
+	private volatile State state = State.NEW;
+
+	// intrusive links for the WaitingQueue this booking is in, if any
+	WaitingQueue waitingQueue;
+	Booking waitingPrev;
+	Booking waitingNext;
 
 	// quick and dirty unique key
 	private static final AtomicInteger bookingCounter = new AtomicInteger();
 
 	public Booking(String guestId) {
+		this(guestId, null);
+	}
+
+	public Booking(String guestId, MembershipType memType) {
+		this(guestId, memType, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param created
+	 *            millis since the epoch, on the service's {@link BookingClock}
+	 */
+	Booking(String guestId, MembershipType memType, long created) {
 		bookingId = bookingCounter.incrementAndGet();
-		created = new Date();
+		this.created = created;
 		this.guestId = guestId;
+		this.memType = memType;
 	}
 
-	public int getBookingId() {
-		return bookingId;
+	/**
+	 * Re-creates a booking that existed before (journal recovery etc.), new
+	 * bookings will never reuse its id.
+	 */
+	Booking(int bookingId, String guestId, MembershipType memType, long created) {
+		this.bookingId = bookingId;
+		this.guestId = guestId;
+		this.memType = memType;
+		this.created = created;
+		int counter;
+		while ((counter = bookingCounter.get()) < bookingId && !bookingCounter.compareAndSet(counter, bookingId))
+			;
 	}
 
-	public void setRoomNo(String roomNo) {
-		this.roomNo = roomNo;
+	public int getBookingId() {
+		return bookingId;
 	}
 
 	public String getRoomNo() {
-		return roomNo;
+		return state.roomNo;
 	}
 
 	public String getGuestId() {
 		return guestId;
 	}
 
+	public MembershipType getMemType() {
+		return memType;
+	}
+
 	public BookingStatus getStatus() {
-		return status;
+		return state.status;
 	}
 
-	public void setStatus(BookingStatus status) {
-		this.status = status;
+	/**
+	 * @return status, room and version as of now, consistent with each other
+	 */
+	public State getState() {
+		return state;
 	}
 
+	/**
+	 * @deprecated allocates a Date on every call, use
+	 *             {@link #getCreatedTime()}
+	 */
+	@Deprecated
 	public Date getCreated() {
-		return new Date(created.getTime());
+		return new Date(created);
+	}
+
+	/**
+	 * Same as getCreated, without the defensive copy.
+	 * 
+	 * @return creation time in milliseconds since the epoch
+	 */
+	public long getCreatedTime() {
+		return created;
+	}
+
+	/**
+	 * A waiting guest got the room.
+	 *
+	 * @throws IllegalStateException
+	 *             if the booking is not waiting
+	 */
+	void confirm(String roomNo) {
+		transition(BookingStatus.CONFIRMED, roomNo, BookingStatus.WAITING, BookingStatus.PRIORITY_WAITING);
+	}
+
+	/**
+	 * A guest waited too long and is moved to the priority waiting list.
+	 *
+	 * @throws IllegalStateException
+	 *             if the booking is not on the regular waiting list
+	 */
+	void promote() {
+		transition(BookingStatus.PRIORITY_WAITING, null, BookingStatus.WAITING, BookingStatus.WAITING);
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             if the booking is not confirmed
+	 */
+	void checkOut() {
+		transition(BookingStatus.CHECKEDOUT, null, BookingStatus.CONFIRMED, BookingStatus.CONFIRMED);
+	}
+
+	/**
+	 * Publishes the next version, if the booking is in one of the given
+	 * statuses. A checked out booking keeps its room number.
+	 *
+	 * @throws IllegalStateException
+	 *             if the booking was in another status, it is left alone then
+	 */
+	private void transition(BookingStatus to, String roomNo, BookingStatus from, BookingStatus orFrom) {
+		State current;
+		State next;
+		do {
+			current = state;
+			if (current.status != from && current.status != orFrom)
+				throw new IllegalStateException("Booking " + bookingId + " can't go from " + current.status + " to "
+						+ to);
+			next = new State(to, roomNo != null ? roomNo : current.roomNo, current.version + 1);
+		} while (!STATE.compareAndSet(this, current, next));
 	}
 
 	@Override
@@ -81,8 +226,10 @@ public class Booking {
 
 	@Override
 	public String toString() {
-		return "Booking [bookingId=" + bookingId + ", roomNo=" + roomNo + ", guestId=" + guestId + ", created="
-				+ created + ", status=" + status + "]";
+		State current = state;
+		return "Booking [bookingId=" + bookingId + ", roomNo=" + current.roomNo + ", guestId=" + guestId
+				+ ", created=" + new Date(created) + ", status=" + current.status + ", version=" + current.version
+				+ "]";
 	}
 
 }
@@ -0,0 +1,31 @@
+package com.ram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where DefaultBookingService gets the time from and runs its periodic work
+ * (promotion sweeper, snapshots, metrics reports). {@link SystemBookingClock}
+ * is the wall clock; {@link VirtualBookingClock} only moves when told to, so
+ * tests and simulations can wait hours for a promotion without sleeping.
+ *
+ * @author Ram
+ *
+ */
+public interface BookingClock {
+	/**
+	 * @return millis since the epoch
+	 */
+	long currentTimeMillis();
+
+	/**
+	 * Runs the task every period, the first time one period from now. Runs
+	 * never overlap, one that takes too long delays the next. A task that
+	 * throws is not run again.
+	 */
+	void scheduleAtFixedRate(Runnable task, long period, TimeUnit unit);
+
+	/**
+	 * Cancels every scheduled task.
+	 */
+	void shutdown();
+}
@@ -0,0 +1,295 @@
+package com.ram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ram.BookingService.BatchBookingEventListener;
+import com.ram.BookingService.BookingEventListener;
+
+/**
+ * Delivers booking events to listeners asynchronously, so a slow listener
+ * (SMS notifier etc.) no longer stalls check-in and check-out.
+ * <p>
+ * Every listener gets its own bounded ring buffer and its own consumer thread,
+ * so events reach each listener in the order they were published and one slow
+ * listener only ever delays itself. What happens when a listener's buffer is
+ * full is decided by the {@link OverflowPolicy}.
+ *
+ * @author Ram
+ *
+ */
+public class BookingEventBus {
+	private static final Logger logger = LoggerFactory.getLogger(BookingEventBus.class);
+	private static final AtomicInteger threadCounter = new AtomicInteger();
+
+	public static enum OverflowPolicy {
+		/** the publisher waits for the listener to catch up */
+		BLOCK,
+		/** the oldest undelivered event is thrown away */
+		DROP_OLDEST,
+		/**
+		 * like DROP_OLDEST, but on top of that nothing new is queued for a
+		 * booking that already has an undelivered event, the listener will see
+		 * its latest state anyway
+		 */
+		COALESCE
+	}
+
+	private final int capacity;
+	private final OverflowPolicy overflowPolicy;
+	private final ConcurrentMap<BookingEventListener, Subscription> subscriptions = new ConcurrentHashMap<>();
+	// time the listeners took per delivered batch, all listeners together
+	private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+
+	public BookingEventBus(int capacityPerListener, OverflowPolicy overflowPolicy) {
+		if (capacityPerListener <= 0)
+			throw new IllegalArgumentException("Capacity must be positive.");
+		if (overflowPolicy == null)
+			throw new IllegalArgumentException("Overflow policy must not be null.");
+		this.capacity = capacityPerListener;
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public void subscribe(BookingEventListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException("Listener must not be null.");
+		Subscription subscription = new Subscription(listener);
+		if (subscriptions.putIfAbsent(listener, subscription) == null) {
+			// a concurrent unsubscribe may have stopped it already, then the
+			// thread finds it stopped and ends
+			subscription.thread.start();
+		}
+	}
+
+	/**
+	 * Stops delivering to the listener, events not yet delivered are thrown
+	 * away.
+	 *
+	 * @param listener
+	 */
+	public void unsubscribe(BookingEventListener listener) {
+		Subscription subscription = subscriptions.remove(listener);
+		if (subscription != null) {
+			subscription.stop();
+		}
+	}
+
+	/**
+	 * Queues the updated bookings for every listener. Never call this while
+	 * holding a booking lock, with the BLOCK policy it waits for slow
+	 * listeners.
+	 *
+	 * @param bookings
+	 */
+	public void publish(List<Booking> bookings) {
+		if (bookings.isEmpty())
+			return;
+		for (Subscription subscription : subscriptions.values()) {
+			subscription.offer(bookings);
+		}
+	}
+
+	/**
+	 * @param listener
+	 * @return number of events queued for the listener but not yet delivered,
+	 *         including the ones it is working on right now
+	 */
+	public long getLag(BookingEventListener listener) {
+		Subscription subscription = subscriptions.get(listener);
+		return subscription == null ? 0 : subscription.queued.get() - subscription.evicted.get()
+				- subscription.delivered.get();
+	}
+
+	/**
+	 * @param listener
+	 * @return number of events the listener never got because of the overflow
+	 *         policy, coalesced ones included, and the rest of a batch whose
+	 *         publisher gave up waiting (interrupted or unsubscribed)
+	 */
+	public long getDropped(BookingEventListener listener) {
+		Subscription subscription = subscriptions.get(listener);
+		return subscription == null ? 0 : subscription.evicted.get() + subscription.coalesced.get();
+	}
+
+	/**
+	 * @param listener
+	 * @return number of events delivered to the listener
+	 */
+	public long getDelivered(BookingEventListener listener) {
+		Subscription subscription = subscriptions.get(listener);
+		return subscription == null ? 0 : subscription.delivered.get();
+	}
+
+	/**
+	 * @return time listeners took per delivered batch of events
+	 */
+	public LatencyHistogram getDispatchLatency() {
+		return dispatchLatency;
+	}
+
+	public void shutdown() {
+		for (BookingEventListener listener : new ArrayList<>(subscriptions.keySet())) {
+			unsubscribe(listener);
+		}
+	}
+
+	private class Subscription implements Runnable {
+		private final BookingEventListener listener;
+		private final Booking[] ring = new Booking[capacity];
+		// bookings in the ring, only kept for COALESCE
+		private final Set<Booking> pending = overflowPolicy == OverflowPolicy.COALESCE ? new HashSet<Booking>()
+				: null;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition notEmpty = lock.newCondition();
+		private final Condition notFull = lock.newCondition();
+		private int head;
+		private int count;
+		private volatile boolean running = true;
+		// created up front, so stop() works even before it is started
+		private final Thread thread;
+
+		private final AtomicLong queued = new AtomicLong();
+		private final AtomicLong delivered = new AtomicLong();
+		// thrown out of a full ring
+		private final AtomicLong evicted = new AtomicLong();
+		// never queued as the booking was already in the ring
+		private final AtomicLong coalesced = new AtomicLong();
+
+		Subscription(BookingEventListener listener) {
+			this.listener = listener;
+			thread = new Thread(this, "booking-events-" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+		}
+
+		void stop() {
+			running = false;
+			thread.interrupt();
+			lock.lock();
+			try {
+				// wake up publishers blocked on this listener
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void offer(List<Booking> bookings) {
+			int offered = 0;
+			lock.lock();
+			try {
+				for (Booking booking : bookings) {
+					if (pending != null && !pending.add(booking)) {
+						coalesced.incrementAndGet();
+						offered++;
+						continue;
+					}
+					if (count == capacity && !makeRoom())
+						break;
+					ring[(head + count) % capacity] = booking;
+					count++;
+					queued.incrementAndGet();
+					offered++;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				// stopped or interrupted while blocked: the rest of the batch
+				// counts as queued and thrown out, so the numbers still add up
+				int rest = bookings.size() - offered;
+				if (rest > 0) {
+					queued.addAndGet(rest);
+					evicted.addAndGet(rest);
+				}
+				if (count > 0)
+					notEmpty.signal();
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * @return false if the subscription was stopped while waiting
+		 */
+		private boolean makeRoom() throws InterruptedException {
+			if (overflowPolicy == OverflowPolicy.BLOCK) {
+				while (count == capacity && running) {
+					notFull.await();
+				}
+				return running;
+			}
+			Booking oldest = take();
+			if (pending != null)
+				pending.remove(oldest);
+			evicted.incrementAndGet();
+			return true;
+		}
+
+		private Booking take() {
+			Booking booking = ring[head];
+			ring[head] = null;
+			head = (head + 1) % capacity;
+			count--;
+			return booking;
+		}
+
+		@Override
+		public void run() {
+			List<Booking> batch = new ArrayList<>();
+			while (running) {
+				lock.lock();
+				try {
+					while (count == 0) {
+						notEmpty.await();
+					}
+					while (count > 0) {
+						Booking booking = take();
+						if (pending != null)
+							pending.remove(booking);
+						batch.add(booking);
+					}
+					notFull.signalAll();
+				} catch (InterruptedException e) {
+					return;
+				} finally {
+					lock.unlock();
+				}
+				long start = System.nanoTime();
+				deliver(batch);
+				dispatchLatency.recordSince(start);
+				// listeners may hold on to the list they got
+				batch = new ArrayList<>();
+			}
+		}
+
+		private void deliver(List<Booking> batch) {
+			if (listener instanceof BatchBookingEventListener) {
+				try {
+					((BatchBookingEventListener) listener).updatedAll(Collections.unmodifiableList(batch));
+				} catch (RuntimeException e) {
+					logger.error("Booking event listener failed: {}", listener, e);
+				}
+				delivered.addAndGet(batch.size());
+				return;
+			}
+			for (Booking booking : batch) {
+				try {
+					listener.updated(booking);
+				} catch (RuntimeException e) {
+					logger.error("Booking event listener failed: {}", listener, e);
+				}
+				delivered.incrementAndGet();
+			}
+		}
+	}
+}
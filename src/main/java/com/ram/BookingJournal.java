@@ -0,0 +1,33 @@
+package com.ram;
+
+/**
+ * Where DefaultBookingService records its state transitions. Appends happen
+ * while the booking locks are held, so the order of the journal is an order in
+ * which the transitions could have happened one by one.
+ * 
+ * @author Ram
+ * 
+ */
+public interface BookingJournal {
+	/**
+	 * Must be cheap, it is called inside the booking critical section.
+	 * 
+	 * @param transition
+	 * @return sequence number of the transition, increasing by one per append
+	 */
+	long append(BookingTransition transition);
+
+	/**
+	 * Blocks until every transition up to the given sequence is durable.
+	 * Called after the booking locks are released, so concurrent check-ins and
+	 * check-outs share one sync (group commit).
+	 * 
+	 * @param sequence
+	 */
+	void awaitDurable(long sequence);
+
+	/**
+	 * @return sequence of the last appended transition, 0 if none
+	 */
+	long lastSequence();
+}
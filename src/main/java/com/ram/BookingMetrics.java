@@ -0,0 +1,161 @@
+package com.ram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * What DefaultBookingService measures about itself. Counters are LongAdders
+ * (striped, so concurrent check-ins don't fight over one cache line) and
+ * latencies go into {@link LatencyHistogram}s, whose buckets are a plain
+ * atomic increment. All of it is cheap enough to stay on in production. Hand
+ * it to a {@link MetricsReporter} with {@link #toMap()}, or read the
+ * individual metrics.
+ *
+ * @author Ram
+ *
+ */
+public class BookingMetrics {
+	private static final RoomType[] ROOM_TYPES = RoomType.values();
+	private static final MembershipType[] MEMBERSHIP_TYPES = MembershipType.values();
+
+	private final LatencyHistogram checkInLatency = new LatencyHistogram();
+	private final LatencyHistogram checkOutLatency = new LatencyHistogram();
+	private final LatencyHistogram lockWait = new LatencyHistogram();
+	private final LatencyHistogram lockHold = new LatencyHistogram();
+	private final LatencyHistogram timeToRoom = new LatencyHistogram();
+	private final LatencyHistogram listenerDispatch;
+	private final LongAdder promotions = new LongAdder();
+	// MembershipType ordinal, RoomType ordinal --> guests of that tier who got
+	// a room of that type that is not their preferred one
+	private final LongAdder[][] upgrades = new LongAdder[MEMBERSHIP_TYPES.length][ROOM_TYPES.length];
+	// the service's own waiting counts, read as gauges
+	private final AtomicInteger[] waitingCount;
+
+	BookingMetrics(LatencyHistogram listenerDispatch, AtomicInteger[] waitingCount) {
+		this.listenerDispatch = listenerDispatch;
+		this.waitingCount = waitingCount;
+		for (LongAdder[] row : upgrades) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] = new LongAdder();
+			}
+		}
+	}
+
+	/**
+	 * @return latency of checkIn and checkInAll, per call
+	 */
+	public LatencyHistogram getCheckInLatency() {
+		return checkInLatency;
+	}
+
+	/**
+	 * @return latency of checkOut and checkOutAll, per call
+	 */
+	public LatencyHistogram getCheckOutLatency() {
+		return checkOutLatency;
+	}
+
+	/**
+	 * @return time spent acquiring a set of booking locks
+	 */
+	public LatencyHistogram getLockWait() {
+		return lockWait;
+	}
+
+	/**
+	 * @return time a set of booking locks was held
+	 */
+	public LatencyHistogram getLockHold() {
+		return lockHold;
+	}
+
+	/**
+	 * @return for guests who had to wait, time from check-in to getting a room
+	 */
+	public LatencyHistogram getTimeToRoom() {
+		return timeToRoom;
+	}
+
+	/**
+	 * @return time listeners took per delivered batch of events
+	 */
+	public LatencyHistogram getListenerDispatch() {
+		return listenerDispatch;
+	}
+
+	/**
+	 * @return guests moved to a priority waiting list
+	 */
+	public long getPromotions() {
+		return promotions.sum();
+	}
+
+	/**
+	 * @return guests of the tier who got a room of the type even though it is
+	 *         not their preferred one, e.g. a PLATINUM guest in a GOLD room
+	 */
+	public long getUpgrades(MembershipType memType, RoomType roomType) {
+		return upgrades[memType.ordinal()][roomType.ordinal()].sum();
+	}
+
+	/**
+	 * @return guests in both waiting lists of the tier, right now
+	 */
+	public int getWaitingDepth(MembershipType memType) {
+		return waitingCount[memType.ordinal()].get();
+	}
+
+	void promoted() {
+		promotions.increment();
+	}
+
+	void upgraded(MembershipType memType, RoomType roomType) {
+		upgrades[memType.ordinal()][roomType.ordinal()].increment();
+	}
+
+	void gotRoomAfterWaiting(Booking booking, long nowMillis) {
+		timeToRoom.record(TimeUnit.MILLISECONDS.toNanos(nowMillis - booking.getCreatedTime()));
+	}
+
+	/**
+	 * Flattens every metric into dotted names, latencies in nanoseconds, e.g.
+	 * "checkIn.latency.p99" or "upgrades.PLATINUM.GOLD". Upgrade pairs that
+	 * never happened are left out.
+	 *
+	 * @return sorted by name
+	 */
+	public Map<String, Number> toMap() {
+		Map<String, Number> metrics = new TreeMap<>();
+		put(metrics, "checkIn.latency", checkInLatency);
+		put(metrics, "checkOut.latency", checkOutLatency);
+		put(metrics, "lock.wait", lockWait);
+		put(metrics, "lock.hold", lockHold);
+		put(metrics, "waiting.timeToRoom", timeToRoom);
+		put(metrics, "listener.dispatch", listenerDispatch);
+		metrics.put("waiting.promotions", getPromotions());
+		for (MembershipType memType : MEMBERSHIP_TYPES) {
+			metrics.put("waiting.depth." + memType, getWaitingDepth(memType));
+			for (RoomType roomType : ROOM_TYPES) {
+				long count = getUpgrades(memType, roomType);
+				if (count > 0)
+					metrics.put("upgrades." + memType + "." + roomType, count);
+			}
+		}
+		return metrics;
+	}
+
+	private static void put(Map<String, Number> metrics, String name, LatencyHistogram histogram) {
+		metrics.put(name + ".count", histogram.getCount());
+		metrics.put(name + ".mean", histogram.getMean());
+		metrics.put(name + ".p50", histogram.getValueAtPercentile(50));
+		metrics.put(name + ".p99", histogram.getValueAtPercentile(99));
+		metrics.put(name + ".p999", histogram.getValueAtPercentile(99.9));
+		metrics.put(name + ".max", histogram.getMax());
+	}
+}
@@ -0,0 +1,225 @@
+package com.ram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warm standby of a primary DefaultBookingService: connects to the primary's
+ * {@link ReplicationPublisher}, restores the snapshot it gets first into its
+ * own service and then applies the primary's transitions as they come. The
+ * service answers getOccupancyRatio and getWaitingList like the primary did a
+ * moment ago.
+ * <p>
+ * The replica's service must be fresh and have the same rooms as the
+ * primary's. Don't check guests in or out on it, and run it on a
+ * {@link VirtualBookingClock} that is never advanced: the promotions come from
+ * the primary, a sweeper of its own would promote guests twice.
+ * <p>
+ * Whatever the socket delivers in one read is applied under one lock-all, so
+ * readers only ever see states the primary went through, and a busy primary
+ * costs the replica fewer lock round trips.
+ *
+ * @author Ram
+ *
+ */
+public class BookingReplica implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(BookingReplica.class);
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final DefaultBookingService service;
+	private final SocketChannel channel;
+	private final Thread receiver;
+	// bookingId --> booking, for the bookings in the waiting lists
+	private final Map<Integer, Booking> waiting = new HashMap<>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition progressed = lock.newCondition();
+	// -1 until the snapshot is restored
+	private volatile long appliedSequence = -1;
+	private volatile boolean connected = true;
+
+	/**
+	 * Connects and starts following the primary.
+	 *
+	 * @param service
+	 *            fresh service to replicate into
+	 * @param primary
+	 *            address the primary's publisher listens on
+	 * @throws IOException
+	 */
+	public BookingReplica(DefaultBookingService service, InetSocketAddress primary) throws IOException {
+		if (service == null)
+			throw new IllegalArgumentException("Booking service must not be null.");
+		this.service = service;
+		this.channel = SocketChannel.open(primary);
+		this.receiver = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				receiveLoop();
+			}
+		}, "booking-replica");
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+
+	/**
+	 * @return sequence of the last transition applied, -1 before the snapshot
+	 *         is restored
+	 */
+	public long getAppliedSequence() {
+		return appliedSequence;
+	}
+
+	/**
+	 * @return false once the primary went away or the stream broke
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * Waits until the replica caught up with the given sequence of the
+	 * primary's journal.
+	 *
+	 * @return false if it timed out or the replica disconnected first
+	 */
+	public boolean awaitSequence(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (appliedSequence < sequence) {
+				if (!connected || nanos <= 0)
+					return false;
+				nanos = progressed.awaitNanos(nanos);
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops following the primary. The service keeps the state as of the last
+	 * transition applied.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+		try {
+			receiver.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void receiveLoop() {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		List<BookingTransition> batch = new ArrayList<>();
+		try {
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				long sequence = appliedSequence;
+				while (buffer.remaining() >= 4) {
+					int length = buffer.getInt(buffer.position());
+					if (buffer.remaining() < 4 + length)
+						break;
+					int end = buffer.position() + 4 + length;
+					buffer.getInt();
+					byte kind = buffer.get();
+					long frameSequence = buffer.getLong();
+					if (kind == ReplicationPublisher.SNAPSHOT_FRAME) {
+						ByteBuffer snapshot = buffer.slice();
+						snapshot.limit(end - buffer.position());
+						restore(BookingSnapshot.decode(snapshot));
+						sequence = appliedSequence;
+					} else if (kind == ReplicationPublisher.TRANSITION_FRAME) {
+						if (sequence < 0)
+							throw new IOException("Transition " + frameSequence + " before the snapshot");
+						if (frameSequence != sequence + 1)
+							throw new IOException("Expected transition " + (sequence + 1) + ", got "
+									+ frameSequence);
+						batch.add(BookingTransition.readFrom(buffer));
+						sequence = frameSequence;
+					} else {
+						throw new IOException("Unknown frame kind " + kind);
+					}
+					buffer.position(end);
+				}
+				if (!batch.isEmpty()) {
+					service.applyReplicated(batch, waiting);
+					batch.clear();
+					advance(sequence);
+				}
+				buffer.compact();
+				if (!buffer.hasRemaining()) {
+					buffer = grow(buffer);
+				} else if (buffer.capacity() > BUFFER_SIZE && buffer.position() <= BUFFER_SIZE / 2) {
+					// the snapshot is through, don't keep its buffer
+					buffer.flip();
+					buffer = ByteBuffer.allocate(BUFFER_SIZE).put(buffer);
+				}
+			}
+			logger.info("Primary closed the replication stream at sequence {}", appliedSequence);
+		} catch (IOException | RuntimeException e) {
+			if (channel.isOpen())
+				logger.error("Replication stopped at sequence " + appliedSequence, e);
+		} finally {
+			lock.lock();
+			try {
+				connected = false;
+				progressed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.warn("Could not close the replication stream", e);
+			}
+		}
+	}
+
+	private void restore(BookingSnapshot snapshot) {
+		if (appliedSequence >= 0)
+			throw new IllegalStateException("Second snapshot in the stream");
+		service.restore(snapshot);
+		for (Booking booking : service.getWaitingList()) {
+			waiting.put(booking.getBookingId(), booking);
+		}
+		advance(snapshot.getSequence());
+	}
+
+	/**
+	 * The buffer is full with part of a frame, make room for all of it.
+	 */
+	private static ByteBuffer grow(ByteBuffer buffer) {
+		buffer.flip();
+		int needed = 4 + buffer.getInt(0);
+		ByteBuffer grown = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+		grown.put(buffer);
+		return grown;
+	}
+
+	private void advance(long sequence) {
+		lock.lock();
+		try {
+			appliedSequence = sequence;
+			progressed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package com.ram;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * API for booking service
@@ -17,6 +19,25 @@ public interface BookingService {
 	 */
 	Booking checkIn(String guestId);
 
+	/**
+	 * Checks in a group of guests (tour bus, conference block) in one go. Rooms
+	 * are assigned in the given order with the same rules as checkIn. By
+	 * default that's one checkIn after the other, implementations can do the
+	 * batch in one go.
+	 * 
+	 * @param guestIds
+	 * @return one booking per guestId, in the same order
+	 */
+	default List<Booking> checkInAll(Collection<String> guestIds) {
+		if (guestIds == null)
+			throw new IllegalArgumentException("GuestIds must not be null.");
+		List<Booking> bookings = new ArrayList<>(guestIds.size());
+		for (String guestId : guestIds) {
+			bookings.add(checkIn(guestId));
+		}
+		return bookings;
+	}
+
 	/**
 	 * Checks out a room
 	 * 
@@ -24,9 +45,29 @@ public interface BookingService {
 	 */
 	void checkOut(String roomNo);
 
+	/**
+	 * Checks out a group of rooms in one go. By default the rooms are checked
+	 * out one by one, and as checkOut doesn't say which booking it ended the
+	 * list is all nulls then; override it to return the bookings.
+	 * 
+	 * @param roomNos
+	 * @return the checked out booking per roomNo, in the same order (null if
+	 *         the room was not booked, or not known)
+	 */
+	default List<Booking> checkOutAll(Collection<String> roomNos) {
+		if (roomNos == null)
+			throw new IllegalArgumentException("Room Numbers must not be null.");
+		List<Booking> checkedOut = new ArrayList<>(roomNos.size());
+		for (String roomNo : roomNos) {
+			checkOut(roomNo);
+			checkedOut.add(null);
+		}
+		return checkedOut;
+	}
+
 	/**
 	 * Client can subscribe to booking updates, like waiting list got confirmed
-	 * etc.
+	 * etc. Updates may be delivered asynchronously, on another thread.
 	 * 
 	 * @param listener
 	 */
@@ -47,7 +88,8 @@ public interface BookingService {
 	double getOccupancyRatio();
 
 	/**
-	 * Gets the list of waiting bookings.
+	 * Gets the list of waiting bookings, as a snapshot taken at the time of the
+	 * call.
 	 * 
 	 * @return
 	 */
@@ -60,4 +102,15 @@ public interface BookingService {
 	public static interface BookingEventListener {
 		void updated(Booking booking);
 	}
+
+	/**
+	 * Listener that prefers to get all the updates of a batch operation in one
+	 * call instead of one call per booking.
+	 * 
+	 * @author Ram
+	 * 
+	 */
+	public static interface BatchBookingEventListener extends BookingEventListener {
+		void updatedAll(List<Booking> bookings);
+	}
 }
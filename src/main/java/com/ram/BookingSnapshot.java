@@ -0,0 +1,333 @@
+package com.ram;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.ram.Guest.MembershipType;
+
+/**
+ * Point-in-time copy of the live state of a {@link DefaultBookingService}:
+ * every booked room and every waiting guest, in queue order. Take one with
+ * {@link DefaultBookingService#captureSnapshot()}, load it into a fresh
+ * service (a standby, another node) with
+ * {@link DefaultBookingService#restore(BookingSnapshot)}. Free rooms are all
+ * the rooms that are not booked.
+ * <p>
+ * The file is columnar, one array per field, so writing and loading are bulk
+ * copies between the arrays and the channel:
+ *
+ * <pre>
+ * int magic "HSNP", int version, long capturedAt, long sequence, int rows
+ * int[rows]   bookingId
+ * long[rows]  created
+ * byte[rows]  memType ordinal
+ * byte[rows]  state: booked, priority waiting, waiting
+ * guestId, roomNo: int[rows + 1] offsets, then the UTF-8 bytes of all rows
+ * </pre>
+ *
+ * The booked rooms come first, then the waiting guests in the order of
+ * {@link BookingService#getWaitingList()}. The sequence is the one of the last
+ * transition in the service's journal the snapshot includes, so a replica
+ * continues with the transitions after it (see {@link ReplicationPublisher}).
+ *
+ * @author Ram
+ *
+ */
+public final class BookingSnapshot {
+	static final byte BOOKED = 0;
+	static final byte PRIORITY_WAITING = 1;
+	static final byte WAITING = 2;
+
+	private static final int MAGIC = 0x48534e50;
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+	private static final MembershipType[] MEMBERSHIP_TYPES = MembershipType.values();
+
+	private final long capturedAt;
+	private final long sequence;
+	private final int rows;
+	private final int[] bookingIds;
+	private final long[] created;
+	private final byte[] memTypes;
+	private final byte[] states;
+	private final String[] guestIds;
+	// null for the waiting guests
+	private final String[] roomNos;
+
+	private BookingSnapshot(long capturedAt, long sequence, int rows, int[] bookingIds, long[] created,
+			byte[] memTypes, byte[] states, String[] guestIds, String[] roomNos) {
+		this.capturedAt = capturedAt;
+		this.sequence = sequence;
+		this.rows = rows;
+		this.bookingIds = bookingIds;
+		this.created = created;
+		this.memTypes = memTypes;
+		this.states = states;
+		this.guestIds = guestIds;
+		this.roomNos = roomNos;
+	}
+
+	/**
+	 * @return millis since the epoch on the service's clock
+	 */
+	public long getCapturedAt() {
+		return capturedAt;
+	}
+
+	/**
+	 * @return journal sequence of the last transition included, 0 if the
+	 *         service has no journal
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return booked rooms plus waiting guests
+	 */
+	public int size() {
+		return rows;
+	}
+
+	public int getBooked() {
+		int booked = 0;
+		while (booked < rows && states[booked] == BOOKED)
+			booked++;
+		return booked;
+	}
+
+	public int getWaiting() {
+		return rows - getBooked();
+	}
+
+	int getBookingId(int row) {
+		return bookingIds[row];
+	}
+
+	long getCreated(int row) {
+		return created[row];
+	}
+
+	MembershipType getMemType(int row) {
+		return MEMBERSHIP_TYPES[memTypes[row]];
+	}
+
+	byte getState(int row) {
+		return states[row];
+	}
+
+	String getGuestId(int row) {
+		return guestIds[row];
+	}
+
+	String getRoomNo(int row) {
+		return roomNos[row];
+	}
+
+	/**
+	 * Writes the snapshot to a temporary file next to the given one and moves
+	 * it in place, so a reader never sees half of it.
+	 */
+	public void write(File file) throws IOException {
+		ByteBuffer[] columns = encode();
+		File tmp = new File(file.getPath() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(channel, columns);
+			channel.force(true);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @return the columns, ready to be written in one gathering write
+	 */
+	ByteBuffer[] encode() {
+		byte[][] guestIdBytes = encode(guestIds);
+		byte[][] roomNoBytes = encode(roomNos);
+		ByteBuffer[] columns = { ByteBuffer.allocate(HEADER_SIZE), ByteBuffer.allocate(rows * 4),
+				ByteBuffer.allocate(rows * 8), ByteBuffer.wrap(memTypes, 0, rows), ByteBuffer.wrap(states, 0, rows),
+				offsets(guestIdBytes), bytes(guestIdBytes), offsets(roomNoBytes), bytes(roomNoBytes) };
+		columns[0].putInt(MAGIC).putInt(VERSION).putLong(capturedAt).putLong(sequence).putInt(rows).flip();
+		columns[1].asIntBuffer().put(bookingIds, 0, rows);
+		columns[2].asLongBuffer().put(created, 0, rows);
+		return columns;
+	}
+
+	static void writeFully(GatheringByteChannel channel, ByteBuffer[] buffers) throws IOException {
+		long remaining = 0;
+		for (ByteBuffer buffer : buffers) {
+			remaining += buffer.remaining();
+		}
+		while (remaining > 0) {
+			remaining -= channel.write(buffers);
+		}
+	}
+
+	public static BookingSnapshot read(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			return decode(buffer);
+		} catch (IOException e) {
+			throw new IOException(e.getMessage() + ": " + file, e);
+		}
+	}
+
+	/**
+	 * Reads a snapshot written by {@link #encode()}, the buffer ends up after
+	 * it.
+	 */
+	static BookingSnapshot decode(ByteBuffer buffer) throws IOException {
+		try {
+			if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC)
+				throw new IOException("Not a booking snapshot");
+			int version = buffer.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported snapshot version " + version);
+			long capturedAt = buffer.getLong();
+			long sequence = buffer.getLong();
+			int rows = buffer.getInt();
+			int[] bookingIds = new int[rows];
+			long[] created = new long[rows];
+			byte[] memTypes = new byte[rows];
+			byte[] states = new byte[rows];
+			buffer.asIntBuffer().get(bookingIds);
+			buffer.position(buffer.position() + rows * 4);
+			buffer.asLongBuffer().get(created);
+			buffer.position(buffer.position() + rows * 8);
+			buffer.get(memTypes);
+			buffer.get(states);
+			String[] guestIds = decode(buffer, rows);
+			String[] roomNos = decode(buffer, rows);
+			return new BookingSnapshot(capturedAt, sequence, rows, bookingIds, created, memTypes, states, guestIds,
+					roomNos);
+		} catch (RuntimeException e) {
+			// BufferUnderflowException etc.
+			throw new IOException("Corrupt booking snapshot", e);
+		}
+	}
+
+	private static byte[][] encode(String[] strings) {
+		byte[][] encoded = new byte[strings.length][];
+		for (int i = 0; i < strings.length; i++) {
+			encoded[i] = strings[i] == null ? null : strings[i].getBytes(StandardCharsets.UTF_8);
+		}
+		return encoded;
+	}
+
+	/**
+	 * A null string has a negative length, the offset of the next one with
+	 * its sign flipped.
+	 */
+	private static ByteBuffer offsets(byte[][] encoded) {
+		ByteBuffer offsets = ByteBuffer.allocate((encoded.length + 1) * 4);
+		int offset = 0;
+		offsets.putInt(0);
+		for (byte[] bytes : encoded) {
+			if (bytes == null) {
+				offsets.putInt(-offset - 1);
+			} else {
+				offset += bytes.length;
+				offsets.putInt(offset);
+			}
+		}
+		offsets.flip();
+		return offsets;
+	}
+
+	private static ByteBuffer bytes(byte[][] encoded) {
+		int total = 0;
+		for (byte[] bytes : encoded) {
+			if (bytes != null)
+				total += bytes.length;
+		}
+		ByteBuffer all = ByteBuffer.allocate(total);
+		for (byte[] bytes : encoded) {
+			if (bytes != null)
+				all.put(bytes);
+		}
+		all.flip();
+		return all;
+	}
+
+	private static String[] decode(ByteBuffer buffer, int rows) {
+		int[] offsets = new int[rows + 1];
+		buffer.asIntBuffer().get(offsets);
+		buffer.position(buffer.position() + offsets.length * 4);
+		int total = 0;
+		for (int offset : offsets) {
+			total = Math.max(total, offset);
+		}
+		byte[] bytes = new byte[total];
+		buffer.get(bytes);
+		String[] strings = new String[rows];
+		int start = 0;
+		for (int i = 0; i < rows; i++) {
+			int end = offsets[i + 1];
+			if (end < 0)
+				continue;
+			strings[i] = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+			start = end;
+		}
+		return strings;
+	}
+
+	/**
+	 * Collects the rows, booked rooms first.
+	 */
+	static final class Builder {
+		private final long capturedAt;
+		private final long sequence;
+		private int rows;
+		private int[] bookingIds = new int[16];
+		private long[] created = new long[16];
+		private byte[] memTypes = new byte[16];
+		private byte[] states = new byte[16];
+		private String[] guestIds = new String[16];
+		private String[] roomNos = new String[16];
+
+		Builder(long capturedAt, long sequence) {
+			this.capturedAt = capturedAt;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * @param roomNo
+		 *            null unless booked
+		 */
+		Builder add(int bookingId, String guestId, MembershipType memType, long createdAt, byte state, String roomNo) {
+			if (rows == bookingIds.length) {
+				int capacity = rows * 2;
+				bookingIds = Arrays.copyOf(bookingIds, capacity);
+				created = Arrays.copyOf(created, capacity);
+				memTypes = Arrays.copyOf(memTypes, capacity);
+				states = Arrays.copyOf(states, capacity);
+				guestIds = Arrays.copyOf(guestIds, capacity);
+				roomNos = Arrays.copyOf(roomNos, capacity);
+			}
+			bookingIds[rows] = bookingId;
+			guestIds[rows] = guestId;
+			memTypes[rows] = (byte) memType.ordinal();
+			created[rows] = createdAt;
+			states[rows] = state;
+			roomNos[rows] = roomNo;
+			rows++;
+			return this;
+		}
+
+		BookingSnapshot build() {
+			return new BookingSnapshot(capturedAt, sequence, rows, bookingIds, created, memTypes, states,
+					Arrays.copyOf(guestIds, rows), Arrays.copyOf(roomNos, rows));
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.ram;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.ram.Guest.MembershipType;
+
+/**
+ * One change of booking state, as written to the journal. Replaying the
+ * transitions in order on an empty hotel rebuilds the bookings and the waiting
+ * lists, queue order included.
+ *
+ * @author Ram
+ *
+ */
+public final class BookingTransition {
+	public static enum Type {
+		/** guest got a room straight away at check-in */
+		CHECKED_IN,
+		/** guest joined the standard waiting list of their membership type */
+		WAITING,
+		/** waiting guest moved to the priority waiting list */
+		PROMOTED,
+		/** waiting guest got the room of a check-out */
+		CONFIRMED_FROM_WAITING,
+		/** room was checked out, it is free unless the next transition hands it on */
+		CHECKED_OUT
+	}
+
+	private static final Type[] TYPES = Type.values();
+	private static final MembershipType[] MEMBERSHIP_TYPES = MembershipType.values();
+
+	private final Type type;
+	private final int bookingId;
+	private final String guestId;
+	private final MembershipType memType;
+	private final String roomNo;
+	// booking creation time for CHECKED_IN and WAITING, so a restored waiting
+	// guest keeps the time they already waited
+	private final long created;
+
+	private BookingTransition(Type type, int bookingId, String guestId, MembershipType memType, String roomNo,
+			long created) {
+		this.type = type;
+		this.bookingId = bookingId;
+		this.guestId = guestId;
+		this.memType = memType;
+		this.roomNo = roomNo;
+		this.created = created;
+	}
+
+	public static BookingTransition checkedIn(Booking booking) {
+		return new BookingTransition(Type.CHECKED_IN, booking.getBookingId(), booking.getGuestId(),
+				booking.getMemType(), booking.getRoomNo(), booking.getCreatedTime());
+	}
+
+	public static BookingTransition waiting(Booking booking) {
+		return new BookingTransition(Type.WAITING, booking.getBookingId(), booking.getGuestId(), booking.getMemType(),
+				null, booking.getCreatedTime());
+	}
+
+	public static BookingTransition promoted(Booking booking) {
+		return new BookingTransition(Type.PROMOTED, booking.getBookingId(), null, booking.getMemType(), null, 0);
+	}
+
+	public static BookingTransition confirmedFromWaiting(Booking booking) {
+		return new BookingTransition(Type.CONFIRMED_FROM_WAITING, booking.getBookingId(), null, booking.getMemType(),
+				booking.getRoomNo(), 0);
+	}
+
+	public static BookingTransition checkedOut(Booking booking) {
+		return new BookingTransition(Type.CHECKED_OUT, booking.getBookingId(), null, null, booking.getRoomNo(), 0);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public int getBookingId() {
+		return bookingId;
+	}
+
+	public String getGuestId() {
+		return guestId;
+	}
+
+	public MembershipType getMemType() {
+		return memType;
+	}
+
+	public String getRoomNo() {
+		return roomNo;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return upper bound of the bytes writeTo needs
+	 */
+	int maxEncodedSize() {
+		return 1 + 4 + 1 + 8 + maxEncodedSize(guestId) + maxEncodedSize(roomNo);
+	}
+
+	void writeTo(ByteBuffer buffer) {
+		buffer.put((byte) type.ordinal());
+		buffer.putInt(bookingId);
+		buffer.put(memType == null ? -1 : (byte) memType.ordinal());
+		buffer.putLong(created);
+		writeString(buffer, guestId);
+		writeString(buffer, roomNo);
+	}
+
+	static BookingTransition readFrom(ByteBuffer buffer) {
+		Type type = TYPES[buffer.get()];
+		int bookingId = buffer.getInt();
+		byte memType = buffer.get();
+		long created = buffer.getLong();
+		String guestId = readString(buffer);
+		String roomNo = readString(buffer);
+		return new BookingTransition(type, bookingId, guestId, memType < 0 ? null : MEMBERSHIP_TYPES[memType],
+				roomNo, created);
+	}
+
+	private static int maxEncodedSize(String value) {
+		return 2 + (value == null ? 0 : value.length() * 3);
+	}
+
+	private static void writeString(ByteBuffer buffer, String value) {
+		if (value == null) {
+			buffer.putShort((short) -1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		short length = buffer.getShort();
+		if (length < 0)
+			return null;
+		String value;
+		if (buffer.hasArray()) {
+			value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			value = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return "BookingTransition [type=" + type + ", bookingId=" + bookingId + ", guestId=" + guestId + ", memType="
+				+ memType + ", roomNo=" + roomNo + ", created=" + created + "]";
+	}
+}
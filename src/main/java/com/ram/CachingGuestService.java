@@ -0,0 +1,298 @@
+package com.ram;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read-through cache in front of a slow GuestService (database, distributed
+ * cache...).
+ * <ul>
+ * <li>bounded: least recently used guests are evicted once maximumSize is
+ * reached</li>
+ * <li>guests expire timeToLive after they were loaded, so membership upgrades
+ * show up eventually</li>
+ * <li>concurrent misses for the same guest are coalesced, only one of the
+ * threads goes to the backend and the others wait for its result</li>
+ * </ul>
+ * The cache is split into segments, each an access-ordered LinkedHashMap with
+ * its own lock, so lookups of different guests rarely contend. Unknown guests
+ * are not cached.
+ * <p>
+ * Cached guests are copies, a backend handing out flyweights (see
+ * OffHeapGuestService) is fine.
+ *
+ * @author Ram
+ *
+ */
+public class CachingGuestService implements GuestService {
+	private final GuestService backend;
+	private final long timeToLiveNanos;
+	private final Segment[] segments;
+	// guestId --> load in progress
+	private final ConcurrentMap<String, FutureTask<Guest>> loading = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong loadNanos = new AtomicLong();
+	private final AtomicLong coalescedLoads = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param backend
+	 * @param maximumSize
+	 *            guests kept at most
+	 * @param timeToLive
+	 * @param unit
+	 */
+	public CachingGuestService(GuestService backend, int maximumSize, long timeToLive, TimeUnit unit) {
+		if (backend == null)
+			throw new IllegalArgumentException("Backend must not be null.");
+		if (maximumSize <= 0)
+			throw new IllegalArgumentException("Maximum size must be positive.");
+		if (timeToLive <= 0)
+			throw new IllegalArgumentException("Time to live must be positive.");
+		this.backend = backend;
+		this.timeToLiveNanos = unit.toNanos(timeToLive);
+		// small caches are not worth splitting, and a single segment keeps the
+		// eviction order exact
+		int segmentCount = maximumSize < 1024 ? 1 : 16;
+		segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0));
+		}
+	}
+
+	@Override
+	public Guest getGuest(String guestId) {
+		if (guestId == null)
+			return null;
+		Guest guest = segmentFor(guestId).get(guestId);
+		if (guest != null) {
+			hits.incrementAndGet();
+			return guest;
+		}
+		misses.incrementAndGet();
+		return load(guestId);
+	}
+
+	/**
+	 * Cached guests are served from the cache, all the others are loaded with
+	 * one call to the backend.
+	 */
+	@Override
+	public Map<String, Guest> getGuests(Collection<String> guestIds) {
+		Map<String, Guest> guests = new HashMap<>(guestIds.size() * 2);
+		List<String> missing = new ArrayList<>();
+		for (String guestId : guestIds) {
+			Guest guest = guestId == null ? null : segmentFor(guestId).get(guestId);
+			if (guest != null) {
+				hits.incrementAndGet();
+				guests.put(guestId, guest);
+			} else if (guestId != null) {
+				misses.incrementAndGet();
+				missing.add(guestId);
+			}
+		}
+		if (missing.isEmpty())
+			return guests;
+
+		long start = System.nanoTime();
+		Map<String, Guest> loaded = backend.getGuests(missing);
+		recordLoad(start);
+		for (Map.Entry<String, Guest> entry : loaded.entrySet()) {
+			Guest guest = copy(entry.getValue());
+			segmentFor(entry.getKey()).put(entry.getKey(), guest);
+			guests.put(entry.getKey(), guest);
+		}
+		return guests;
+	}
+
+	private Guest load(final String guestId) {
+		FutureTask<Guest> task = new FutureTask<>(new Callable<Guest>() {
+			@Override
+			public Guest call() {
+				// somebody may have loaded it between our miss and now
+				Guest guest = segmentFor(guestId).get(guestId);
+				if (guest != null)
+					return guest;
+				long start = System.nanoTime();
+				try {
+					guest = copy(backend.getGuest(guestId));
+				} finally {
+					recordLoad(start);
+				}
+				if (guest != null)
+					segmentFor(guestId).put(guestId, guest);
+				return guest;
+			}
+		});
+		FutureTask<Guest> running = loading.putIfAbsent(guestId, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				loading.remove(guestId, task);
+			}
+		} else {
+			coalescedLoads.incrementAndGet();
+		}
+
+		try {
+			return running.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException("Could not load guest " + guestId, e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading guest " + guestId, e);
+		}
+	}
+
+	private void recordLoad(long start) {
+		loads.incrementAndGet();
+		loadNanos.addAndGet(System.nanoTime() - start);
+	}
+
+	private static Guest copy(Guest guest) {
+		if (guest == null)
+			return null;
+		Guest copy = new Guest();
+		copy.setGuestId(guest.getGuestId());
+		copy.setMemType(guest.getMemType());
+		copy.setName(guest.getName());
+		return copy;
+	}
+
+	private Segment segmentFor(String guestId) {
+		int h = guestId.hashCode();
+		return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return calls that went to the backend
+	 */
+	public long getLoadCount() {
+		return loads.get();
+	}
+
+	/**
+	 * @return misses that waited for another thread's load instead of loading
+	 */
+	public long getCoalescedLoadCount() {
+		return coalescedLoads.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return mean time of a backend call in nanoseconds, 0 before the first
+	 */
+	public double getAverageLoadNanos() {
+		long count = loads.get();
+		return count == 0 ? 0 : loadNanos.get() / (double) count;
+	}
+
+	public double getHitRatio() {
+		long requests = hits.get() + misses.get();
+		return requests == 0 ? 0 : hits.get() / (double) requests;
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	private static class Entry {
+		private final Guest guest;
+		private final long expiresAt;
+
+		Entry(Guest guest, long expiresAt) {
+			this.guest = guest;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * One LRU slice of the cache.
+	 */
+	private class Segment {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final LinkedHashMap<String, Entry> entries;
+
+		Segment(final int maximumSize) {
+			entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+					if (size() <= maximumSize)
+						return false;
+					evictions.incrementAndGet();
+					return true;
+				}
+			};
+		}
+
+		Guest get(String guestId) {
+			lock.lock();
+			try {
+				Entry entry = entries.get(guestId);
+				if (entry == null)
+					return null;
+				if (entry.expiresAt - System.nanoTime() <= 0) {
+					entries.remove(guestId);
+					return null;
+				}
+				return entry.guest;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void put(String guestId, Guest guest) {
+			lock.lock();
+			try {
+				entries.put(guestId, new Entry(guest, System.nanoTime() + timeToLiveNanos));
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		int size() {
+			lock.lock();
+			try {
+				return entries.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
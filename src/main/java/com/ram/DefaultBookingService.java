@@ -1,58 +1,106 @@
 package com.ram;
 
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.ram.Booking.BookingStatus;
+import com.ram.BookingEventBus.OverflowPolicy;
 import com.ram.Guest.MembershipType;
 import com.ram.Room.RoomType;
 
 /**
- * A booking service implementation. I used synchronized on all methods
- * intentionally as it is quite important do the check-in and check-out in a
- * mutually exclusive manner because they both update waiting lists/booking
- * information etc.
- * 
- * 
+ * A booking service implementation. Check-in and check-out still have to be
+ * mutually exclusive whenever they touch the same room inventory or waiting
+ * lists, but instead of one monitor for the whole hotel the state is striped:
+ * <ul>
+ * <li>one lock per {@link RoomType}, guarding that type's free rooms (in the
+ * RoomService) and the bookings of rooms of that type</li>
+ * <li>one lock per {@link MembershipType}, guarding that tier's standard and
+ * priority waiting lists</li>
+ * </ul>
+ * So a STANDARD check-in and a PLATINUM check-out no longer block each other.
+ * <p>
+ * Lock ordering rule (this is what keeps the cross-tier upgrade paths
+ * deadlock-free): room-type locks are always taken before membership-type
+ * locks, and within each family locks are taken in ascending enum ordinal
+ * order. Nobody ever acquires a lock while holding one that comes later in
+ * that order.
+ * <p>
+ * A guest only joins a waiting list while holding the locks of every room type
+ * eligible for their tier and of every room type whose check-outs pick up the
+ * tier (the rules need not be symmetric), so a check-out (which holds its
+ * room-type lock) can never miss a waiter that is about to be queued.
+ *
+ *
  * @author Ram
- * 
+ *
  */
 public class DefaultBookingService implements BookingService {
 	private static final Logger logger = LoggerFactory.getLogger(DefaultBookingService.class);
 
-	// roomNo --> Booking (one room, one booking)
-	private volatile Map<String, Booking> bookings = new HashMap<>();
+	// RoomType --> bookings of the rooms of that type (one room, one booking).
+	// Only touched while holding the lock of the room type.
+	private final RoomBookings[] bookings = new RoomBookings[EligibilityTable.ROOM_TYPES.length];
 
-	// MembershipType --> List of Bookings, in Standard Waiting
-	private Map<MembershipType, LinkedList<Booking>> standardWaitingList = new HashMap<>();
+	// every waiting list as of the last change of any of them, read by
+	// getWaitingList without any lock
+	private final AtomicReference<WaitingSnapshot> waitingSnapshot = new AtomicReference<>(WaitingSnapshot.EMPTY);
 
-	// MembershipType --> List of Bookings, in Priority Waiting (Waited for more
-	// than the Max Waiting Time)
-	private Map<MembershipType, LinkedList<Booking>> priorityWaitingList = new HashMap<>();
+	// All per-type state is in arrays indexed by the enum ordinal.
 
-	// this additional map is to reduce the time complexity of reads (for
-	// getWaitingList implementation), it is totally optional.
-	// BookingId --> Booking
-	private Map<Integer, Booking> allWaitingLists = new HashMap<>();
+	// MembershipType --> Queue of Bookings, in Standard Waiting
+	private final WaitingQueue[] standardWaitingList = new WaitingQueue[EligibilityTable.MEMBERSHIP_TYPES.length];
 
-	private CopyOnWriteArraySet<BookingEventListener> listeners = new CopyOnWriteArraySet<>();
+	// MembershipType --> Queue of Bookings, in Priority Waiting (Waited for
+	// more than the Max Waiting Time)
+	private final WaitingQueue[] priorityWaitingList = new WaitingQueue[EligibilityTable.MEMBERSHIP_TYPES.length];
 
-	// just chose random number of threads, but in real projects, I generally
-	// estimate based on the load characteristics of the application.
-	private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(3);
+	// MembershipType --> number of bookings in both waiting lists of that tier.
+	// Lets a check-out skip the locks of tiers nobody is waiting in.
+	private final AtomicInteger[] waitingCount = new AtomicInteger[EligibilityTable.MEMBERSHIP_TYPES.length];
+
+	// lock stripes, see the class comment for the ordering rule. Sets of
+	// locks are passed around as bitmasks over the ordinals, locking in
+	// ascending bit order is locking in lock order.
+	private final ReentrantLock[] roomLocks = new ReentrantLock[EligibilityTable.ROOM_TYPES.length];
+	private final ReentrantLock[] waitingLocks = new ReentrantLock[EligibilityTable.MEMBERSHIP_TYPES.length];
+
+	// the converter's rules, compiled to arrays and masks
+	private final EligibilityTable eligibility;
+
+	// listeners are called on the bus' own threads, never under our locks
+	private final BookingEventBus eventBus;
+
+	// every state change is appended here while its locks are held, null
+	// when the service runs without a journal
+	private final BookingJournal journal;
+
+	// gets every state change too, without ever blocking; null unless set up.
+	// With it, the INFO lines per check-in and check-out are not logged.
+	private final AsyncAuditLog auditLog;
+
+	// latencies, lock times and waiting-list counters, see getMetrics
+	private final BookingMetrics metrics;
+
+	// the time of check-ins and promotions; also runs the promotion sweeper
+	// (and snapshots, metrics reports), see PromotionSweeper
+	private final BookingClock clock;
 	private final RoomService roomService;
 	private GuestService guestService;
-	private final RoomMembershipTypesConverter roomTypesFinder;
 
 	// To make testing quick, I have used Seconds, though in real-world probably
 	// minutes/hours make more sense
@@ -60,142 +108,1058 @@ public class DefaultBookingService implements BookingService {
 
 	public DefaultBookingService(int maxWaitingTimeInMinutes, GuestService guestService, RoomService roomService,
 			RoomMembershipTypesConverter roomTypesFinder) {
+		this(maxWaitingTimeInMinutes, guestService, roomService, roomTypesFinder, new BookingEventBus(1024,
+				OverflowPolicy.BLOCK));
+	}
+
+	public DefaultBookingService(int maxWaitingTimeInMinutes, GuestService guestService, RoomService roomService,
+			RoomMembershipTypesConverter roomTypesFinder, BookingEventBus eventBus) {
+		this(maxWaitingTimeInMinutes, guestService, roomService, roomTypesFinder, eventBus, null);
+	}
+
+	/**
+	 * @param clock
+	 *            e.g. a {@link VirtualBookingClock}, to promote waiting guests
+	 *            without waiting for the wall clock
+	 */
+	public DefaultBookingService(int maxWaitingTimeInMinutes, GuestService guestService, RoomService roomService,
+			RoomMembershipTypesConverter roomTypesFinder, BookingClock clock) {
+		this(maxWaitingTimeInMinutes, guestService, roomService, roomTypesFinder, new BookingEventBus(1024,
+				OverflowPolicy.BLOCK), null, null, clock);
+	}
+
+	public DefaultBookingService(int maxWaitingTimeInMinutes, GuestService guestService, RoomService roomService,
+			RoomMembershipTypesConverter roomTypesFinder, BookingEventBus eventBus, BookingJournal journal) {
+		this(maxWaitingTimeInMinutes, guestService, roomService, roomTypesFinder, eventBus, journal, null);
+	}
+
+	public DefaultBookingService(int maxWaitingTimeInMinutes, GuestService guestService, RoomService roomService,
+			RoomMembershipTypesConverter roomTypesFinder, BookingEventBus eventBus, BookingJournal journal,
+			AsyncAuditLog auditLog) {
+		this(maxWaitingTimeInMinutes, guestService, roomService, roomTypesFinder, eventBus, journal, auditLog,
+				new SystemBookingClock());
+	}
+
+	/**
+	 * @param journal
+	 *            gets every booking transition, check-in and check-out return
+	 *            only once their transitions are durable. Recover the service
+	 *            from it (see {@link #recover(MappedBookingJournal)}) before
+	 *            taking any traffic.
+	 * @param auditLog
+	 *            gets every booking transition as well, written to disk in the
+	 *            background. Replaces the INFO log lines per check-in and
+	 *            check-out.
+	 * @param clock
+	 *            stamps the bookings and runs the periodic tasks, shut down
+	 *            with the service
+	 */
+	public DefaultBookingService(int maxWaitingTimeInMinutes, GuestService guestService, RoomService roomService,
+			RoomMembershipTypesConverter roomTypesFinder, BookingEventBus eventBus, BookingJournal journal,
+			AsyncAuditLog auditLog, BookingClock clock) {
+		if (clock == null)
+			throw new IllegalArgumentException("Clock must not be null.");
 		this.MAX_WAITING_TIME_IN_SECONDS = maxWaitingTimeInMinutes;
+		this.clock = clock;
+		this.eventBus = eventBus;
+		this.journal = journal;
+		this.auditLog = auditLog;
 		this.roomService = roomService;
 		this.guestService = guestService;
-		this.roomTypesFinder = roomTypesFinder;
+		this.eligibility = EligibilityTable.compile(roomTypesFinder);
+		this.metrics = new BookingMetrics(eventBus.getDispatchLatency(), waitingCount);
 
-		for (MembershipType memType : MembershipType.values()) {
-			standardWaitingList.put(memType, new LinkedList<Booking>());
+		for (int i = 0; i < EligibilityTable.MEMBERSHIP_TYPES.length; i++) {
+			standardWaitingList[i] = new WaitingQueue();
+			priorityWaitingList[i] = new WaitingQueue();
+			waitingCount[i] = new AtomicInteger();
+			waitingLocks[i] = new ReentrantLock();
 		}
 
-		for (MembershipType memType : MembershipType.values()) {
-			priorityWaitingList.put(memType, new LinkedList<Booking>());
+		for (int i = 0; i < EligibilityTable.ROOM_TYPES.length; i++) {
+			roomLocks[i] = new ReentrantLock();
+			bookings[i] = new RoomBookings();
 		}
 
+		// a waiting guest is promoted at most a tenth of the max waiting time
+		// late, but the sweeper never runs more often than every 10ms or less
+		// often than every second
+		long sweepIntervalMillis = Math.max(10,
+				Math.min(1000, TimeUnit.SECONDS.toMillis(MAX_WAITING_TIME_IN_SECONDS) / 10));
+		clock.scheduleAtFixedRate(new PromotionSweeper(), sweepIntervalMillis, TimeUnit.MILLISECONDS);
 	}
 
 	@Override
-	public synchronized Booking checkIn(String guestId) {
+	public Booking checkIn(String guestId) {
+		long start = System.nanoTime();
+		try {
+			return checkInGuest(guestId);
+		} finally {
+			metrics.getCheckInLatency().recordSince(start);
+		}
+	}
+
+	private Booking checkInGuest(String guestId) {
 		if (guestId == null)
 			throw new IllegalArgumentException("GuestId must not be null.");
 		Guest guest = guestService.getGuest(guestId);
 		if (guest == null)
 			throw new IllegalArgumentException("Invalid GuestId");
 
-		Booking booking = new Booking(guest.getGuestId());
-		String roomNo = reserveRoomForType(guest.getMemType());
-		if (roomNo != null) {
-			// found a room
-			booking.setStatus(BookingStatus.CONFIRMED);
-			booking.setRoomNo(roomNo);
-			bookings.put(roomNo, booking);
-			logger.info("Checked In Guest: {}, into RoomNo: {}", booking.getGuestId(), roomNo);
-		} else {
-			// did not find a room, so keep the guest on the waiting list
-			standardWaitingList.get(guest.getMemType()).add(booking);
-			allWaitingLists.put(booking.getBookingId(), booking);
-			// start timer to track how long a guest is waiting
-			scheduler.schedule(new WaitingTimeTrackingRunnable(booking), MAX_WAITING_TIME_IN_SECONDS, TimeUnit.SECONDS);
+		MembershipType memType = guest.getMemType();
+		// the guest may be a flyweight (OffHeapGuestService), don't decode its id
+		Booking booking = new Booking(guestId, memType, clock.currentTimeMillis());
+		// fast path, one room-type lock at a time
+		if (reserveRoomForType(memType, booking, true)) {
+			awaitJournal();
+			logCheckIn(booking);
+			return booking;
 		}
+
+		// slow path, hold every eligible room type so that no check-out can
+		// free a room between our last look at the inventory and joining the
+		// waiting list, and every room type picking up the tier, so that no
+		// check-out sees the list empty and polls it unlocked a moment later
+		int roomTypeMask = eligibility.waitingRoomTypeMask(memType);
+		boolean gotRoom;
+		long locked = lockTimed(roomLocks, roomTypeMask);
+		try {
+			gotRoom = reserveRoomForType(memType, booking, false);
+			if (!gotRoom) {
+				// did not find a room, so keep the guest on the waiting list
+				ReentrantLock waitingLock = waitingLocks[memType.ordinal()];
+				waitingLock.lock();
+				try {
+					addToWaitingList(booking, memType);
+				} finally {
+					waitingLock.unlock();
+				}
+			}
+		} finally {
+			unlockTimed(roomLocks, roomTypeMask, locked);
+		}
+		awaitJournal();
+		if (gotRoom)
+			logCheckIn(booking);
 		return booking;
 	}
 
-	private String reserveRoomForType(MembershipType memType) {
-		String roomNo = null;
-		List<RoomType> roomTypes = roomTypesFinder.getEligibleRoomTypes(memType);
-		for (RoomType roomType : roomTypes) {
-			Room room = roomService.reserveRoom(roomType);
+	/**
+	 * Checks the guest into this particular room, for reservations made ahead
+	 * of time (see {@link AdvanceReservations}). If the room is not free, say
+	 * a walk-in guest has not left yet, the guest goes through the normal
+	 * check-in instead and may end up in another room or on the waiting list.
+	 *
+	 * @param guestId
+	 * @param roomNo
+	 * @return
+	 */
+	public Booking checkInToRoom(String guestId, String roomNo) {
+		long start = System.nanoTime();
+		try {
+			if (guestId == null || roomNo == null)
+				throw new IllegalArgumentException("GuestId and Room Number must not be null.");
+			Guest guest = guestService.getGuest(guestId);
+			if (guest == null)
+				throw new IllegalArgumentException("Invalid GuestId");
+			Room room = roomService.getRoomInfo(roomNo);
 			if (room == null)
-				continue;
-			roomNo = room.getRoomNo();
-			break;
+				throw new IllegalArgumentException("Invalid Room Number");
+
+			Booking booking = new Booking(guestId, guest.getMemType(), clock.currentTimeMillis());
+			int roomTypeMask = 1 << room.getType().ordinal();
+			boolean gotRoom;
+			long locked = lockTimed(roomLocks, roomTypeMask);
+			try {
+				gotRoom = roomService.reserveRoom(roomNo) != null;
+				if (gotRoom) {
+					booking.confirm(roomNo);
+					book(room.getType(), roomNo, booking);
+					if (recording())
+						record(BookingTransition.checkedIn(booking));
+				}
+			} finally {
+				unlockTimed(roomLocks, roomTypeMask, locked);
+			}
+			if (!gotRoom)
+				return checkInGuest(guestId);
+			awaitJournal();
+			logCheckIn(booking);
+			return booking;
+		} finally {
+			metrics.getCheckInLatency().recordSince(start);
 		}
-		return roomNo;
 	}
 
-	class WaitingTimeTrackingRunnable implements Runnable {
-		private Booking booking;
+	/**
+	 * Takes every lock the batch needs once, up front, and then assigns rooms
+	 * to the guests in the given order with exactly the rules of a single
+	 * check-in, so the result is the same as checking them in one by one.
+	 */
+	@Override
+	public List<Booking> checkInAll(Collection<String> guestIds) {
+		long start = System.nanoTime();
+		try {
+			return checkInGuests(guestIds);
+		} finally {
+			metrics.getCheckInLatency().recordSince(start);
+		}
+	}
 
-		public WaitingTimeTrackingRunnable(Booking booking) {
-			this.booking = booking;
+	private List<Booking> checkInGuests(Collection<String> guestIds) {
+		if (guestIds == null)
+			throw new IllegalArgumentException("GuestIds must not be null.");
+		Map<String, Guest> guests = guestService.getGuests(guestIds);
+		List<Guest> orderedGuests = new ArrayList<>(guestIds.size());
+		int roomTypeMask = 0;
+		int memTypeMask = 0;
+		for (String guestId : guestIds) {
+			if (guestId == null)
+				throw new IllegalArgumentException("GuestId must not be null.");
+			Guest guest = guests.get(guestId);
+			if (guest == null)
+				throw new IllegalArgumentException("Invalid GuestId: " + guestId);
+			orderedGuests.add(guest);
+			memTypeMask |= 1 << guest.getMemType().ordinal();
+			roomTypeMask |= eligibility.waitingRoomTypeMask(guest.getMemType());
 		}
 
+		List<Booking> results = new ArrayList<>(orderedGuests.size());
+		List<Booking> checkedIn = new ArrayList<>(orderedGuests.size());
+		// the whole group checks in at the same time
+		long now = clock.currentTimeMillis();
+		long waitStart = System.nanoTime();
+		lock(roomLocks, roomTypeMask);
+		lock(waitingLocks, memTypeMask);
+		long locked = System.nanoTime();
+		metrics.getLockWait().record(locked - waitStart);
+		try {
+			for (Guest guest : orderedGuests) {
+				Booking booking = new Booking(guest.getGuestId(), guest.getMemType(), now);
+				if (reserveRoomForType(guest.getMemType(), booking, false))
+					checkedIn.add(booking);
+				else
+					addToWaitingList(booking, guest.getMemType());
+				results.add(booking);
+			}
+		} finally {
+			unlock(waitingLocks, memTypeMask);
+			unlockTimed(roomLocks, roomTypeMask, locked);
+		}
+		awaitJournal();
+		for (Booking booking : checkedIn) {
+			logCheckIn(booking);
+		}
+		return results;
+	}
+
+	/**
+	 * Caller holds the locks of
+	 * {@link EligibilityTable#waitingRoomTypeMask(MembershipType)}, and the
+	 * tier lock itself.
+	 * 
+	 * @param booking
+	 * @param memType
+	 */
+	private void addToWaitingList(Booking booking, MembershipType memType) {
+		standardWaitingList[memType.ordinal()].addLast(booking);
+		waitingCount[memType.ordinal()].incrementAndGet();
+		publishWaiting(memType);
+		if (recording())
+			record(BookingTransition.waiting(booking));
+	}
+
+	/**
+	 * Tries the eligible room types of the given membership type in order and
+	 * confirms the booking into the first free room.
+	 *
+	 * @param memType
+	 * @param booking
+	 * @param lock
+	 *            whether to take each room-type lock, false when the caller
+	 *            already holds them
+	 * @return true if the booking got a room
+	 */
+	private boolean reserveRoomForType(MembershipType memType, Booking booking, boolean lock) {
+		RoomType[] roomTypes = eligibility.eligibleRoomTypes(memType);
+		for (int i = 0; i < roomTypes.length; i++) {
+			RoomType roomType = roomTypes[i];
+			int roomTypeMask = 1 << roomType.ordinal();
+			long locked = lock ? lockTimed(roomLocks, roomTypeMask) : 0;
+			try {
+				Room room = roomService.reserveRoom(roomType);
+				if (room == null)
+					continue;
+				// found a room
+				String roomNo = room.getRoomNo();
+				booking.confirm(roomNo);
+				book(roomType, roomNo, booking);
+				if (i > 0)
+					metrics.upgraded(memType, roomType);
+				if (recording())
+					record(BookingTransition.checkedIn(booking));
+				return true;
+			} finally {
+				if (lock)
+					unlockTimed(roomLocks, roomTypeMask, locked);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * One sweeper for the whole hotel instead of a timer per waiting guest.
+	 * Standard waiting lists are in arrival order, so each run only has to look
+	 * at the heads of the lists and promotes every guest that waited long
+	 * enough in one go. Guests who got a room in the meantime are no longer in
+	 * the lists, so there is nothing to cancel.
+	 */
+	class PromotionSweeper implements Runnable {
+
 		@Override
 		public void run() {
-			synchronized (DefaultBookingService.this) {
-				Guest guest = guestService.getGuest(booking.getGuestId());
-				// remove the waiting guest from regular waiting list
-				standardWaitingList.get(guest.getMemType()).remove(booking);
-				// and then add this guest to the priority waiting list
-				priorityWaitingList.get(guest.getMemType()).add(booking);
-				booking.setStatus(BookingStatus.PRIORITY_WAITING);
-			}
+			promoteWaitingCreatedBefore(clock.currentTimeMillis()
+					- TimeUnit.SECONDS.toMillis(MAX_WAITING_TIME_IN_SECONDS));
 		}
 
 	}
 
+	/**
+	 * Moves every standard waiting guest who checked in at or before the given
+	 * time to the priority waiting list of their tier. The sweeper's work,
+	 * tests call it directly to promote at a time of their choosing.
+	 *
+	 * @param promoteCreatedBefore
+	 *            epoch millis
+	 */
+	void promoteWaitingCreatedBefore(long promoteCreatedBefore) {
+		for (MembershipType memType : EligibilityTable.MEMBERSHIP_TYPES) {
+			if (waitingCount[memType.ordinal()].get() == 0)
+				continue;
+			int memTypeMask = 1 << memType.ordinal();
+			long locked = lockTimed(waitingLocks, memTypeMask);
+			try {
+				WaitingQueue wList = standardWaitingList[memType.ordinal()];
+				WaitingQueue pList = priorityWaitingList[memType.ordinal()];
+				Booking booking;
+				boolean promoted = false;
+				while ((booking = wList.peekFirst()) != null && booking.getCreatedTime() <= promoteCreatedBefore) {
+					// move the guest from regular waiting list to the
+					// priority waiting list
+					pList.moveToBack(booking);
+					booking.promote();
+					if (recording())
+						record(BookingTransition.promoted(booking));
+					metrics.promoted();
+					promoted = true;
+				}
+				if (promoted)
+					publishWaiting(memType);
+			} finally {
+				unlockTimed(waitingLocks, memTypeMask, locked);
+			}
+		}
+	}
+
 	@Override
-	public synchronized void checkOut(String roomNo) {
+	public void checkOut(String roomNo) {
+		long start = System.nanoTime();
+		try {
+			checkOutRoom(roomNo);
+		} finally {
+			metrics.getCheckOutLatency().recordSince(start);
+		}
+	}
+
+	private void checkOutRoom(String roomNo) {
 		if (roomNo == null)
 			throw new IllegalArgumentException("Room Number must not be null.");
 
-		Booking currentBooking = bookings.remove(roomNo);
-		if (currentBooking == null) {
+		Room room = roomService.getRoomInfo(roomNo);
+		if (room == null) {
 			logger.info("No booking for the room: {}", roomNo);
 			return;
 		}
-		roomService.freeUpRoom(roomNo);
-		logger.info("Checked out Guest: {}, from RoomNo: {}", currentBooking.getGuestId(), roomNo);
+		int roomTypeMask = 1 << room.getType().ordinal();
+		List<Booking> confirmed = new ArrayList<>(1);
+		Booking checkedOut;
+		long locked = lockTimed(roomLocks, roomTypeMask);
+		try {
+			int memTypeMask = lockWaitingTiers(roomTypeMask);
+			try {
+				checkedOut = checkOutLocked(roomNo, room.getType(), confirmed);
+			} finally {
+				unlock(waitingLocks, memTypeMask);
+			}
+		} finally {
+			unlockTimed(roomLocks, roomTypeMask, locked);
+		}
+		awaitJournal();
+		logCheckOut(roomNo, checkedOut, confirmed);
+		eventBus.publish(confirmed);
+	}
 
-		// check if anybody else is eligible for this room and waiting
+	/**
+	 * Housekeeping is done with the room. With {@link RoomSelection#CLEANED_FIRST}
+	 * it is handed out before the rooms still waiting for housekeeping. Only
+	 * the lock of the room's type is taken, no booking changes.
+	 *
+	 * @param roomNo
+	 */
+	public void roomCleaned(String roomNo) {
+		if (roomNo == null)
+			throw new IllegalArgumentException("Room Number must not be null.");
 		Room room = roomService.getRoomInfo(roomNo);
-		Booking newBooking = null;
-		MembershipType priorityMemType = roomTypesFinder.getPriorityMembershipType(room.getType());
-		LinkedList<Booking> pList = priorityWaitingList.get(priorityMemType);
-		if (pList.isEmpty()) {
-			// no priority waiting list, so pick somebody from the regular
-			// waiting list
-			newBooking = pickUpBookingFromWaitingList(room.getType());
-		} else {
-			// pickup a guest from the priorty waiting list
-			newBooking = pList.removeFirst();
-		}
-		if (newBooking != null) {
-			newBooking.setStatus(BookingStatus.CONFIRMED);
-			newBooking.setRoomNo(roomNo);
-			bookings.put(roomNo, newBooking);
-			allWaitingLists.remove(newBooking.getBookingId());
-			fireBookingUpdate(newBooking);
-			logger.info("Checked In Guest: {} from waiting list, into RoomNo: {}", currentBooking.getGuestId(), roomNo);
-		}
-	}
-
-	/**
-	 * Based on the requirement, this method finds all the eligible types of
-	 * members for a given room type and chooses them from the waiting list.
+		if (room == null) {
+			logger.info("No such room to clean: {}", roomNo);
+			return;
+		}
+		int roomTypeMask = 1 << room.getType().ordinal();
+		lock(roomLocks, roomTypeMask);
+		try {
+			roomService.roomCleaned(roomNo);
+		} finally {
+			unlock(roomLocks, roomTypeMask);
+		}
+	}
+
+	/**
+	 * Takes the lock of each room type involved once, and hands freed rooms to
+	 * waiting guests with the same rules as a single check-out. Listeners hear
+	 * about all the bookings confirmed from the waiting list in one event.
+	 */
+	@Override
+	public List<Booking> checkOutAll(Collection<String> roomNos) {
+		long start = System.nanoTime();
+		try {
+			return checkOutRooms(roomNos);
+		} finally {
+			metrics.getCheckOutLatency().recordSince(start);
+		}
+	}
+
+	private List<Booking> checkOutRooms(Collection<String> roomNos) {
+		if (roomNos == null)
+			throw new IllegalArgumentException("Room Numbers must not be null.");
+		List<Room> rooms = new ArrayList<>(roomNos.size());
+		int roomTypeMask = 0;
+		for (String roomNo : roomNos) {
+			if (roomNo == null)
+				throw new IllegalArgumentException("Room Number must not be null.");
+			Room room = roomService.getRoomInfo(roomNo);
+			if (room != null)
+				roomTypeMask |= 1 << room.getType().ordinal();
+			rooms.add(room);
+		}
+
+		List<Booking> results = new ArrayList<>(rooms.size());
+		List<Booking> confirmed = new ArrayList<>();
+		long locked = lockTimed(roomLocks, roomTypeMask);
+		try {
+			int memTypeMask = lockWaitingTiers(roomTypeMask);
+			try {
+				Iterator<String> roomNoIter = roomNos.iterator();
+				for (Room room : rooms) {
+					String roomNo = roomNoIter.next();
+					if (room == null) {
+						results.add(null);
+						continue;
+					}
+					results.add(checkOutLocked(roomNo, room.getType(), confirmed));
+				}
+			} finally {
+				unlock(waitingLocks, memTypeMask);
+			}
+		} finally {
+			unlockTimed(roomLocks, roomTypeMask, locked);
+		}
+		awaitJournal();
+		Iterator<String> roomNoIter = roomNos.iterator();
+		for (Booking checkedOut : results) {
+			logCheckOut(roomNoIter.next(), checkedOut, Collections.<Booking> emptyList());
+		}
+		for (Booking booking : confirmed) {
+			logConfirmedFromWaiting(booking);
+		}
+		eventBus.publish(confirmed);
+		return results;
+	}
+
+	/**
+	 * Caller holds the room-type lock and the locks from lockWaitingTiers.
 	 * 
+	 * @param roomNo
 	 * @param roomType
-	 * @return
+	 * @param confirmed
+	 *            collects the booking confirmed from the waiting list, if any
+	 * @return the booking that was checked out, null if the room was not
+	 *         booked
+	 */
+	private Booking checkOutLocked(String roomNo, RoomType roomType, List<Booking> confirmed) {
+		Booking currentBooking = unbook(roomType, roomNo);
+		if (currentBooking == null)
+			return null;
+		currentBooking.checkOut();
+		if (recording())
+			record(BookingTransition.checkedOut(currentBooking));
+
+		// check if anybody else is eligible for this room and waiting
+		Booking newBooking = pollWaitingBooking(roomType);
+		if (newBooking == null) {
+			roomService.freeUpRoom(roomNo);
+			return currentBooking;
+		}
+		// the room goes straight to the waiting guest, it never returns to
+		// the free pool
+		newBooking.confirm(roomNo);
+		book(roomType, roomNo, newBooking);
+		metrics.gotRoomAfterWaiting(newBooking, clock.currentTimeMillis());
+		RoomType[] preferred = eligibility.eligibleRoomTypes(newBooking.getMemType());
+		if (preferred.length > 0 && preferred[0] != roomType)
+			metrics.upgraded(newBooking.getMemType(), roomType);
+		if (recording())
+			record(BookingTransition.confirmedFromWaiting(newBooking));
+		confirmed.add(newBooking);
+		return currentBooking;
+	}
+
+	/**
+	 * Locks the tiers that could be picked up for rooms of the given types and
+	 * have anyone waiting. Caller holds the locks of those room types.
+	 * 
+	 * @param roomTypeMask
+	 * @return mask of the tier locks taken
+	 */
+	private int lockWaitingTiers(int roomTypeMask) {
+		int candidates = 0;
+		for (int mask = roomTypeMask; mask != 0; mask &= mask - 1) {
+			candidates |= eligibility.candidateMemTypeMask(EligibilityTable.ROOM_TYPES[Integer
+					.numberOfTrailingZeros(mask)]);
+		}
+		// nobody can join an eligible waiting list while we hold the room-type
+		// locks, so a tier observed empty here stays empty
+		int memTypeMask = 0;
+		for (int mask = candidates; mask != 0; mask &= mask - 1) {
+			int ordinal = Integer.numberOfTrailingZeros(mask);
+			if (waitingCount[ordinal].get() > 0)
+				memTypeMask |= 1 << ordinal;
+		}
+		if (memTypeMask != 0) {
+			long start = System.nanoTime();
+			lock(waitingLocks, memTypeMask);
+			metrics.getLockWait().recordSince(start);
+		}
+		return memTypeMask;
+	}
+
+	/**
+	 * Removes the next waiting booking eligible for a room of the given type.
+	 * All eligible waiters are in one order: priority waiting guests before
+	 * standard ones, then by tier (the room's priority tier first for priority
+	 * waiters, then the eligible tiers in pick-up order), then by arrival.
+	 * Every waiting list is FIFO by arrival, so the first guest in that order
+	 * is always the head of one of the lists, and the lists are visited in the
+	 * order precomputed by the EligibilityTable. Caller holds the locks from
+	 * lockWaitingTiers.
+	 * 
+	 * @param roomType
+	 * @return null if nobody eligible is waiting
 	 */
-	private Booking pickUpBookingFromWaitingList(RoomType roomType) {
-		Booking booking = null;
-		List<MembershipType> memTypes = roomTypesFinder.getEligibleMembershipTypes(roomType);
-		for (MembershipType memType : memTypes) {
-			LinkedList<Booking> wList = standardWaitingList.get(memType);
-			if (wList.isEmpty()) {
+	private Booking pollWaitingBooking(RoomType roomType) {
+		Booking booking = pollFirst(priorityWaitingList, eligibility.priorityPickUpOrder(roomType));
+		if (booking == null)
+			booking = pollFirst(standardWaitingList, eligibility.eligibleMemTypes(roomType));
+		return booking;
+	}
+
+	/**
+	 * @return the head of the first non-empty list of the given tiers, removed
+	 */
+	private Booking pollFirst(WaitingQueue[] waitingLists, MembershipType[] memTypes) {
+		for (int i = 0; i < memTypes.length; i++) {
+			MembershipType memType = memTypes[i];
+			// tiers with nobody waiting were not locked, don't touch their lists
+			if (waitingCount[memType.ordinal()].get() == 0)
 				continue;
+			WaitingQueue waitingList = waitingLists[memType.ordinal()];
+			if (waitingList.isEmpty())
+				continue;
+			Booking booking = waitingList.pollFirst();
+			waitingCount[memType.ordinal()].decrementAndGet();
+			publishWaiting(memType);
+			return booking;
+		}
+		return null;
+	}
+
+	/**
+	 * Caller holds the lock of the room type.
+	 */
+	private void book(RoomType roomType, String roomNo, Booking booking) {
+		bookings[roomType.ordinal()].put(roomNo, booking);
+	}
+
+	/**
+	 * Caller holds the lock of the room type.
+	 *
+	 * @return the booking of the room, null if it was not booked
+	 */
+	private Booking unbook(RoomType roomType, String roomNo) {
+		return bookings[roomType.ordinal()].remove(roomNo);
+	}
+
+	/**
+	 * Bookings of the rooms of one type, by room handle, in pages. A capture
+	 * for a snapshot shares the pages instead of copying them: it marks them
+	 * all shared, and the first write to a shared page afterwards copies that
+	 * page (copy-on-write). So capturing is O(pages) under the locks and a
+	 * write after it copies at most one page of 4096 slots.
+	 */
+	private static class RoomBookings {
+		private static final int PAGE_BITS = 12;
+		private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+		private final IdInterner roomIds = new IdInterner();
+		// page of handle h is h >>> PAGE_BITS, null until a room in it is
+		// booked
+		private Booking[][] pages = new Booking[1][];
+		private boolean[] shared = new boolean[1];
+		// only written under the room-type lock, read by occupancy without it
+		private volatile int size;
+
+		/**
+		 * @return the booking the room had before, if any
+		 */
+		Booking put(String roomNo, Booking booking) {
+			int handle = roomIds.intern(roomNo);
+			Booking[] page = writablePage(handle >>> PAGE_BITS);
+			Booking previous = page[handle & PAGE_MASK];
+			page[handle & PAGE_MASK] = booking;
+			if (previous == null)
+				size++;
+			return previous;
+		}
+
+		Booking remove(String roomNo) {
+			int handle = roomIds.indexOf(roomNo);
+			if (handle < 0 || pages[handle >>> PAGE_BITS] == null)
+				return null;
+			if (pages[handle >>> PAGE_BITS][handle & PAGE_MASK] == null)
+				return null;
+			Booking[] page = writablePage(handle >>> PAGE_BITS);
+			Booking booking = page[handle & PAGE_MASK];
+			page[handle & PAGE_MASK] = null;
+			size--;
+			return booking;
+		}
+
+		private Booking[] writablePage(int index) {
+			if (index >= pages.length) {
+				pages = Arrays.copyOf(pages, Math.max(index + 1, pages.length * 2));
+				shared = Arrays.copyOf(shared, pages.length);
+			}
+			Booking[] page = pages[index];
+			if (page == null) {
+				page = new Booking[PAGE_MASK + 1];
+				pages[index] = page;
+			} else if (shared[index]) {
+				page = page.clone();
+				pages[index] = page;
+				shared[index] = false;
+			}
+			return page;
+		}
+
+		/**
+		 * The bookings as of now, to be read without the lock. Caller holds
+		 * the room-type lock.
+		 */
+		Booking[][] capture() {
+			Arrays.fill(shared, true);
+			return pages.clone();
+		}
+
+		void copyTo(Collection<Booking> target) {
+			copyTo(pages, target);
+		}
+
+		static void copyTo(Booking[][] pages, Collection<Booking> target) {
+			for (Booking[] page : pages) {
+				if (page == null)
+					continue;
+				for (Booking booking : page) {
+					if (booking != null)
+						target.add(booking);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Locks the stripes whose bit is set, lowest ordinal first.
+	 */
+	private static void lock(ReentrantLock[] stripes, int mask) {
+		for (; mask != 0; mask &= mask - 1) {
+			stripes[Integer.numberOfTrailingZeros(mask)].lock();
+		}
+	}
+
+	/**
+	 * Unlocks the stripes whose bit is set, highest ordinal first.
+	 */
+	private static void unlock(ReentrantLock[] stripes, int mask) {
+		while (mask != 0) {
+			int highest = 31 - Integer.numberOfLeadingZeros(mask);
+			stripes[highest].unlock();
+			mask &= ~(1 << highest);
+		}
+	}
+
+	/**
+	 * Locks like {@link #lock(ReentrantLock[], int)} and records the wait.
+	 *
+	 * @return when the locks were acquired, for
+	 *         {@link #unlockTimed(ReentrantLock[], int, long)}
+	 */
+	private long lockTimed(ReentrantLock[] stripes, int mask) {
+		long start = System.nanoTime();
+		lock(stripes, mask);
+		long acquired = System.nanoTime();
+		metrics.getLockWait().record(acquired - start);
+		return acquired;
+	}
+
+	/**
+	 * Unlocks and records how long the locks were held.
+	 */
+	private void unlockTimed(ReentrantLock[] stripes, int mask, long acquired) {
+		long held = System.nanoTime() - acquired;
+		unlock(stripes, mask);
+		metrics.getLockHold().record(held);
+	}
+
+	private boolean recording() {
+		return journal != null || auditLog != null;
+	}
+
+	/**
+	 * Hands a state change to the journal and the audit log. Caller holds the
+	 * locks of the change, neither of them does any I/O here.
+	 */
+	private void record(BookingTransition transition) {
+		if (journal != null)
+			journal.append(transition);
+		if (auditLog != null)
+			auditLog.record(transition, clock.currentTimeMillis());
+	}
+
+	// The log lines below are written once the locks are released, so a slow
+	// appender never shows up as lock hold time.
+
+	private void logCheckIn(Booking booking) {
+		if (auditLog == null)
+			logger.info("Checked In Guest: {}, into RoomNo: {}", booking.getGuestId(), booking.getRoomNo());
+	}
+
+	private void logCheckOut(String roomNo, Booking checkedOut, List<Booking> confirmed) {
+		if (auditLog != null)
+			return;
+		if (checkedOut == null)
+			logger.info("No booking for the room: {}", roomNo);
+		else
+			logger.info("Checked out Guest: {}, from RoomNo: {}", checkedOut.getGuestId(), roomNo);
+		for (Booking booking : confirmed) {
+			logConfirmedFromWaiting(booking);
+		}
+	}
+
+	private void logConfirmedFromWaiting(Booking booking) {
+		if (auditLog == null)
+			logger.info("Checked In Guest: {} from waiting list, into RoomNo: {}", booking.getGuestId(),
+					booking.getRoomNo());
+	}
+
+	/**
+	 * Waits until everything journaled so far is durable. Called after the
+	 * locks are released, so one disk sync covers every check-in and check-out
+	 * that got in meanwhile.
+	 */
+	private void awaitJournal() {
+		if (journal != null)
+			journal.awaitDurable(journal.lastSequence());
+	}
+
+	private void lockEverything() {
+		lock(roomLocks, EligibilityTable.ALL_ROOM_TYPES);
+		lock(waitingLocks, EligibilityTable.ALL_MEMBERSHIP_TYPES);
+	}
+
+	private void unlockEverything() {
+		unlock(waitingLocks, EligibilityTable.ALL_MEMBERSHIP_TYPES);
+		unlock(roomLocks, EligibilityTable.ALL_ROOM_TYPES);
+	}
+
+	/**
+	 * Rebuilds the bookings and waiting lists from the journal's latest
+	 * snapshot and the transitions after it. Call it on a fresh service, before
+	 * any check-in or check-out.
+	 *
+	 * @param journal
+	 * @throws IOException
+	 */
+	public void recover(MappedBookingJournal journal) throws IOException {
+		final Map<Integer, Booking> waiting = new HashMap<>();
+		lockEverything();
+		try {
+			journal.replay(new MappedBookingJournal.TransitionHandler() {
+				@Override
+				public void apply(BookingTransition transition) {
+					DefaultBookingService.this.apply(transition, waiting);
+				}
+			});
+		} finally {
+			unlockEverything();
+		}
+		logger.info("Recovered {} bookings and {} waiting guests from the journal", occupiedRooms(), waiting.size());
+	}
+
+	/**
+	 * Applies a batch of transitions streamed from a primary, under all locks
+	 * at once, so readers see the replica move from one state of the primary
+	 * to a later one.
+	 *
+	 * @param transitions
+	 * @param waiting
+	 *            bookingId --> booking, for the bookings in the waiting lists
+	 */
+	void applyReplicated(List<BookingTransition> transitions, Map<Integer, Booking> waiting) {
+		lockEverything();
+		try {
+			for (BookingTransition transition : transitions) {
+				apply(transition, waiting);
 			}
-			booking = wList.removeFirst();
+		} finally {
+			unlockEverything();
+		}
+	}
+
+	/**
+	 * Replays one transition. Caller holds every lock.
+	 *
+	 * @param transition
+	 * @param waiting
+	 *            bookingId --> booking, for the bookings in the waiting lists
+	 */
+	void apply(BookingTransition transition, Map<Integer, Booking> waiting) {
+		Booking booking;
+		switch (transition.getType()) {
+		case CHECKED_IN:
+			booking = new Booking(transition.getBookingId(), transition.getGuestId(), transition.getMemType(),
+					transition.getCreated());
+			confirmRestored(booking, transition.getRoomNo());
+			break;
+		case WAITING:
+			booking = new Booking(transition.getBookingId(), transition.getGuestId(), transition.getMemType(),
+					transition.getCreated());
+			standardWaitingList[booking.getMemType().ordinal()].addLast(booking);
+			waitingCount[booking.getMemType().ordinal()].incrementAndGet();
+			publishWaiting(booking.getMemType());
+			waiting.put(booking.getBookingId(), booking);
+			break;
+		case PROMOTED:
+			booking = waitingBooking(transition, waiting);
+			priorityWaitingList[booking.getMemType().ordinal()].moveToBack(booking);
+			booking.promote();
+			publishWaiting(booking.getMemType());
+			break;
+		case CONFIRMED_FROM_WAITING:
+			booking = waitingBooking(transition, waiting);
+			waiting.remove(booking.getBookingId());
+			booking.waitingQueue.remove(booking);
+			waitingCount[booking.getMemType().ordinal()].decrementAndGet();
+			publishWaiting(booking.getMemType());
+			confirmRestored(booking, transition.getRoomNo());
+			break;
+		case CHECKED_OUT:
+			booking = unbook(roomService.getRoomInfo(transition.getRoomNo()).getType(), transition.getRoomNo());
+			if (booking != null)
+				booking.checkOut();
+			// the next transition takes it again if it went to a waiting guest
+			roomService.freeUpRoom(transition.getRoomNo());
 			break;
 		}
+	}
+
+	private static Booking waitingBooking(BookingTransition transition, Map<Integer, Booking> waiting) {
+		Booking booking = waiting.get(transition.getBookingId());
+		if (booking == null)
+			throw new IllegalStateException("Booking is not waiting: " + transition);
 		return booking;
 	}
 
-	private void fireBookingUpdate(Booking booking) {
-		for (BookingEventListener listener : listeners) {
-			listener.updated(booking);
+	private void confirmRestored(Booking booking, String roomNo) {
+		Room room = roomService.reserveRoom(roomNo);
+		if (room == null)
+			throw new IllegalStateException("Room " + roomNo + " is not free for booking " + booking.getBookingId());
+		booking.confirm(roomNo);
+		book(room.getType(), roomNo, booking);
+	}
+
+	/**
+	 * Writes a snapshot of the current bookings and waiting lists to the
+	 * journal, so recovery no longer has to replay the history before it.
+	 * Everything is copied under all locks, the file is written after they
+	 * are released.
+	 *
+	 * @param journal
+	 * @throws IOException
+	 */
+	public void writeSnapshot(MappedBookingJournal journal) throws IOException {
+		List<BookingTransition> state = new ArrayList<>();
+		List<Booking> waiting = new ArrayList<>();
+		long sequence;
+		lockEverything();
+		try {
+			sequence = journal.lastSequence();
+			for (RoomBookings roomBookings : bookings) {
+				roomBookings.copyTo(waiting);
+			}
+			for (Booking booking : waiting) {
+				state.add(BookingTransition.checkedIn(booking));
+			}
+			waiting.clear();
+			// priority guests join the waiting list and are promoted right
+			// away, which keeps their order
+			for (WaitingQueue pList : priorityWaitingList) {
+				pList.copyTo(waiting);
+			}
+			for (Booking booking : waiting) {
+				state.add(BookingTransition.waiting(booking));
+			}
+			for (Booking booking : waiting) {
+				state.add(BookingTransition.promoted(booking));
+			}
+			waiting.clear();
+			for (WaitingQueue wList : standardWaitingList) {
+				wList.copyTo(waiting);
+			}
+			for (Booking booking : waiting) {
+				state.add(BookingTransition.waiting(booking));
+			}
+		} finally {
+			unlockEverything();
+		}
+		journal.writeSnapshot(sequence, state);
+	}
+
+	/**
+	 * Takes a consistent point-in-time copy of the bookings and waiting
+	 * lists without stopping check-ins for long: under all locks it only
+	 * shares the booking pages (copy-on-write, see RoomBookings) and picks up
+	 * the current immutable waiting-list snapshot, the copy is made after the
+	 * locks are released.
+	 *
+	 * @return the snapshot, write it with {@link BookingSnapshot#write}
+	 */
+	public BookingSnapshot captureSnapshot() {
+		Booking[][][] booked = new Booking[bookings.length][][];
+		WaitingSnapshot waiting;
+		long capturedAt;
+		long sequence;
+		lockEverything();
+		try {
+			for (int i = 0; i < bookings.length; i++) {
+				booked[i] = bookings[i].capture();
+			}
+			waiting = waitingSnapshot.get();
+			capturedAt = clock.currentTimeMillis();
+			sequence = journal != null ? journal.lastSequence() : 0;
+		} finally {
+			unlockEverything();
+		}
+
+		BookingSnapshot.Builder snapshot = new BookingSnapshot.Builder(capturedAt, sequence);
+		List<Booking> rows = new ArrayList<>();
+		for (Booking[][] pages : booked) {
+			RoomBookings.copyTo(pages, rows);
 		}
+		// a booking never changes its room once it has one, even checked out
+		for (Booking booking : rows) {
+			snapshot.add(booking.getBookingId(), booking.getGuestId(), booking.getMemType(),
+					booking.getCreatedTime(), BookingSnapshot.BOOKED, booking.getRoomNo());
+		}
+		// the queues tell priority from standard waiting as of the capture,
+		// the bookings themselves may have moved on
+		for (int queue = 0; queue < waiting.queues.length; queue++) {
+			byte state = queue < WaitingSnapshot.TIERS ? BookingSnapshot.PRIORITY_WAITING : BookingSnapshot.WAITING;
+			WaitingQueue.Snapshot waiters = waiting.queues[queue];
+			for (int i = 0; i < waiters.size(); i++) {
+				Booking booking = waiters.get(i);
+				snapshot.add(booking.getBookingId(), booking.getGuestId(), booking.getMemType(),
+						booking.getCreatedTime(), state, null);
+			}
+		}
+		return snapshot.build();
+	}
+
+	/**
+	 * Loads a snapshot into a fresh service, before any check-in or
+	 * check-out, e.g. to warm-start a standby.
+	 *
+	 * @param snapshot
+	 */
+	public void restore(BookingSnapshot snapshot) {
+		lockEverything();
+		try {
+			if (occupiedRooms() > 0 || waitingSnapshot.get().size() > 0)
+				throw new IllegalStateException("Restore needs a fresh service");
+			for (int row = 0; row < snapshot.size(); row++) {
+				Booking booking = new Booking(snapshot.getBookingId(row), snapshot.getGuestId(row),
+						snapshot.getMemType(row), snapshot.getCreated(row));
+				int tier = booking.getMemType().ordinal();
+				switch (snapshot.getState(row)) {
+				case BookingSnapshot.BOOKED:
+					confirmRestored(booking, snapshot.getRoomNo(row));
+					break;
+				case BookingSnapshot.PRIORITY_WAITING:
+					priorityWaitingList[tier].addLast(booking);
+					booking.promote();
+					waitingCount[tier].incrementAndGet();
+					break;
+				default:
+					standardWaitingList[tier].addLast(booking);
+					waitingCount[tier].incrementAndGet();
+					break;
+				}
+			}
+			for (MembershipType memType : EligibilityTable.MEMBERSHIP_TYPES) {
+				publishWaiting(memType);
+			}
+		} finally {
+			unlockEverything();
+		}
+		logger.info("Restored {} bookings and {} waiting guests from a snapshot", snapshot.getBooked(),
+				snapshot.getWaiting());
+	}
+
+	/**
+	 * Snapshots the state into the journal at a fixed rate, until shutdown.
+	 *
+	 * @param journal
+	 * @param period
+	 * @param unit
+	 */
+	public void scheduleSnapshots(final MappedBookingJournal journal, long period, TimeUnit unit) {
+		clock.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writeSnapshot(journal);
+				} catch (IOException e) {
+					logger.error("Could not write booking snapshot", e);
+				}
+			}
+		}, period, unit);
 	}
 
 	@Override
@@ -203,21 +1167,146 @@ public class DefaultBookingService implements BookingService {
 		if (listener == null)
 			throw new IllegalArgumentException("Listener must not be null.");
 
-		listeners.add(listener);
+		eventBus.subscribe(listener);
 	}
 
 	@Override
 	public void unsubscribeFromBookingEvents(BookingEventListener listener) {
-		listeners.remove(listener);
+		eventBus.unsubscribe(listener);
+	}
+
+	/**
+	 * @return the service's live metrics
+	 */
+	public BookingMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void reportMetrics(MetricsReporter reporter) {
+		reporter.report(metrics.toMap());
+	}
+
+	/**
+	 * Reports the metrics at a fixed rate, until shutdown.
+	 *
+	 * @param reporter
+	 * @param period
+	 * @param unit
+	 */
+	public void scheduleMetricsReporting(final MetricsReporter reporter, long period, TimeUnit unit) {
+		if (reporter == null)
+			throw new IllegalArgumentException("Reporter must not be null.");
+		clock.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					reportMetrics(reporter);
+				} catch (RuntimeException e) {
+					logger.error("Could not report booking metrics", e);
+				}
+			}
+		}, period, unit);
 	}
 
 	@Override
 	public double getOccupancyRatio() {
-		return (bookings.size() / (double) roomService.getTotalRooms()) * 100;
+		return (occupiedRooms() / (double) roomService.getTotalRooms()) * 100;
+	}
+
+	/**
+	 * Sums the per room-type counts, each is kept by the writers of that type
+	 * so nobody contends on one shared counter. No lock is taken.
+	 */
+	private int occupiedRooms() {
+		int occupied = 0;
+		for (RoomBookings roomBookings : bookings) {
+			occupied += roomBookings.size;
+		}
+		return occupied;
 	}
 
+	/**
+	 * Lock-free: returns the immutable snapshot published by the last change to
+	 * any waiting list. It never changes while the caller iterates, call again
+	 * to see later changes. Priority waiting guests come first.
+	 */
 	@Override
 	public Collection<Booking> getWaitingList() {
-		return Collections.unmodifiableCollection(allWaitingLists.values());
+		return waitingSnapshot.get();
+	}
+
+	/**
+	 * Publishes the current state of the tier's waiting lists, the other
+	 * tiers are carried over from the last snapshot. Caller holds the tier
+	 * lock, so the tier's part can't change under us.
+	 *
+	 * @param memType
+	 */
+	private void publishWaiting(MembershipType memType) {
+		WaitingQueue.Snapshot priority = priorityWaitingList[memType.ordinal()].snapshot();
+		WaitingQueue.Snapshot standard = standardWaitingList[memType.ordinal()].snapshot();
+		WaitingSnapshot current;
+		do {
+			current = waitingSnapshot.get();
+		} while (!waitingSnapshot.compareAndSet(current, current.with(memType, priority, standard)));
+	}
+
+	/**
+	 * Immutable list over the snapshots of all waiting queues: the priority
+	 * queues in tier order, then the standard ones.
+	 */
+	private static final class WaitingSnapshot extends AbstractList<Booking> {
+		private static final int TIERS = MembershipType.values().length;
+		static final WaitingSnapshot EMPTY;
+		static {
+			WaitingQueue.Snapshot[] queues = new WaitingQueue.Snapshot[2 * TIERS];
+			Arrays.fill(queues, WaitingQueue.Snapshot.EMPTY);
+			EMPTY = new WaitingSnapshot(queues);
+		}
+
+		private final WaitingQueue.Snapshot[] queues;
+		private final int size;
+
+		private WaitingSnapshot(WaitingQueue.Snapshot[] queues) {
+			this.queues = queues;
+			int total = 0;
+			for (WaitingQueue.Snapshot queue : queues) {
+				total += queue.size();
+			}
+			this.size = total;
+		}
+
+		WaitingSnapshot with(MembershipType memType, WaitingQueue.Snapshot priority, WaitingQueue.Snapshot standard) {
+			WaitingQueue.Snapshot[] newQueues = queues.clone();
+			newQueues[memType.ordinal()] = priority;
+			newQueues[TIERS + memType.ordinal()] = standard;
+			return new WaitingSnapshot(newQueues);
+		}
+
+		@Override
+		public Booking get(int index) {
+			if (index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			for (WaitingQueue.Snapshot queue : queues) {
+				if (index < queue.size())
+					return queue.get(index);
+				index -= queue.size();
+			}
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Stops the promotion sweeper and event delivery threads, the service must
+	 * not be used afterwards.
+	 */
+	public void shutdown() {
+		clock.shutdown();
+		eventBus.shutdown();
 	}
 }
@@ -1,6 +1,5 @@
 package com.ram;
 
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -11,14 +10,21 @@ import java.util.Map;
  * 
  */
 public class DefaultGuestService implements GuestService {
-	private Map<String, Guest> cache = new HashMap<>();
+	// guest ids are interned once, guests live in an array by handle
+	private final IdInterner guestIds;
+	private final Guest[] guests;
 
 	public DefaultGuestService(Map<String, Guest> cache) {
-		this.cache.putAll(cache);
+		guestIds = new IdInterner(cache.size());
+		guests = new Guest[cache.size()];
+		for (Map.Entry<String, Guest> entry : cache.entrySet()) {
+			guests[guestIds.intern(entry.getKey())] = entry.getValue();
+		}
 	}
 
 	@Override
 	public Guest getGuest(String guestId) {
-		return cache.get(guestId);
+		int handle = guestIds.indexOf(guestId);
+		return handle < 0 ? null : guests[handle];
 	}
 }
@@ -1,23 +1,30 @@
 package com.ram;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.EnumMap;
 import java.util.Map;
 
 import com.ram.Room.RoomType;
 
 /**
  * This class is not designed to be thread-safe. It is intended to be only
- * accessed from the thread-safe BookingService
+ * accessed from the thread-safe BookingService, which serializes all calls for
+ * a given RoomType (each type has its own pool of free rooms, and the rooms
+ * cache itself is never modified after construction).
+ * <p>
+ * Room numbers are interned to int handles once, at construction, and
+ * everything else is plain arrays over those handles. Which free room of a
+ * type is handed out is up to the type's {@link RoomSelection}.
  * 
  * @author Ram
  * 
  */
 public class DefaultRoomService implements RoomService {
-	private Map<String, Room> roomsCache = new HashMap<>();
-	private Map<RoomType, HashSet<String>> availableRoomsByType = new HashMap<>();
+	private final IdInterner roomIds;
+	// handle --> room
+	private final Room[] rooms;
+	// handle --> index of the room within its type's pool
+	private final int[] typeIndexes;
+	private final Map<RoomType, RoomPool> availableRoomsByType = new EnumMap<>(RoomType.class);
 
 	/**
 	 * In a real production application, this rooms cache is generally backed by
@@ -27,47 +34,120 @@ public class DefaultRoomService implements RoomService {
 	 * @param roomsCache
 	 */
 	public DefaultRoomService(Map<String, Room> roomsCache) {
-		this.roomsCache.putAll(roomsCache);
+		this(roomsCache, RoomSelection.LEAST_RECENTLY_USED);
+	}
+
+	/**
+	 * @param roomsCache
+	 * @param selection
+	 *            for the rooms of every type
+	 */
+	public DefaultRoomService(Map<String, Room> roomsCache, RoomSelection selection) {
+		this(roomsCache, allTypes(selection));
+	}
+
+	/**
+	 * @param roomsCache
+	 * @param selections
+	 *            per room type, least recently used for the types missing
+	 */
+	public DefaultRoomService(Map<String, Room> roomsCache, Map<RoomType, RoomSelection> selections) {
+		if (selections == null)
+			throw new IllegalArgumentException("Room selections must not be null.");
+		roomIds = new IdInterner(roomsCache.size());
+		rooms = new Room[roomsCache.size()];
+		typeIndexes = new int[roomsCache.size()];
+		int[] typeCounts = new int[RoomType.values().length];
+		for (Room room : roomsCache.values()) {
+			int handle = roomIds.intern(room.getRoomNo());
+			rooms[handle] = room;
+			typeIndexes[handle] = typeCounts[room.getType().ordinal()]++;
+		}
+		int[][] handles = new int[RoomType.values().length][];
+		Room[][] roomsOfType = new Room[RoomType.values().length][];
 		for (RoomType roomType : RoomType.values()) {
-			availableRoomsByType.put(roomType, new LinkedHashSet<String>());
+			handles[roomType.ordinal()] = new int[typeCounts[roomType.ordinal()]];
+			roomsOfType[roomType.ordinal()] = new Room[typeCounts[roomType.ordinal()]];
 		}
-		for (Room room : roomsCache.values()) {
-			availableRoomsByType.get(room.getType()).add(room.getRoomNo());
+		for (int handle = 0; handle < rooms.length; handle++) {
+			int type = rooms[handle].getType().ordinal();
+			handles[type][typeIndexes[handle]] = handle;
+			roomsOfType[type][typeIndexes[handle]] = rooms[handle];
+		}
+		for (RoomType roomType : RoomType.values()) {
+			RoomSelection selection = selections.get(roomType);
+			if (selection == null)
+				selection = RoomSelection.LEAST_RECENTLY_USED;
+			availableRoomsByType.put(roomType, new RoomPool(handles[roomType.ordinal()],
+					selection.newFreeRooms(roomsOfType[roomType.ordinal()])));
+		}
+	}
+
+	private static Map<RoomType, RoomSelection> allTypes(RoomSelection selection) {
+		if (selection == null)
+			throw new IllegalArgumentException("Room selection must not be null.");
+		Map<RoomType, RoomSelection> selections = new EnumMap<>(RoomType.class);
+		for (RoomType roomType : RoomType.values()) {
+			selections.put(roomType, selection);
 		}
+		return selections;
 	}
 
 	@Override
 	public Room getRoomInfo(String roomNo) {
-		return roomsCache.get(roomNo);
+		int handle = roomIds.indexOf(roomNo);
+		return handle < 0 ? null : rooms[handle];
 	}
 
 	@Override
 	public Room reserveRoom(RoomType roomType) {
-		if (isRoomAvailable(roomType)) {
-			HashSet<String> availRooms = availableRoomsByType.get(roomType);
-			Iterator<String> roomIter = availRooms.iterator();
-			if (roomIter.hasNext()) {
-				String roomNo = roomIter.next();
-				roomIter.remove();
-				return roomsCache.get(roomNo);
-			}
-		}
-		return null;
+		RoomPool pool = availableRoomsByType.get(roomType);
+		int index = pool.free.poll();
+		return index < 0 ? null : rooms[pool.handles[index]];
+	}
+
+	@Override
+	public Room reserveRoom(String roomNo) {
+		int handle = roomIds.indexOf(roomNo);
+		if (handle < 0 || !availableRoomsByType.get(rooms[handle].getType()).free.remove(typeIndexes[handle]))
+			return null;
+		return rooms[handle];
 	}
 
 	@Override
 	public boolean isRoomAvailable(RoomType roomType) {
-		return (availableRoomsByType.get(roomType).size() > 0);
+		return (availableRoomsByType.get(roomType).free.size() > 0);
 	}
 
 	@Override
 	public int getTotalRooms() {
-		return roomsCache.size();
+		return rooms.length;
 	}
 
 	@Override
 	public void freeUpRoom(String roomNo) {
-		Room room = getRoomInfo(roomNo);
-		availableRoomsByType.get(room.getType()).add(roomNo);
+		int handle = roomIds.indexOf(roomNo);
+		availableRoomsByType.get(rooms[handle].getType()).free.add(typeIndexes[handle]);
+	}
+
+	@Override
+	public void roomCleaned(String roomNo) {
+		int handle = roomIds.indexOf(roomNo);
+		if (handle >= 0)
+			availableRoomsByType.get(rooms[handle].getType()).free.cleaned(typeIndexes[handle]);
+	}
+
+	/**
+	 * Free rooms of one type, in the order the selection hands them out.
+	 */
+	private static class RoomPool {
+		// index within the type --> room handle
+		private final int[] handles;
+		private final FreeRooms free;
+
+		RoomPool(int[] handles, FreeRooms free) {
+			this.handles = handles;
+			this.free = free;
+		}
 	}
 }
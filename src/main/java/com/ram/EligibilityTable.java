@@ -0,0 +1,122 @@
+package com.ram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * A RoomMembershipTypesConverter compiled into plain arrays indexed by enum
+ * ordinal, plus bitmasks (bit = ordinal) for the lock sets. The converter is
+ * asked once, when the table is built, so on the booking hot path there are
+ * no map lookups, no switches, no iterators and no allocation.
+ * <p>
+ * The arrays are shared, callers must not modify them.
+ *
+ * @author Ram
+ *
+ */
+final class EligibilityTable {
+	static final RoomType[] ROOM_TYPES = RoomType.values();
+	static final MembershipType[] MEMBERSHIP_TYPES = MembershipType.values();
+	static final int ALL_ROOM_TYPES = (1 << ROOM_TYPES.length) - 1;
+	static final int ALL_MEMBERSHIP_TYPES = (1 << MEMBERSHIP_TYPES.length) - 1;
+
+	// MembershipType ordinal --> eligible room types, most preferred first
+	private final RoomType[][] eligibleRoomTypes;
+	// RoomType ordinal --> membership types picked up from the standard
+	// waiting lists for that room, in pick-up order
+	private final MembershipType[][] eligibleMemTypes;
+	// RoomType ordinal --> tiers whose priority waiting lists are picked up
+	// from, the priority tier first and then the eligible ones in order
+	private final MembershipType[][] priorityPickUpOrders;
+	// MembershipType ordinal --> bits of the eligible room types
+	private final int[] eligibleRoomTypeMasks;
+	// RoomType ordinal --> bits of every tier a freed room may go to
+	private final int[] candidateMemTypeMasks;
+	// MembershipType ordinal --> bits of the eligible room types plus every
+	// room type whose freed rooms may go to the tier
+	private final int[] waitingRoomTypeMasks;
+
+	private EligibilityTable(RoomMembershipTypesConverter converter) {
+		eligibleRoomTypes = new RoomType[MEMBERSHIP_TYPES.length][];
+		eligibleRoomTypeMasks = new int[MEMBERSHIP_TYPES.length];
+		for (MembershipType memType : MEMBERSHIP_TYPES) {
+			List<RoomType> roomTypes = converter.getEligibleRoomTypes(memType);
+			if (roomTypes == null)
+				throw new IllegalArgumentException("No eligible room types for " + memType);
+			eligibleRoomTypes[memType.ordinal()] = roomTypes.toArray(new RoomType[roomTypes.size()]);
+			for (RoomType roomType : roomTypes) {
+				eligibleRoomTypeMasks[memType.ordinal()] |= 1 << roomType.ordinal();
+			}
+		}
+
+		eligibleMemTypes = new MembershipType[ROOM_TYPES.length][];
+		priorityPickUpOrders = new MembershipType[ROOM_TYPES.length][];
+		candidateMemTypeMasks = new int[ROOM_TYPES.length];
+		for (RoomType roomType : ROOM_TYPES) {
+			List<MembershipType> memTypes = converter.getEligibleMembershipTypes(roomType);
+			MembershipType priorityMemType = converter.getPriorityMembershipType(roomType);
+			if (memTypes == null || priorityMemType == null)
+				throw new IllegalArgumentException("No eligible membership types for " + roomType);
+			eligibleMemTypes[roomType.ordinal()] = memTypes.toArray(new MembershipType[memTypes.size()]);
+			List<MembershipType> pickUpOrder = new ArrayList<>(memTypes.size() + 1);
+			pickUpOrder.add(priorityMemType);
+			int mask = 1 << priorityMemType.ordinal();
+			for (MembershipType memType : memTypes) {
+				if (memType != priorityMemType)
+					pickUpOrder.add(memType);
+				mask |= 1 << memType.ordinal();
+			}
+			priorityPickUpOrders[roomType.ordinal()] = pickUpOrder.toArray(new MembershipType[pickUpOrder.size()]);
+			candidateMemTypeMasks[roomType.ordinal()] = mask;
+		}
+
+		// the rules may be asymmetric (a room type picking up a tier that is
+		// not eligible for it), joining the waiting list has to keep out the
+		// check-outs of all of them
+		waitingRoomTypeMasks = eligibleRoomTypeMasks.clone();
+		for (RoomType roomType : ROOM_TYPES) {
+			for (MembershipType memType : MEMBERSHIP_TYPES) {
+				if ((candidateMemTypeMasks[roomType.ordinal()] & 1 << memType.ordinal()) != 0)
+					waitingRoomTypeMasks[memType.ordinal()] |= 1 << roomType.ordinal();
+			}
+		}
+	}
+
+	static EligibilityTable compile(RoomMembershipTypesConverter converter) {
+		if (converter == null)
+			throw new IllegalArgumentException("Converter must not be null.");
+		return new EligibilityTable(converter);
+	}
+
+	RoomType[] eligibleRoomTypes(MembershipType memType) {
+		return eligibleRoomTypes[memType.ordinal()];
+	}
+
+	MembershipType[] eligibleMemTypes(RoomType roomType) {
+		return eligibleMemTypes[roomType.ordinal()];
+	}
+
+	MembershipType[] priorityPickUpOrder(RoomType roomType) {
+		return priorityPickUpOrders[roomType.ordinal()];
+	}
+
+	int eligibleRoomTypeMask(MembershipType memType) {
+		return eligibleRoomTypeMasks[memType.ordinal()];
+	}
+
+	int candidateMemTypeMask(RoomType roomType) {
+		return candidateMemTypeMasks[roomType.ordinal()];
+	}
+
+	/**
+	 * @return bits of the room types to lock while a guest of the tier looks
+	 *         for a room and joins the waiting list: the eligible ones, and
+	 *         every one whose check-out may pick up the tier
+	 */
+	int waitingRoomTypeMask(MembershipType memType) {
+		return waitingRoomTypeMasks[memType.ordinal()];
+	}
+}
@@ -0,0 +1,211 @@
+package com.ram;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The free rooms of one type, by their index within the type, ordered the way
+ * a {@link RoomSelection} hands them out. Not thread-safe, DefaultRoomService
+ * is called under the lock of the room type.
+ *
+ * @author Ram
+ *
+ */
+abstract class FreeRooms {
+
+	/**
+	 * Takes the room to hand out.
+	 *
+	 * @return its index, -1 if there is no free room
+	 */
+	abstract int poll();
+
+	/**
+	 * Takes this particular room.
+	 *
+	 * @return false if it was not free
+	 */
+	abstract boolean remove(int index);
+
+	/**
+	 * The room was checked out.
+	 */
+	abstract void add(int index);
+
+	abstract int size();
+
+	/**
+	 * Housekeeping is done with the room, ignored unless the strategy cares.
+	 */
+	void cleaned(int index) {
+	}
+
+	/**
+	 * The order of the old LinkedHashSet: freed rooms go to the back.
+	 */
+	static final class LeastRecentlyUsed extends FreeRooms {
+		private final IntFifoSet free;
+
+		LeastRecentlyUsed(int rooms) {
+			free = IntFifoSet.full(rooms);
+		}
+
+		@Override
+		int poll() {
+			return free.pollFirst();
+		}
+
+		@Override
+		boolean remove(int index) {
+			return free.remove(index);
+		}
+
+		@Override
+		void add(int index) {
+			free.addLast(index);
+		}
+
+		@Override
+		int size() {
+			return free.size();
+		}
+	}
+
+	/**
+	 * One list of free rooms per floor, and the floors bucketed by how many
+	 * free rooms they have. A floor's count only ever moves by one, so the
+	 * fullest bucket is found without a heap.
+	 */
+	static final class FloorClustered extends FreeRooms {
+		// index --> dense floor number
+		private final int[] floorOf;
+		// floor --> its free rooms
+		private final IntFifoLists free;
+		// free rooms --> the floors with that many
+		private final IntFifoLists floorsByFree;
+		private int mostFree;
+		// the floor being filled
+		private int current = IntFifoLists.NONE;
+		private int size;
+
+		FloorClustered(Room[] rooms) {
+			floorOf = new int[rooms.length];
+			Map<Integer, Integer> floors = new HashMap<>();
+			for (int i = 0; i < rooms.length; i++) {
+				Integer floor = floors.get(rooms[i].getFloor());
+				if (floor == null) {
+					floor = floors.size();
+					floors.put(rooms[i].getFloor(), floor);
+				}
+				floorOf[i] = floor;
+			}
+			free = new IntFifoLists(rooms.length, floors.size());
+			for (int i = 0; i < rooms.length; i++) {
+				free.addLast(floorOf[i], i);
+			}
+			int largest = 0;
+			for (int floor = 0; floor < floors.size(); floor++) {
+				largest = Math.max(largest, free.size(floor));
+			}
+			floorsByFree = new IntFifoLists(floors.size(), largest + 1);
+			for (int floor = 0; floor < floors.size(); floor++) {
+				floorsByFree.addLast(free.size(floor), floor);
+			}
+			mostFree = largest;
+			size = rooms.length;
+		}
+
+		@Override
+		int poll() {
+			if (size == 0)
+				return -1;
+			if (current == IntFifoLists.NONE || free.size(current) == 0)
+				current = floorsByFree.peekFirst(mostFree);
+			int index = free.pollFirst(current);
+			taken(current);
+			return index;
+		}
+
+		@Override
+		boolean remove(int index) {
+			int floor = free.listOf(index);
+			if (floor == IntFifoLists.NONE)
+				return false;
+			free.remove(index);
+			taken(floor);
+			return true;
+		}
+
+		@Override
+		void add(int index) {
+			int floor = floorOf[index];
+			if (!free.addLast(floor, index))
+				return;
+			size++;
+			int count = free.size(floor);
+			floorsByFree.remove(floor);
+			floorsByFree.addLast(count, floor);
+			if (count > mostFree)
+				mostFree = count;
+		}
+
+		private void taken(int floor) {
+			size--;
+			floorsByFree.remove(floor);
+			floorsByFree.addLast(free.size(floor), floor);
+			// the floor left the fullest bucket for the one below
+			if (floorsByFree.size(mostFree) == 0 && mostFree > 0)
+				mostFree--;
+		}
+
+		@Override
+		int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Two lists, the clean rooms and the ones housekeeping has yet to do.
+	 */
+	static final class CleanedFirst extends FreeRooms {
+		private static final int CLEAN = 0;
+		private static final int DIRTY = 1;
+		private final IntFifoLists free;
+
+		CleanedFirst(int rooms) {
+			free = new IntFifoLists(rooms, 2);
+			for (int i = 0; i < rooms; i++) {
+				free.addLast(CLEAN, i);
+			}
+		}
+
+		@Override
+		int poll() {
+			int index = free.pollFirst(CLEAN);
+			return index >= 0 ? index : free.pollFirst(DIRTY);
+		}
+
+		@Override
+		boolean remove(int index) {
+			return free.remove(index);
+		}
+
+		@Override
+		void add(int index) {
+			free.addLast(DIRTY, index);
+		}
+
+		@Override
+		int size() {
+			return free.size(CLEAN) + free.size(DIRTY);
+		}
+
+		@Override
+		void cleaned(int index) {
+			if (free.listOf(index) == DIRTY) {
+				free.remove(index);
+				free.addLast(CLEAN, index);
+			}
+		}
+	}
+}
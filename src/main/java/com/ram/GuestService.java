@@ -1,5 +1,8 @@
 package com.ram;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This is mostly for data stubbing for this test. In real-world, this is
@@ -10,4 +13,21 @@ package com.ram;
  */
 public interface GuestService {
 	Guest getGuest(String guestId);
+
+	/**
+	 * Looks up many guests at once, a real backing store would answer this
+	 * with one round trip. By default it is one getGuest per id.
+	 * 
+	 * @param guestIds
+	 * @return guestId --> Guest, unknown guests are left out
+	 */
+	default Map<String, Guest> getGuests(Collection<String> guestIds) {
+		Map<String, Guest> guests = new HashMap<>(guestIds.size() * 2);
+		for (String guestId : guestIds) {
+			Guest guest = getGuest(guestId);
+			if (guest != null)
+				guests.put(guestId, guest);
+		}
+		return guests;
+	}
 }
@@ -0,0 +1,125 @@
+package com.ram;
+
+import java.util.Arrays;
+
+/**
+ * Maps string ids (room numbers, guest ids) to dense int handles 0, 1, 2...
+ * in the order they are first interned, so the services can keep their data in
+ * plain arrays indexed by handle instead of String-keyed hash maps.
+ * <p>
+ * The index is an open-addressing table of handles with linear probing, and
+ * the hash of every id is kept next to it so a probe only calls equals on a
+ * real candidate. Nothing is boxed and nothing is allocated per lookup.
+ * <p>
+ * Not thread-safe. The services either intern everything up front and only
+ * read afterwards, or guard the interner with one of their locks.
+ *
+ * @author Ram
+ *
+ */
+public final class IdInterner {
+	private static final int NO_HANDLE = -1;
+
+	private String[] ids;
+	private int[] hashes;
+	// handle + 1 per slot, 0 = empty
+	private int[] slots;
+	private int size;
+
+	public IdInterner() {
+		this(16);
+	}
+
+	public IdInterner(int expectedSize) {
+		int capacity = Math.max(16, expectedSize);
+		ids = new String[capacity];
+		hashes = new int[capacity];
+		slots = new int[tableSizeFor(capacity)];
+	}
+
+	/**
+	 * @param id
+	 * @return the handle of the id, a new one if it was not seen before
+	 */
+	public int intern(String id) {
+		if (id == null)
+			throw new IllegalArgumentException("Id must not be null.");
+		int hash = hash(id);
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		int handle;
+		while ((handle = slots[slot] - 1) != NO_HANDLE) {
+			if (hashes[handle] == hash && ids[handle].equals(id))
+				return handle;
+			slot = (slot + 1) & mask;
+		}
+		handle = size++;
+		if (handle == ids.length) {
+			ids = Arrays.copyOf(ids, handle * 2);
+			hashes = Arrays.copyOf(hashes, handle * 2);
+		}
+		ids[handle] = id;
+		hashes[handle] = hash;
+		slots[slot] = handle + 1;
+		// keep the table at most half full, probes stay short
+		if (size * 2 > slots.length)
+			rehash(slots.length * 2);
+		return handle;
+	}
+
+	/**
+	 * @param id
+	 * @return the handle of the id, -1 if it was never interned
+	 */
+	public int indexOf(String id) {
+		if (id == null)
+			return NO_HANDLE;
+		int hash = hash(id);
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		int handle;
+		while ((handle = slots[slot] - 1) != NO_HANDLE) {
+			if (hashes[handle] == hash && ids[handle].equals(id))
+				return handle;
+			slot = (slot + 1) & mask;
+		}
+		return NO_HANDLE;
+	}
+
+	/**
+	 * @param handle
+	 * @return the id the handle was given to
+	 */
+	public String idOf(int handle) {
+		if (handle < 0 || handle >= size)
+			throw new IllegalArgumentException("Unknown handle: " + handle);
+		return ids[handle];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void rehash(int tableSize) {
+		int[] newSlots = new int[tableSize];
+		int mask = tableSize - 1;
+		for (int handle = 0; handle < size; handle++) {
+			int slot = hashes[handle] & mask;
+			while (newSlots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			newSlots[slot] = handle + 1;
+		}
+		slots = newSlots;
+	}
+
+	private static int hash(String id) {
+		// spread the bits, ids like "R1".."R999" differ in the low bits only
+		int h = id.hashCode() * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int tableSizeFor(int capacity) {
+		return Integer.highestOneBit(capacity * 2 - 1) * 2;
+	}
+}
@@ -0,0 +1,34 @@
+package com.ram;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Keeps the last report around, for tests and for anyone who wants to poll.
+ *
+ * @author Ram
+ *
+ */
+public class InMemoryMetricsReporter implements MetricsReporter {
+	private volatile Map<String, Number> lastReport = Collections.emptyMap();
+
+	@Override
+	public void report(Map<String, Number> metrics) {
+		lastReport = Collections.unmodifiableMap(metrics);
+	}
+
+	/**
+	 * @return the metrics of the last report, empty before the first one
+	 */
+	public Map<String, Number> getLastReport() {
+		return lastReport;
+	}
+
+	/**
+	 * @param name
+	 * @return the value in the last report, null if it had none
+	 */
+	public Number get(String name) {
+		return lastReport.get(name);
+	}
+}
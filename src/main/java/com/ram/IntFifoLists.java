@@ -0,0 +1,106 @@
+package com.ram;
+
+import java.util.Arrays;
+
+/**
+ * Several insertion-ordered lists sharing the ints 0..capacity-1, each value in
+ * at most one list at a time. Like {@link IntFifoSet}, add to the back of a
+ * list, poll from its front and remove from anywhere in O(1), with the links
+ * in int arrays, plus which list a value is in.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author Ram
+ *
+ */
+class IntFifoLists {
+	static final int NONE = -1;
+	private final int[] next;
+	private final int[] prev;
+	// value --> its list, NONE if it is in none
+	private final int[] listOf;
+	private final int[] heads;
+	private final int[] tails;
+	private final int[] sizes;
+
+	IntFifoLists(int capacity, int lists) {
+		next = new int[capacity];
+		prev = new int[capacity];
+		listOf = new int[capacity];
+		heads = new int[lists];
+		tails = new int[lists];
+		sizes = new int[lists];
+		Arrays.fill(listOf, NONE);
+		Arrays.fill(heads, NONE);
+		Arrays.fill(tails, NONE);
+	}
+
+	/**
+	 * @return the list the value is in, {@link #NONE} if none
+	 */
+	int listOf(int value) {
+		return listOf[value];
+	}
+
+	/**
+	 * @return false if the value was already in a list
+	 */
+	boolean addLast(int list, int value) {
+		if (listOf[value] != NONE)
+			return false;
+		int tail = tails[list];
+		prev[value] = tail;
+		next[value] = NONE;
+		if (tail == NONE)
+			heads[list] = value;
+		else
+			next[tail] = value;
+		tails[list] = value;
+		listOf[value] = list;
+		sizes[list]++;
+		return true;
+	}
+
+	/**
+	 * @return the first value of the list, left in it, -1 if it is empty
+	 */
+	int peekFirst(int list) {
+		return heads[list];
+	}
+
+	/**
+	 * @return the first value of the list, -1 if it is empty
+	 */
+	int pollFirst(int list) {
+		int value = heads[list];
+		if (value != NONE)
+			remove(value);
+		return value;
+	}
+
+	/**
+	 * @return false if the value was not in any list
+	 */
+	boolean remove(int value) {
+		int list = listOf[value];
+		if (list == NONE)
+			return false;
+		int p = prev[value];
+		int n = next[value];
+		if (p == NONE)
+			heads[list] = n;
+		else
+			next[p] = n;
+		if (n == NONE)
+			tails[list] = p;
+		else
+			prev[n] = p;
+		listOf[value] = NONE;
+		sizes[list]--;
+		return true;
+	}
+
+	int size(int list) {
+		return sizes[list];
+	}
+}
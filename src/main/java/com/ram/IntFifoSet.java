@@ -0,0 +1,115 @@
+package com.ram;
+
+import java.util.Arrays;
+
+/**
+ * Insertion-ordered set of the ints 0..capacity-1, the primitive counterpart of
+ * a LinkedHashSet&lt;Integer&gt;: add to the back, poll from the front and
+ * remove from anywhere in O(1), kept as a doubly linked list in two int arrays.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author Ram
+ *
+ */
+class IntFifoSet {
+	private static final int NONE = -1;
+	// links, prev[i] == i marks a value that is not in the set
+	private final int[] next;
+	private final int[] prev;
+	private int head = NONE;
+	private int tail = NONE;
+	private int size;
+
+	IntFifoSet(int capacity) {
+		next = new int[capacity];
+		prev = new int[capacity];
+		for (int i = 0; i < capacity; i++) {
+			prev[i] = i;
+		}
+	}
+
+	/**
+	 * @return a set holding 0..capacity-1 in ascending order
+	 */
+	static IntFifoSet full(int capacity) {
+		IntFifoSet set = new IntFifoSet(capacity);
+		if (capacity == 0)
+			return set;
+		for (int i = 0; i < capacity; i++) {
+			set.next[i] = i + 1;
+			set.prev[i] = i - 1;
+		}
+		set.next[capacity - 1] = NONE;
+		set.head = 0;
+		set.tail = capacity - 1;
+		set.size = capacity;
+		return set;
+	}
+
+	boolean contains(int value) {
+		return prev[value] != value;
+	}
+
+	/**
+	 * @return false if the value was already in the set
+	 */
+	boolean addLast(int value) {
+		if (contains(value))
+			return false;
+		prev[value] = tail;
+		next[value] = NONE;
+		if (tail == NONE)
+			head = value;
+		else
+			next[tail] = value;
+		tail = value;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @return the first value, -1 if the set is empty
+	 */
+	int pollFirst() {
+		int value = head;
+		if (value != NONE)
+			remove(value);
+		return value;
+	}
+
+	/**
+	 * @return false if the value was not in the set
+	 */
+	boolean remove(int value) {
+		if (!contains(value))
+			return false;
+		int p = prev[value];
+		int n = next[value];
+		if (p == NONE)
+			head = n;
+		else
+			next[p] = n;
+		if (n == NONE)
+			tail = p;
+		else
+			prev[n] = p;
+		prev[value] = value;
+		size--;
+		return true;
+	}
+
+	int size() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		int[] values = new int[size];
+		int i = 0;
+		for (int value = head; value != NONE; value = next[value]) {
+			values[i++] = value;
+		}
+		return Arrays.toString(values);
+	}
+}
@@ -0,0 +1,103 @@
+package com.ram;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes the last reported metrics as read-only attributes of one MBean,
+ * so jconsole, VisualVM or any JMX collector can pick them up.
+ *
+ * @author Ram
+ *
+ */
+public class JmxMetricsReporter implements MetricsReporter, DynamicMBean {
+	private final MBeanServer server;
+	private final ObjectName objectName;
+	private volatile Map<String, Number> lastReport = Collections.emptyMap();
+
+	/**
+	 * Registers the MBean with the platform MBean server.
+	 *
+	 * @param objectName
+	 *            e.g. "com.ram:type=BookingService,name=hotel1"
+	 * @throws JMException
+	 *             if the name is invalid or taken
+	 */
+	public JmxMetricsReporter(String objectName) throws JMException {
+		this.server = ManagementFactory.getPlatformMBeanServer();
+		this.objectName = new ObjectName(objectName);
+		server.registerMBean(this, this.objectName);
+	}
+
+	@Override
+	public void report(Map<String, Number> metrics) {
+		lastReport = Collections.unmodifiableMap(metrics);
+	}
+
+	public void unregister() throws JMException {
+		server.unregisterMBean(objectName);
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Number value = lastReport.get(attribute);
+		if (value == null)
+			throw new AttributeNotFoundException(attribute);
+		return value;
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, Number> report = lastReport;
+		AttributeList values = new AttributeList();
+		for (String attribute : attributes) {
+			Number value = report.get(attribute);
+			if (value != null)
+				values.add(new Attribute(attribute, value));
+		}
+		return values;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) {
+		throw new UnsupportedOperationException("Booking metrics are read-only.");
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) {
+		throw new UnsupportedOperationException("Booking metrics have no operations.");
+	}
+
+	/**
+	 * The attributes are whatever the last report had, so the info changes as
+	 * new metrics (e.g. upgrade pairs) show up.
+	 */
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<>();
+		for (Map.Entry<String, Number> metric : lastReport.entrySet()) {
+			attributes.add(new MBeanAttributeInfo(metric.getKey(), metric.getValue().getClass().getName(),
+					metric.getKey(), true, false, false));
+		}
+		return new MBeanInfo(getClass().getName(), "Booking service metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+	}
+}
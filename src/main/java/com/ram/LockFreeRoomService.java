@@ -0,0 +1,176 @@
+package com.ram;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.ram.Room.RoomType;
+
+/**
+ * A thread-safe RoomService. Unlike DefaultRoomService, reserveRoom, freeUpRoom
+ * and isRoomAvailable can be called straight from many threads at once.
+ * <p>
+ * The free rooms of each RoomType are kept in a bitset over the room's index
+ * within its type (a set bit means free), and rooms are taken and given back
+ * with compare-and-set on the 64-bit words, so there are no locks at all. The
+ * lowest free index is always preferred, clean or not (roomCleaned is the
+ * interface's no-op).
+ * <p>
+ * So the order rooms are handed out in is not the same as DefaultRoomService.
+ * On a fresh hotel both go in the order the rooms were injected, but after
+ * check-outs DefaultRoomService hands out the least recently freed room (or
+ * whatever its RoomSelection picks), while this one hands out the free room
+ * that was injected first.
+ *
+ * @author Ram
+ *
+ */
+public class LockFreeRoomService implements RoomService {
+	// only read after construction, so no locking needed
+	private final IdInterner roomIds;
+	// handle --> room
+	private final Room[] rooms;
+	// handle --> index of the room within its type's pool
+	private final int[] typeIndexes;
+	private final Map<RoomType, RoomPool> availableRoomsByType = new EnumMap<>(RoomType.class);
+
+	/**
+	 * The rooms cache is injected, as with the DefaultRoomService constructor.
+	 * Only the order rooms are handed out in differs, see above.
+	 *
+	 * @param roomsCache
+	 */
+	public LockFreeRoomService(Map<String, Room> roomsCache) {
+		roomIds = new IdInterner(roomsCache.size());
+		rooms = new Room[roomsCache.size()];
+		typeIndexes = new int[roomsCache.size()];
+		Map<RoomType, List<Room>> roomsByType = new EnumMap<>(RoomType.class);
+		for (RoomType roomType : RoomType.values()) {
+			roomsByType.put(roomType, new ArrayList<Room>());
+		}
+		for (Room room : roomsCache.values()) {
+			List<Room> roomsOfType = roomsByType.get(room.getType());
+			int handle = roomIds.intern(room.getRoomNo());
+			rooms[handle] = room;
+			typeIndexes[handle] = roomsOfType.size();
+			roomsOfType.add(room);
+		}
+		for (RoomType roomType : RoomType.values()) {
+			List<Room> roomsOfType = roomsByType.get(roomType);
+			availableRoomsByType.put(roomType, new RoomPool(roomsOfType.toArray(new Room[roomsOfType.size()])));
+		}
+	}
+
+	@Override
+	public Room getRoomInfo(String roomNo) {
+		int handle = roomIds.indexOf(roomNo);
+		return handle < 0 ? null : rooms[handle];
+	}
+
+	@Override
+	public Room reserveRoom(RoomType roomType) {
+		return availableRoomsByType.get(roomType).reserve();
+	}
+
+	@Override
+	public Room reserveRoom(String roomNo) {
+		int handle = roomIds.indexOf(roomNo);
+		if (handle < 0 || !availableRoomsByType.get(rooms[handle].getType()).reserve(typeIndexes[handle]))
+			return null;
+		return rooms[handle];
+	}
+
+	@Override
+	public void freeUpRoom(String roomNo) {
+		int handle = roomIds.indexOf(roomNo);
+		availableRoomsByType.get(rooms[handle].getType()).free(typeIndexes[handle]);
+	}
+
+	@Override
+	public boolean isRoomAvailable(RoomType roomType) {
+		return availableRoomsByType.get(roomType).available.get() > 0;
+	}
+
+	@Override
+	public int getTotalRooms() {
+		return rooms.length;
+	}
+
+	/**
+	 * Lock-free pool of the rooms of one type.
+	 */
+	private static class RoomPool {
+		private final Room[] rooms;
+		// bit i of word i / 64 is set while rooms[i] is free
+		private final AtomicLongArray freeBits;
+		private final AtomicInteger available;
+		// no free room lives in a word below this one, only ever a hint
+		private final AtomicInteger lowestFreeWord = new AtomicInteger();
+
+		RoomPool(Room[] rooms) {
+			this.rooms = rooms;
+			this.freeBits = new AtomicLongArray((rooms.length + 63) >>> 6);
+			for (int i = 0; i < rooms.length; i++) {
+				freeBits.set(i >>> 6, freeBits.get(i >>> 6) | (1L << i));
+			}
+			this.available = new AtomicInteger(rooms.length);
+		}
+
+		Room reserve() {
+			if (available.get() <= 0)
+				return null;
+			int words = freeBits.length();
+			int start = lowestFreeWord.get();
+			// the hint can be stale, so wrap around once before giving up
+			for (int n = 0; n < words; n++) {
+				int wordIndex = (start + n) % words;
+				long word;
+				while ((word = freeBits.get(wordIndex)) != 0) {
+					long bit = Long.lowestOneBit(word);
+					if (freeBits.compareAndSet(wordIndex, word, word & ~bit)) {
+						available.decrementAndGet();
+						if (wordIndex != start)
+							lowestFreeWord.compareAndSet(start, wordIndex);
+						return rooms[(wordIndex << 6) + Long.numberOfTrailingZeros(bit)];
+					}
+				}
+			}
+			return null;
+		}
+
+		boolean reserve(int index) {
+			int wordIndex = index >>> 6;
+			long bit = 1L << index;
+			for (;;) {
+				long word = freeBits.get(wordIndex);
+				if ((word & bit) == 0)
+					return false; // already taken
+				if (freeBits.compareAndSet(wordIndex, word, word & ~bit))
+					break;
+			}
+			available.decrementAndGet();
+			return true;
+		}
+
+		void free(int index) {
+			int wordIndex = index >>> 6;
+			long bit = 1L << index;
+			for (;;) {
+				long word = freeBits.get(wordIndex);
+				if ((word & bit) != 0)
+					return; // already free
+				if (freeBits.compareAndSet(wordIndex, word, word | bit))
+					break;
+			}
+			available.incrementAndGet();
+			for (;;) {
+				int lowest = lowestFreeWord.get();
+				if (lowest <= wordIndex || lowestFreeWord.compareAndSet(lowest, wordIndex))
+					return;
+			}
+		}
+	}
+}
@@ -0,0 +1,463 @@
+package com.ram;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of booking transitions in memory-mapped segment files,
+ * plus compact snapshots of the whole booking state.
+ * <p>
+ * Each record is [length][sequence + transition][crc32]. Segments are
+ * pre-allocated and zero-filled, so a zero length marks the end of the data,
+ * and a record whose checksum does not match (torn write at a crash) ends it
+ * as well.
+ * <p>
+ * Appends only copy the record into the mapped segment. A single flusher
+ * thread forces the segment to disk and every check-in/check-out waiting in
+ * awaitDurable at that time is released by the same sync (group commit).
+ * <p>
+ * A snapshot holds the live state as a minimal list of transitions taken at
+ * some sequence. Recovery loads the latest snapshot and replays only the
+ * journal records after it, and segments entirely covered by a snapshot are
+ * deleted.
+ *
+ * @author Ram
+ *
+ */
+public class MappedBookingJournal implements BookingJournal, Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(MappedBookingJournal.class);
+
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".snap";
+	private static final int SNAPSHOT_MAGIC = 0x484f5443;
+	// length + crc around each record body
+	private static final int RECORD_OVERHEAD = 8;
+
+	public static interface TransitionHandler {
+		void apply(BookingTransition transition);
+	}
+
+	private final File directory;
+	private final int segmentSize;
+	private final boolean syncOnCommit;
+
+	private final ReentrantLock appendLock = new ReentrantLock();
+	// first sequence of the segment --> segment file
+	private final TreeMap<Long, File> segments = new TreeMap<>();
+	private volatile MappedByteBuffer segment;
+	private FileChannel segmentChannel;
+	private volatile long lastSequence;
+	private ByteBuffer scratch = ByteBuffer.allocate(256);
+	// only used by append, under appendLock
+	private final CRC32 crc = new CRC32();
+	// one snapshot at a time, they share the temp file
+	private final ReentrantLock snapshotLock = new ReentrantLock();
+
+	private final ReentrantLock syncLock = new ReentrantLock();
+	private final Condition dirty = syncLock.newCondition();
+	private final Condition synced = syncLock.newCondition();
+	private volatile long durableSequence;
+	private volatile boolean closed;
+	private final Thread flusher;
+
+	/**
+	 * Opens the journal in the directory, continuing after the last valid
+	 * record if there is one.
+	 *
+	 * @param directory
+	 * @param segmentSize
+	 *            bytes per segment file
+	 * @param syncOnCommit
+	 *            whether awaitDurable waits for the disk, otherwise the data
+	 *            is forced in the background about every 100ms
+	 * @throws IOException
+	 */
+	public MappedBookingJournal(File directory, int segmentSize, boolean syncOnCommit) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create journal directory " + directory);
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.syncOnCommit = syncOnCommit;
+
+		for (File file : list(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+			segments.put(sequenceOf(file, SEGMENT_PREFIX, SEGMENT_SUFFIX), file);
+		}
+		lastSequence = latestSnapshotSequence();
+		if (segments.isEmpty()) {
+			openSegment(lastSequence + 1);
+		} else {
+			Map.Entry<Long, File> last = segments.lastEntry();
+			mapSegment(last.getValue());
+			// find the end of the valid data, that's where the next append goes
+			ByteBuffer scan = segment.duplicate();
+			long sequence = readSegment(scan, 0, null);
+			segment.position(scan.position());
+			lastSequence = Math.max(lastSequence, sequence == 0 ? last.getKey() - 1 : sequence);
+		}
+		durableSequence = lastSequence;
+
+		flusher = new Thread(new Flusher(), "booking-journal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	@Override
+	public long append(BookingTransition transition) {
+		appendLock.lock();
+		try {
+			int maxSize = 8 + transition.maxEncodedSize();
+			if (scratch.capacity() < maxSize)
+				scratch = ByteBuffer.allocate(Math.max(maxSize, scratch.capacity() * 2));
+			long sequence = lastSequence + 1;
+			scratch.clear();
+			scratch.putLong(sequence);
+			transition.writeTo(scratch);
+			int length = scratch.position();
+			crc.reset();
+			crc.update(scratch.array(), 0, length);
+
+			// always leave room for the zero length that ends the segment
+			if (segment.remaining() < length + RECORD_OVERHEAD + 4)
+				roll(sequence);
+			MappedByteBuffer target = segment;
+			target.putInt(length);
+			target.put(scratch.array(), 0, length);
+			target.putInt((int) crc.getValue());
+			lastSequence = sequence;
+			return sequence;
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not write to the booking journal", e);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	@Override
+	public void awaitDurable(long sequence) {
+		if (!syncOnCommit || durableSequence >= sequence)
+			return;
+		syncLock.lock();
+		try {
+			dirty.signal();
+			while (durableSequence < sequence && !closed) {
+				synced.awaitUninterruptibly();
+			}
+		} finally {
+			syncLock.unlock();
+		}
+	}
+
+	@Override
+	public long lastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * Feeds the latest snapshot and then every journal record after it to the
+	 * handler, in order. Meant to run once at startup before anything is
+	 * appended.
+	 *
+	 * @param handler
+	 * @throws IOException
+	 */
+	public void replay(TransitionHandler handler) throws IOException {
+		long snapshotSequence = 0;
+		File snapshot = latestSnapshot();
+		if (snapshot != null) {
+			snapshotSequence = readSnapshot(snapshot, handler);
+		}
+		appendLock.lock();
+		try {
+			for (File file : segments.values()) {
+				try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+					MappedByteBuffer buffer = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+					readSegment(buffer, snapshotSequence, handler);
+				}
+			}
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the booking state as of the given sequence, then
+	 * drops the snapshots and journal segments it makes obsolete. Runs
+	 * alongside appends, concurrent snapshots are written one after the other.
+	 *
+	 * @param sequence
+	 *            last journal sequence reflected in the state
+	 * @param state
+	 *            transitions that rebuild the state on an empty hotel
+	 * @throws IOException
+	 */
+	public void writeSnapshot(long sequence, Collection<BookingTransition> state) throws IOException {
+		snapshotLock.lock();
+		try {
+			writeSnapshotFile(sequence, state);
+		} finally {
+			snapshotLock.unlock();
+		}
+	}
+
+	private void writeSnapshotFile(long sequence, Collection<BookingTransition> state) throws IOException {
+		CRC32 crc = new CRC32();
+		File tmp = new File(directory, SNAPSHOT_PREFIX + "tmp");
+		try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+			buffer.putInt(SNAPSHOT_MAGIC);
+			buffer.putLong(sequence);
+			buffer.putInt(state.size());
+			for (BookingTransition transition : state) {
+				int maxSize = transition.maxEncodedSize() + 8 + RECORD_OVERHEAD;
+				if (buffer.remaining() < maxSize) {
+					buffer.flip();
+					while (buffer.hasRemaining())
+						channel.write(buffer);
+					buffer.clear();
+					if (buffer.capacity() < maxSize)
+						buffer = ByteBuffer.allocate(maxSize);
+				}
+				writeRecord(buffer, crc, sequence, transition);
+			}
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			channel.force(true);
+		}
+		File snapshot = new File(directory, name(SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+		Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+
+		for (File old : list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+			if (sequenceOf(old, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < sequence)
+				delete(old);
+		}
+		appendLock.lock();
+		try {
+			// a segment can go once the next one starts at or before the
+			// first sequence the snapshot does not cover
+			while (segments.size() > 1) {
+				Map.Entry<Long, File> first = segments.firstEntry();
+				if (segments.higherKey(first.getKey()) > sequence + 1)
+					break;
+				delete(first.getValue());
+				segments.remove(first.getKey());
+			}
+		} finally {
+			appendLock.unlock();
+		}
+		logger.info("Wrote booking snapshot at sequence {} with {} transitions", sequence, state.size());
+	}
+
+	@Override
+	public void close() throws IOException {
+		appendLock.lock();
+		try {
+			closed = true;
+			segment.force();
+			durableSequence = lastSequence;
+			segmentChannel.close();
+		} finally {
+			appendLock.unlock();
+		}
+		flusher.interrupt();
+		syncLock.lock();
+		try {
+			synced.signalAll();
+		} finally {
+			syncLock.unlock();
+		}
+	}
+
+	private static void writeRecord(ByteBuffer buffer, CRC32 crc, long sequence, BookingTransition transition) {
+		int lengthPosition = buffer.position();
+		buffer.putInt(0);
+		int start = buffer.position();
+		buffer.putLong(sequence);
+		transition.writeTo(buffer);
+		int length = buffer.position() - start;
+		buffer.putInt(lengthPosition, length);
+		crc.reset();
+		crc.update(buffer.array(), buffer.arrayOffset() + start, length);
+		buffer.putInt((int) crc.getValue());
+	}
+
+	/**
+	 * Reads records from the buffer's position until the end of valid data,
+	 * handing the ones after skipUpTo to the handler (if any). Leaves the
+	 * buffer positioned at the end of the valid data.
+	 *
+	 * @return sequence of the last valid record, 0 if none
+	 */
+	private long readSegment(ByteBuffer buffer, long skipUpTo, TransitionHandler handler) {
+		long lastRead = 0;
+		byte[] body = new byte[256];
+		CRC32 crc = new CRC32();
+		while (buffer.remaining() >= RECORD_OVERHEAD) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			if (length <= 0 || length + 4 > buffer.remaining()) {
+				buffer.position(start);
+				break;
+			}
+			if (body.length < length)
+				body = new byte[Math.max(length, body.length * 2)];
+			buffer.get(body, 0, length);
+			crc.reset();
+			crc.update(body, 0, length);
+			if (buffer.getInt() != (int) crc.getValue()) {
+				logger.warn("Journal record at {} is corrupt, treating it as the end of the journal", start);
+				buffer.position(start);
+				break;
+			}
+			ByteBuffer record = ByteBuffer.wrap(body, 0, length);
+			lastRead = record.getLong();
+			if (handler != null && lastRead > skipUpTo)
+				handler.apply(BookingTransition.readFrom(record));
+		}
+		return lastRead;
+	}
+
+	private long readSnapshot(File snapshot, TransitionHandler handler) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(snapshot, "r")) {
+			MappedByteBuffer buffer = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+			if (buffer.getInt() != SNAPSHOT_MAGIC)
+				throw new IOException("Not a booking snapshot: " + snapshot);
+			long sequence = buffer.getLong();
+			int count = buffer.getInt();
+			readSegment(buffer, -1, handler);
+			logger.info("Loaded booking snapshot at sequence {} with {} transitions", sequence, count);
+			return sequence;
+		}
+	}
+
+	private void roll(long nextSequence) throws IOException {
+		segment.force();
+		segmentChannel.close();
+		openSegment(nextSequence);
+	}
+
+	private void openSegment(long firstSequence) throws IOException {
+		File file = new File(directory, name(SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+		segments.put(firstSequence, file);
+		mapSegment(file);
+	}
+
+	private void mapSegment(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		if (raf.length() < segmentSize)
+			raf.setLength(segmentSize);
+		segmentChannel = raf.getChannel();
+		segment = segmentChannel.map(MapMode.READ_WRITE, 0, raf.length());
+	}
+
+	private File latestSnapshot() {
+		File latest = null;
+		long latestSequence = -1;
+		for (File file : list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+			long sequence = sequenceOf(file, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+			if (sequence > latestSequence) {
+				latest = file;
+				latestSequence = sequence;
+			}
+		}
+		return latest;
+	}
+
+	private long latestSnapshotSequence() {
+		File snapshot = latestSnapshot();
+		return snapshot == null ? 0 : sequenceOf(snapshot, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+	}
+
+	private File[] list(final String prefix, final String suffix) {
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.getName().startsWith(prefix) && file.getName().endsWith(suffix);
+			}
+		});
+		return files == null ? new File[0] : files;
+	}
+
+	private static String name(String prefix, long sequence, String suffix) {
+		return String.format("%s%020d%s", prefix, sequence, suffix);
+	}
+
+	private static long sequenceOf(File file, String prefix, String suffix) {
+		String name = file.getName();
+		return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+	}
+
+	private static void delete(File file) {
+		if (!file.delete())
+			logger.warn("Could not delete {}", file);
+	}
+
+	/**
+	 * Forces the current segment whenever there is something new, and
+	 * releases everyone waiting for those records.
+	 */
+	private class Flusher implements Runnable {
+		@Override
+		public void run() {
+			while (!closed) {
+				syncLock.lock();
+				try {
+					if (durableSequence >= lastSequence)
+						dirty.await(100, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					return;
+				} finally {
+					syncLock.unlock();
+				}
+
+				long target;
+				MappedByteBuffer toForce;
+				appendLock.lock();
+				try {
+					if (closed)
+						return;
+					// older segments were forced when we rolled over
+					target = lastSequence;
+					toForce = segment;
+				} finally {
+					appendLock.unlock();
+				}
+				if (target <= durableSequence)
+					continue;
+				toForce.force();
+
+				syncLock.lock();
+				try {
+					durableSequence = target;
+					synced.signalAll();
+				} finally {
+					syncLock.unlock();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package com.ram;
+
+import java.util.Map;
+
+/**
+ * Receives the booking metrics, see
+ * {@link DefaultBookingService#scheduleMetricsReporting(MetricsReporter, long, java.util.concurrent.TimeUnit)}
+ * . Plug in whatever monitoring system is in use, {@link InMemoryMetricsReporter}
+ * and {@link JmxMetricsReporter} come with the service.
+ *
+ * @author Ram
+ *
+ */
+public interface MetricsReporter {
+	/**
+	 * @param metrics
+	 *            name --> current value, see {@link BookingMetrics#toMap()}
+	 */
+	void report(Map<String, Number> metrics);
+}
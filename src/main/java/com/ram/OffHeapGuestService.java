@@ -0,0 +1,323 @@
+package com.ram;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.ram.Guest.MembershipType;
+
+/**
+ * A GuestService for loyalty databases too big to keep as Guest objects on the
+ * heap. Guests live in fixed-size records in direct (off-heap) buffers, so the
+ * garbage collector never has to trace them, and are found through an
+ * open-addressing index that is off-heap as well.
+ * <p>
+ * Record layout: hash (int), membership type (byte), id length (short), name
+ * length (short), then the id and the name as chars, each padded to the
+ * longest one loaded.
+ * <p>
+ * getGuest answers with one index probe in the common case and allocates
+ * nothing: it returns a flyweight view over the record, and the view is reused
+ * by the next getGuest call of the same thread. Copy the guest (or use
+ * getGuests) to keep it around. The id and name are only decoded when asked
+ * for.
+ * <p>
+ * Read-only once built, so it is safe to share between threads.
+ *
+ * @author Ram
+ *
+ */
+public class OffHeapGuestService implements GuestService {
+	private static final MembershipType[] MEMBERSHIP_TYPES = MembershipType.values();
+	private static final int HASH_OFFSET = 0;
+	private static final int MEMTYPE_OFFSET = 4;
+	private static final int ID_LENGTH_OFFSET = 5;
+	private static final int NAME_LENGTH_OFFSET = 7;
+	private static final int ID_OFFSET = 9;
+	// keep each buffer well below the 2GB limit of a ByteBuffer
+	private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+	private final int maxIdLength;
+	private final int nameOffset;
+	private final int recordSize;
+	private final int recordsPerChunk;
+	private final ByteBuffer[] chunks;
+	// record + 1 per slot, 0 = empty
+	private final ByteBuffer index;
+	private final int indexMask;
+	private int size;
+
+	private final ThreadLocal<GuestView> views = new ThreadLocal<GuestView>() {
+		@Override
+		protected GuestView initialValue() {
+			return new GuestView();
+		}
+	};
+
+	/**
+	 * Same contract as the DefaultGuestService constructor.
+	 *
+	 * @param cache
+	 */
+	public OffHeapGuestService(Map<String, Guest> cache) {
+		this(cache.size(), maxIdLength(cache), maxNameLength(cache));
+		for (Map.Entry<String, Guest> entry : cache.entrySet()) {
+			add(entry.getKey(), entry.getValue().getMemType(), entry.getValue().getName());
+		}
+	}
+
+	private OffHeapGuestService(int capacity, int maxIdLength, int maxNameLength) {
+		this.maxIdLength = maxIdLength;
+		this.nameOffset = ID_OFFSET + 2 * maxIdLength;
+		this.recordSize = nameOffset + 2 * maxNameLength;
+		this.recordsPerChunk = Math.max(1, MAX_CHUNK_BYTES / recordSize);
+		int chunkCount = Math.max(1, (capacity + recordsPerChunk - 1) / recordsPerChunk);
+		chunks = new ByteBuffer[chunkCount];
+		for (int i = 0; i < chunkCount; i++) {
+			int records = Math.min(recordsPerChunk, capacity - i * recordsPerChunk);
+			chunks[i] = ByteBuffer.allocateDirect(Math.max(1, records) * recordSize);
+		}
+		// at most half full, so a lookup is almost always one probe
+		int slots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2;
+		index = ByteBuffer.allocateDirect(slots * 4);
+		indexMask = slots - 1;
+	}
+
+	/**
+	 * Builds the store from a flat file with one guest per line:
+	 * guestId,MEMBERSHIP_TYPE,name. The file is read twice, once to size the
+	 * records and once to fill them, so no guest is ever held on the heap.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static OffHeapGuestService load(File file) throws IOException {
+		int count = 0;
+		int maxIdLength = 0;
+		int maxNameLength = 0;
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty())
+					continue;
+				String[] fields = split(line);
+				count++;
+				maxIdLength = Math.max(maxIdLength, fields[0].length());
+				maxNameLength = Math.max(maxNameLength, fields[2].length());
+			}
+		}
+		OffHeapGuestService service = new OffHeapGuestService(count, maxIdLength, maxNameLength);
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty())
+					continue;
+				String[] fields = split(line);
+				service.add(fields[0], MembershipType.valueOf(fields[1]), fields[2]);
+			}
+		}
+		return service;
+	}
+
+	@Override
+	public Guest getGuest(String guestId) {
+		int record = find(guestId);
+		if (record < 0)
+			return null;
+		GuestView view = views.get();
+		view.moveTo(record);
+		return view;
+	}
+
+	/**
+	 * Unlike getGuest, every guest returned here is its own copy.
+	 */
+	@Override
+	public Map<String, Guest> getGuests(Collection<String> guestIds) {
+		Map<String, Guest> guests = new HashMap<>(guestIds.size() * 2);
+		for (String guestId : guestIds) {
+			int record = find(guestId);
+			if (record < 0)
+				continue;
+			Guest guest = new Guest();
+			guest.setGuestId(guestId);
+			guest.setMemType(memType(record));
+			guest.setName(name(record));
+			guests.put(guestId, guest);
+		}
+		return guests;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void add(String guestId, MembershipType memType, String name) {
+		if (guestId == null || memType == null)
+			throw new IllegalArgumentException("Guest id and membership type must not be null.");
+		int hash = hash(guestId);
+		int slot = hash & indexMask;
+		int record;
+		while ((record = index.getInt(slot * 4) - 1) >= 0) {
+			if (matches(record, hash, guestId))
+				break;
+			slot = (slot + 1) & indexMask;
+		}
+		if (record < 0) {
+			// a new guest, a repeated id just overwrites the old record
+			record = size++;
+			index.putInt(slot * 4, record + 1);
+		}
+		ByteBuffer chunk = chunk(record);
+		int offset = offset(record);
+		chunk.putInt(offset + HASH_OFFSET, hash);
+		chunk.put(offset + MEMTYPE_OFFSET, (byte) memType.ordinal());
+		putChars(chunk, offset + ID_OFFSET, offset + ID_LENGTH_OFFSET, guestId);
+		putChars(chunk, offset + nameOffset, offset + NAME_LENGTH_OFFSET, name == null ? "" : name);
+	}
+
+	/**
+	 * @return the record of the guest, -1 if unknown
+	 */
+	private int find(String guestId) {
+		if (guestId == null || guestId.length() > maxIdLength)
+			return -1;
+		int hash = hash(guestId);
+		int slot = hash & indexMask;
+		int record;
+		while ((record = index.getInt(slot * 4) - 1) >= 0) {
+			if (matches(record, hash, guestId))
+				return record;
+			slot = (slot + 1) & indexMask;
+		}
+		return -1;
+	}
+
+	private boolean matches(int record, int hash, String guestId) {
+		ByteBuffer chunk = chunk(record);
+		int offset = offset(record);
+		if (chunk.getInt(offset + HASH_OFFSET) != hash || chunk.getShort(offset + ID_LENGTH_OFFSET) != guestId.length())
+			return false;
+		for (int i = 0; i < guestId.length(); i++) {
+			if (chunk.getChar(offset + ID_OFFSET + 2 * i) != guestId.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private MembershipType memType(int record) {
+		return MEMBERSHIP_TYPES[chunk(record).get(offset(record) + MEMTYPE_OFFSET)];
+	}
+
+	private String guestId(int record) {
+		return getChars(chunk(record), offset(record) + ID_OFFSET, offset(record) + ID_LENGTH_OFFSET);
+	}
+
+	private String name(int record) {
+		return getChars(chunk(record), offset(record) + nameOffset, offset(record) + NAME_LENGTH_OFFSET);
+	}
+
+	private ByteBuffer chunk(int record) {
+		return chunks[record / recordsPerChunk];
+	}
+
+	private int offset(int record) {
+		return (record % recordsPerChunk) * recordSize;
+	}
+
+	private static void putChars(ByteBuffer chunk, int offset, int lengthOffset, String value) {
+		chunk.putShort(lengthOffset, (short) value.length());
+		for (int i = 0; i < value.length(); i++) {
+			chunk.putChar(offset + 2 * i, value.charAt(i));
+		}
+	}
+
+	private static String getChars(ByteBuffer chunk, int offset, int lengthOffset) {
+		char[] chars = new char[chunk.getShort(lengthOffset)];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = chunk.getChar(offset + 2 * i);
+		}
+		return new String(chars);
+	}
+
+	private static int hash(String guestId) {
+		int h = guestId.hashCode() * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	private static String[] split(String line) {
+		// the name may contain commas, the first two fields never do
+		String[] fields = line.split(",", 3);
+		if (fields.length < 2)
+			throw new IllegalArgumentException("Not a guest record: " + line);
+		if (fields.length == 2)
+			return new String[] { fields[0].trim(), fields[1].trim(), "" };
+		return new String[] { fields[0].trim(), fields[1].trim(), fields[2].trim() };
+	}
+
+	private static int maxIdLength(Map<String, Guest> cache) {
+		int max = 0;
+		for (String guestId : cache.keySet()) {
+			max = Math.max(max, guestId.length());
+		}
+		return max;
+	}
+
+	private static int maxNameLength(Map<String, Guest> cache) {
+		int max = 0;
+		for (Guest guest : cache.values()) {
+			if (guest.getName() != null)
+				max = Math.max(max, guest.getName().length());
+		}
+		return max;
+	}
+
+	/**
+	 * Read-only Guest backed by a record, moved from record to record instead
+	 * of allocating a Guest per lookup.
+	 */
+	private class GuestView extends Guest {
+		private int record;
+
+		void moveTo(int record) {
+			this.record = record;
+		}
+
+		@Override
+		public String getGuestId() {
+			return guestId(record);
+		}
+
+		@Override
+		public MembershipType getMemType() {
+			return memType(record);
+		}
+
+		@Override
+		public String getName() {
+			return name(record);
+		}
+
+		@Override
+		public void setGuestId(String guestId) {
+			throw new UnsupportedOperationException("Guests of the off-heap store are read-only.");
+		}
+
+		@Override
+		public void setMemType(MembershipType memType) {
+			throw new UnsupportedOperationException("Guests of the off-heap store are read-only.");
+		}
+
+		@Override
+		public void setName(String name) {
+			throw new UnsupportedOperationException("Guests of the off-heap store are read-only.");
+		}
+	}
+}
@@ -0,0 +1,378 @@
+package com.ram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Primary side of warm-standby replication. Give it to the primary
+ * DefaultBookingService as its journal, and it streams every state transition
+ * to the {@link BookingReplica}s connected to {@link #listen}, in journal
+ * order. Wrap a durable journal to keep one: the sequences are that journal's
+ * and awaitDurable still waits for its disk.
+ * <p>
+ * A replica that connects first gets a {@link BookingSnapshot} of the live
+ * state, then every transition after the snapshot's sequence, so replicas can
+ * join at any time. Each frame on the wire is
+ *
+ * <pre>
+ * int length, byte kind, long sequence, snapshot or transition
+ * </pre>
+ *
+ * where the length counts everything after itself.
+ * <p>
+ * The booking path never waits for a replica: append encodes the transition
+ * once and offers it to each replica's queue, a sender thread per replica
+ * writes the queue to its socket in batches and parks while there is nothing
+ * to send. Replication is asynchronous, a
+ * replica is a few milliseconds behind. One that falls more than the capacity
+ * behind is disconnected, rather than holding the primary's memory; connect a
+ * fresh replica to start over from a new snapshot.
+ *
+ * @author Ram
+ *
+ */
+public class ReplicationPublisher implements BookingJournal, Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(ReplicationPublisher.class);
+
+	static final byte SNAPSHOT_FRAME = 1;
+	static final byte TRANSITION_FRAME = 2;
+	// length, kind, sequence
+	static final int FRAME_HEADER = 4 + 1 + 8;
+	private static final int BATCH_BYTES = 64 * 1024;
+
+	// null if nothing is kept on disk
+	private final BookingJournal journal;
+	private final int capacity;
+
+	private final ReentrantLock appendLock = new ReentrantLock();
+	private ByteBuffer scratch = ByteBuffer.allocate(256);
+	private volatile long lastSequence;
+	private final CopyOnWriteArrayList<Sender> senders = new CopyOnWriteArrayList<>();
+
+	// guards listening and closing the server socket
+	private final ReentrantLock serverLock = new ReentrantLock();
+	private DefaultBookingService service;
+	private ServerSocketChannel server;
+	private Thread acceptor;
+	private volatile boolean running = true;
+
+	/**
+	 * @param capacity
+	 *            transitions a replica may be behind before it is dropped
+	 */
+	public ReplicationPublisher(int capacity) {
+		this(null, capacity);
+	}
+
+	/**
+	 * @param journal
+	 *            durable journal to write through to, may be null
+	 * @param capacity
+	 *            transitions a replica may be behind before it is dropped
+	 */
+	public ReplicationPublisher(BookingJournal journal, int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive.");
+		this.journal = journal;
+		this.capacity = capacity;
+		if (journal != null)
+			lastSequence = journal.lastSequence();
+	}
+
+	/**
+	 * Accepts replicas on the given address until closed.
+	 *
+	 * @param service
+	 *            the service this publisher is the journal of, for the
+	 *            snapshots of joining replicas
+	 * @param address
+	 *            port 0 picks a free one
+	 * @return the port listened on
+	 * @throws IOException
+	 */
+	public int listen(DefaultBookingService service, InetSocketAddress address) throws IOException {
+		if (service == null)
+			throw new IllegalArgumentException("Booking service must not be null.");
+		serverLock.lock();
+		try {
+			if (server != null)
+				throw new IllegalStateException("Already listening on " + server.getLocalAddress());
+			this.service = service;
+			server = ServerSocketChannel.open();
+			server.bind(address);
+			acceptor = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					acceptLoop();
+				}
+			}, "booking-replication-acceptor");
+			acceptor.setDaemon(true);
+			acceptor.start();
+			int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+			logger.info("Publishing booking transitions to replicas on port {}", port);
+			return port;
+		} finally {
+			serverLock.unlock();
+		}
+	}
+
+	@Override
+	public long append(BookingTransition transition) {
+		appendLock.lock();
+		try {
+			long sequence = journal != null ? journal.append(transition) : lastSequence + 1;
+			lastSequence = sequence;
+			if (!senders.isEmpty()) {
+				// encoded once, whatever the number of replicas
+				byte[] frame = encode(sequence, transition);
+				for (Sender sender : senders) {
+					sender.offer(sequence, frame);
+				}
+			}
+			return sequence;
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	@Override
+	public void awaitDurable(long sequence) {
+		if (journal != null)
+			journal.awaitDurable(sequence);
+	}
+
+	@Override
+	public long lastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * @return replicas connected right now
+	 */
+	public int getReplicas() {
+		return senders.size();
+	}
+
+	/**
+	 * Stops accepting replicas, sends what is queued to the connected ones and
+	 * disconnects them. The wrapped journal is left open.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		Thread acceptor;
+		serverLock.lock();
+		try {
+			if (server != null)
+				server.close();
+			acceptor = this.acceptor;
+		} finally {
+			serverLock.unlock();
+		}
+		join(acceptor);
+		for (Sender sender : senders) {
+			LockSupport.unpark(sender.thread);
+			join(sender.thread);
+			// a replica that stopped reading leaves the sender stuck in a write
+			sender.channel.close();
+		}
+	}
+
+	private static void join(Thread thread) {
+		if (thread == null)
+			return;
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private byte[] encode(long sequence, BookingTransition transition) {
+		int size = FRAME_HEADER + transition.maxEncodedSize();
+		if (scratch.capacity() < size)
+			scratch = ByteBuffer.allocate(Math.max(size, scratch.capacity() * 2));
+		scratch.clear();
+		scratch.position(4);
+		scratch.put(TRANSITION_FRAME).putLong(sequence);
+		transition.writeTo(scratch);
+		scratch.putInt(0, scratch.position() - 4);
+		return Arrays.copyOf(scratch.array(), scratch.position());
+	}
+
+	private void acceptLoop() {
+		while (running) {
+			SocketChannel channel;
+			try {
+				channel = server.accept();
+			} catch (IOException e) {
+				if (running)
+					logger.error("Could not accept a replica", e);
+				return;
+			}
+			try {
+				new Sender(channel).thread.start();
+			} catch (IOException e) {
+				// that replica is gone already, the next one may be fine
+				logger.warn("Could not set up a replica", e);
+				try {
+					channel.close();
+				} catch (IOException closing) {
+					logger.warn("Could not close the replica's connection", closing);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Streams to one replica.
+	 */
+	private final class Sender implements Runnable {
+		private final SocketChannel channel;
+		private final Thread thread;
+		private final ConcurrentLinkedQueue<Frame> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger queued = new AtomicInteger();
+		private volatile boolean overflowed;
+		// the sender is about to park, whoever queues a frame unparks it
+		private volatile boolean idle;
+
+		Sender(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			this.thread = new Thread(this, "booking-replication-" + channel.getRemoteAddress());
+			thread.setDaemon(true);
+		}
+
+		/**
+		 * On the booking path, never blocks.
+		 */
+		void offer(long sequence, byte[] frame) {
+			if (overflowed)
+				return;
+			if (queued.incrementAndGet() > capacity) {
+				overflowed = true;
+			} else {
+				queue.offer(new Frame(sequence, frame));
+			}
+			if (idle)
+				LockSupport.unpark(thread);
+		}
+
+		@Override
+		public void run() {
+			try {
+				// registered before the capture, so every transition after
+				// the snapshot's sequence ends up in the queue
+				appendLock.lock();
+				try {
+					senders.add(this);
+				} finally {
+					appendLock.unlock();
+				}
+				BookingSnapshot snapshot = service.captureSnapshot();
+				sendSnapshot(snapshot);
+				logger.info("Replica {} joined at sequence {}", channel.getRemoteAddress(), snapshot.getSequence());
+				stream(snapshot.getSequence());
+			} catch (IOException e) {
+				if (running)
+					logger.warn("Replica disconnected", e);
+			} finally {
+				senders.remove(this);
+				try {
+					channel.close();
+				} catch (IOException e) {
+					logger.warn("Could not close the replica's connection", e);
+				}
+			}
+		}
+
+		private void sendSnapshot(BookingSnapshot snapshot) throws IOException {
+			ByteBuffer[] columns = snapshot.encode();
+			ByteBuffer[] frame = new ByteBuffer[columns.length + 1];
+			long length = FRAME_HEADER - 4;
+			for (int i = 0; i < columns.length; i++) {
+				length += columns[i].remaining();
+				frame[i + 1] = columns[i];
+			}
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("Snapshot of " + snapshot.size() + " rows is too large to stream");
+			frame[0] = ByteBuffer.allocate(FRAME_HEADER);
+			frame[0].putInt((int) length).put(SNAPSHOT_FRAME).putLong(snapshot.getSequence()).flip();
+			BookingSnapshot.writeFully(channel, frame);
+		}
+
+		/**
+		 * Writes the queue in batches until the publisher is closed.
+		 *
+		 * @param after
+		 *            sequence the snapshot is at, earlier transitions are in
+		 *            it already
+		 */
+		private void stream(long after) throws IOException {
+			ByteBuffer batch = ByteBuffer.allocate(BATCH_BYTES);
+			while (true) {
+				// read the flag first, so the last drain sees everything
+				// queued before close
+				boolean stopping = !running;
+				if (overflowed)
+					throw new IOException("Replica fell more than " + capacity + " transitions behind");
+				Frame frame;
+				while ((frame = queue.peek()) != null) {
+					if (frame.sequence > after) {
+						if (frame.bytes.length > batch.remaining() && batch.position() > 0)
+							break;
+						if (frame.bytes.length > batch.capacity())
+							write(ByteBuffer.wrap(frame.bytes));
+						else
+							batch.put(frame.bytes);
+					}
+					queue.poll();
+					queued.decrementAndGet();
+				}
+				if (batch.position() > 0) {
+					batch.flip();
+					write(batch);
+					batch.clear();
+					continue;
+				}
+				if (stopping)
+					return;
+				// announce the park before the last look at the queue, a frame
+				// offered after that look sees the flag and unparks us
+				idle = true;
+				if (queue.isEmpty() && running && !overflowed)
+					LockSupport.park(this);
+				idle = false;
+			}
+		}
+
+		private void write(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	private static final class Frame {
+		final long sequence;
+		final byte[] bytes;
+
+		Frame(long sequence, byte[] bytes) {
+			this.sequence = sequence;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.ram;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executors for front-desk/kiosk requests: every check-in or check-out gets
+ * its own thread, so nobody has to size a pool by hand. That needs virtual
+ * threads, JDK 21+, and then 100k concurrent sessions are cheap. The build
+ * targets 17, so they are looked up reflectively. On older JDKs a thread per
+ * session would be an OS thread per session, so we fall back to a bounded
+ * pool of platform threads instead and the requests beyond it queue.
+ * <p>
+ * Virtual threads are only any good if they don't get pinned, which is why
+ * the booking service, the journal and the caches use java.util.concurrent
+ * locks and never synchronized blocks while they may block.
+ *
+ * @author Ram
+ *
+ */
+public final class RequestExecutors {
+	private static final Logger logger = LoggerFactory.getLogger(RequestExecutors.class);
+	private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadPerTaskExecutor();
+	/**
+	 * Platform threads of the fallback pool, unless told otherwise.
+	 */
+	public static final int DEFAULT_MAX_PLATFORM_THREADS = 256;
+
+	private RequestExecutors() {
+	}
+
+	/**
+	 * @return true when {@link #newPerRequestExecutor()} hands out virtual
+	 *         threads
+	 */
+	public static boolean isVirtual() {
+		return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+	}
+
+	/**
+	 * @return an executor that starts a new thread for every task, shut it
+	 *         down when done. Before JDK 21 at most
+	 *         {@link #DEFAULT_MAX_PLATFORM_THREADS} run at once.
+	 */
+	public static ExecutorService newPerRequestExecutor() {
+		return newPerRequestExecutor(DEFAULT_MAX_PLATFORM_THREADS);
+	}
+
+	/**
+	 * @param maxPlatformThreads
+	 *            without virtual threads, the tasks run on a pool of at most
+	 *            this many platform threads and the rest wait for one
+	 * @return an executor that starts a new thread for every task, shut it
+	 *         down when done
+	 */
+	public static ExecutorService newPerRequestExecutor(int maxPlatformThreads) {
+		if (maxPlatformThreads <= 0)
+			throw new IllegalArgumentException("Max platform threads must be positive.");
+		if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+			try {
+				return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				logger.warn("Could not create a virtual thread executor, using platform threads", e);
+			}
+		}
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(maxPlatformThreads, maxPlatformThreads, 60,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+		// idle threads go, like in a cached pool
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	private static Method findVirtualThreadPerTaskExecutor() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
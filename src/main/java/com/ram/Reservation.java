@@ -0,0 +1,60 @@
+package com.ram;
+
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A room reserved ahead of time for the nights [from, to).
+ *
+ * @author Ram
+ *
+ */
+public final class Reservation {
+	private static final AtomicInteger reservationCounter = new AtomicInteger();
+
+	private final int reservationId;
+	private final String guestId;
+	private final String roomNo;
+	private final LocalDate from;
+	private final LocalDate to;
+
+	Reservation(String guestId, String roomNo, LocalDate from, LocalDate to) {
+		this.reservationId = reservationCounter.incrementAndGet();
+		this.guestId = guestId;
+		this.roomNo = roomNo;
+		this.from = from;
+		this.to = to;
+	}
+
+	public int getReservationId() {
+		return reservationId;
+	}
+
+	public String getGuestId() {
+		return guestId;
+	}
+
+	public String getRoomNo() {
+		return roomNo;
+	}
+
+	/**
+	 * @return the day of arrival
+	 */
+	public LocalDate getFrom() {
+		return from;
+	}
+
+	/**
+	 * @return the day of departure
+	 */
+	public LocalDate getTo() {
+		return to;
+	}
+
+	@Override
+	public String toString() {
+		return "Reservation [reservationId=" + reservationId + ", guestId=" + guestId + ", roomNo=" + roomNo
+				+ ", from=" + from + ", to=" + to + "]";
+	}
+}
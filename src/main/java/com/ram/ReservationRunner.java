@@ -1,11 +1,11 @@
 package com.ram;
 
-import java.util.Collection;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,97 +14,197 @@ import com.ram.Guest.MembershipType;
 import com.ram.Room.RoomType;
 
 /**
- * This simulates a concurrent scenario of check-in and check-out. It doesn't
- * certainly cover all the scenarios, but certainly gives an idea of how the
- * program is accurate from concurrency point of view. Due to lack of time, I am
- * not implementing more scenarios at this time.
- * 
+ * Runs a workload against the booking service with {@link WorkloadSimulator}
+ * and prints the {@link SimulationReport}. By default a week of Poisson
+ * arrivals in simulated time, on virtual threads when the JDK has them. They
+ * need JDK 21, on 17 the sessions run on as many platform threads, so keep
+ * --sessions to a few hundred there.
+ *
+ * <pre>
+ * --rooms 50            rooms, 60% standard, 20% gold, 20% platinum, 20 a floor
+ * --room-selection LEAST_RECENTLY_USED|FLOOR_CLUSTERED|CLEANED_FIRST
+ * --guests 100          guests, 50% standard, 30% gold, 20% platinum
+ * --days 7              length of the generated trace
+ * --arrivals 2          arrivals per hour
+ * --stay 24             mean stay in hours
+ * --max-wait 240        minutes of waiting before a guest gets priority
+ * --conference 0        guests of a conference arriving in the middle of it
+ * --seed 1
+ * --replay FILE         replay a recorded trace instead of generating one
+ * --record FILE         save the trace
+ * --sessions 64         requests in flight
+ * --platform            a pool of platform threads instead of virtual threads
+ * --real-time SPEEDUP   send the events at their time, sped up
+ * --tick 60             minutes per tick in simulated time
+ * </pre>
+ *
  * @author Ram
- * 
+ *
  */
 public class ReservationRunner {
 	private static final Logger logger = LoggerFactory.getLogger(ReservationRunner.class);
-	private RoomMembershipTypesConverter converter = new PriorityBasedRoomMembershipTypesConverter();
-	private DefaultBookingService bookingService;
-	private CountDownLatch latch;
-	private DefaultRoomService roomService;
-	private DefaultGuestService guestService;
 
-	public ReservationRunner() {
-		roomService = new DefaultRoomService(getDefaultRoomsCache());
-		guestService = new DefaultGuestService(getDefaultGuestCache());
-		bookingService = new DefaultBookingService(20, guestService, roomService, converter);
-	}
+	private int rooms = 50;
+	private RoomSelection roomSelection = RoomSelection.LEAST_RECENTLY_USED;
+	private int guests = 100;
+	private int days = 7;
+	private double arrivalsPerHour = 2;
+	private double stayHours = 24;
+	private long maxWaitMinutes = 240;
+	private int conference = 0;
+	private long seed = 1;
+	private File replay;
+	private File record;
+	private int sessions = 64;
+	private boolean virtualThreads = true;
+	private double realTimeSpeedup = 0;
+	private long tickMinutes = 60;
 
 	public static void main(String[] args) throws Exception {
 		ReservationRunner runner = new ReservationRunner();
-		runner.runPossibleConcurrentScenario();
+		runner.parse(args);
+		runner.run();
 	}
 
-	private void runPossibleConcurrentScenario() throws Exception {
-		ExecutorService executor = Executors.newFixedThreadPool(10);
-		latch = new CountDownLatch(50);
-		for (int i = 1; i <= 50; i++) {
-			// check in 50 standard membership users, there are only 30 rooms,
-			// so finally there should be 20 in waiting list
-			executor.submit(new CheckInRunnable("G" + i));
-		}
-		// keeping it simple, with no timed waiting
-		latch.await();
-		Collection<Booking> waitingList = bookingService.getWaitingList();
-		logger.info("WaitingList size: {}", waitingList.size());
-		logger.info("Occupancy ratio: {}", bookingService.getOccupancyRatio());
-
-		// now checkout simultaneously many guests
-		latch = new CountDownLatch(20);
-		for (int i = 1; i <= 20; i++) {
-			executor.submit(new CheckOutRunnable("R" + i));
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if ("--platform".equals(option)) {
+				virtualThreads = false;
+				continue;
+			}
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException("Missing value of " + option);
+			String value = args[++i];
+			switch (option) {
+			case "--rooms":
+				rooms = Integer.parseInt(value);
+				break;
+			case "--room-selection":
+				roomSelection = RoomSelection.valueOf(value);
+				break;
+			case "--guests":
+				guests = Integer.parseInt(value);
+				break;
+			case "--days":
+				days = Integer.parseInt(value);
+				break;
+			case "--arrivals":
+				arrivalsPerHour = Double.parseDouble(value);
+				break;
+			case "--stay":
+				stayHours = Double.parseDouble(value);
+				break;
+			case "--max-wait":
+				maxWaitMinutes = Long.parseLong(value);
+				break;
+			case "--conference":
+				conference = Integer.parseInt(value);
+				break;
+			case "--seed":
+				seed = Long.parseLong(value);
+				break;
+			case "--replay":
+				replay = new File(value);
+				break;
+			case "--record":
+				record = new File(value);
+				break;
+			case "--sessions":
+				sessions = Integer.parseInt(value);
+				break;
+			case "--real-time":
+				realTimeSpeedup = Double.parseDouble(value);
+				break;
+			case "--tick":
+				tickMinutes = Long.parseLong(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + option);
+			}
 		}
-		// keeping it simple, with no timed waiting
-		latch.await();
-		logger.info("WaitingList size: {}", waitingList.size());
-		logger.info("Occupancy ratio: {}", bookingService.getOccupancyRatio());
-		System.exit(0);
 	}
 
-	private class CheckInRunnable implements Runnable {
-		private String guestId;
-
-		public CheckInRunnable(String guestId) {
-			this.guestId = guestId;
+	private void run() throws Exception {
+		Map<String, Guest> guestCache = getDefaultGuestCache(guests);
+		WorkloadTrace trace = replay != null ? WorkloadTrace.read(replay) : generateTrace(guestCache);
+		if (record != null)
+			trace.write(record);
+		addUnknownGuests(trace, guestCache);
+		logger.info("{} events over {} hours, {} sessions on {} threads", trace.size(),
+				TimeUnit.MILLISECONDS.toHours(trace.getDuration()), sessions, virtualThreads
+						&& RequestExecutors.isVirtual() ? "virtual" : "platform");
+		if (virtualThreads && !RequestExecutors.isVirtual())
+			logger.warn("Virtual threads need JDK 21, this is {}: every session takes a platform thread",
+					Runtime.version().feature());
+
+		// in simulated time the service runs on the trace's clock, in real
+		// time the waits are sped up like the trace. The service takes the
+		// max waiting time in seconds.
+		BookingClock clock;
+		long maxWaitSeconds = TimeUnit.MINUTES.toSeconds(maxWaitMinutes);
+		if (realTimeSpeedup > 0) {
+			clock = new SystemBookingClock();
+			maxWaitSeconds = Math.max(1, (long) (maxWaitSeconds / realTimeSpeedup));
+		} else {
+			clock = new VirtualBookingClock(System.currentTimeMillis());
 		}
-
-		@Override
-		public void run() {
-			bookingService.checkIn(guestId);
-			latch.countDown();
+		RoomService roomService = new DefaultRoomService(getDefaultRoomsCache(rooms), roomSelection);
+		DefaultBookingService bookingService = new DefaultBookingService((int) maxWaitSeconds,
+				new DefaultGuestService(guestCache), roomService, new PriorityBasedRoomMembershipTypesConverter(), clock);
+		try {
+			WorkloadSimulator simulator = new WorkloadSimulator(bookingService, sessions, virtualThreads,
+					clock instanceof VirtualBookingClock ? (VirtualBookingClock) clock : null);
+			SimulationReport report = realTimeSpeedup > 0 ? simulator.runRealTime(trace, realTimeSpeedup)
+					: simulator.runSimulated(trace, TimeUnit.MINUTES.toMillis(tickMinutes));
+			logger.info("Simulation done\n{}", report);
+			logger.info("WaitingList size: {}", bookingService.getWaitingList().size());
+			logger.info("Occupancy ratio: {}", bookingService.getOccupancyRatio());
+			logger.info("Promotions: {}", bookingService.getMetrics().getPromotions());
+		} finally {
+			bookingService.shutdown();
 		}
-
 	}
 
-	private class CheckOutRunnable implements Runnable {
-		private String roomNo;
-
-		private CheckOutRunnable(String roomNo) {
-			this.roomNo = roomNo;
+	private WorkloadTrace generateTrace(Map<String, Guest> guestCache) {
+		List<String> guestIds = new ArrayList<>(guestCache.keySet());
+		// the conference guests come on top of the others
+		List<String> attendees = new ArrayList<>();
+		for (int i = 1; i <= conference; i++) {
+			attendees.add("C" + i);
 		}
+		long duration = TimeUnit.DAYS.toMillis(days);
+		WorkloadTrace trace = WorkloadTrace.poisson(seed, guestIds, arrivalsPerHour,
+				(long) (stayHours * TimeUnit.HOURS.toMillis(1)), duration);
+		if (conference > 0)
+			trace = trace.withConference(seed, attendees, duration / 2, TimeUnit.HOURS.toMillis(4),
+					TimeUnit.DAYS.toMillis(2));
+		return trace;
+	}
 
-		@Override
-		public void run() {
-			bookingService.checkOut(roomNo);
-			latch.countDown();
+	/**
+	 * Guests of a replayed log or of a conference are standard members.
+	 */
+	private static void addUnknownGuests(WorkloadTrace trace, Map<String, Guest> guestCache) {
+		for (WorkloadTrace.Event event : trace.getEvents()) {
+			if (!guestCache.containsKey(event.getGuestId())) {
+				Guest guest = new Guest();
+				guest.setGuestId(event.getGuestId());
+				guest.setMemType(MembershipType.STANDARD);
+				guestCache.put(guest.getGuestId(), guest);
+			}
 		}
-
 	}
 
-	private Map<String, Room> getDefaultRoomsCache() {
-		Map<String, Room> roomCache = new LinkedHashMap<>(100);
-		for (int i = 1; i <= 50; i++) {
+	static Map<String, Room> getDefaultRoomsCache(int rooms) {
+		Map<String, Room> roomCache = new LinkedHashMap<>(rooms * 2);
+		for (int i = 1; i <= rooms; i++) {
 			Room room = new Room();
 			room.setRoomNo("R" + i);
-			if (i <= 30)
+			room.setFloor((i - 1) / 20 + 1);
+			if (i <= rooms * 6 / 10)
 				room.setType(RoomType.STANDARD);
-			else if (i <= 40)
+			else if (i <= rooms * 8 / 10)
 				room.setType(RoomType.GOLD);
 			else
 				room.setType(RoomType.PLATINUM);
@@ -113,14 +213,14 @@ public class ReservationRunner {
 		return roomCache;
 	}
 
-	private Map<String, Guest> getDefaultGuestCache() {
-		Map<String, Guest> guestCache = new LinkedHashMap<>();
-		for (int i = 1; i <= 100; i++) {
+	static Map<String, Guest> getDefaultGuestCache(int guests) {
+		Map<String, Guest> guestCache = new LinkedHashMap<>(guests * 2);
+		for (int i = 1; i <= guests; i++) {
 			Guest guest = new Guest();
 			guest.setGuestId("G" + i);
-			if (i <= 50)
+			if (i <= guests / 2)
 				guest.setMemType(MembershipType.STANDARD);
-			else if (i <= 80)
+			else if (i <= guests * 8 / 10)
 				guest.setMemType(MembershipType.GOLD);
 			else
 				guest.setMemType(MembershipType.PLATINUM);
@@ -7,6 +7,8 @@ public class Room {
 
 	private String roomNo;
 	private RoomType type;
+	// or wing, rooms with the same number are close together
+	private int floor;
 	private boolean booked;
 
 	public String getRoomNo() {
@@ -25,6 +27,14 @@ public class Room {
 		this.type = type;
 	}
 
+	public int getFloor() {
+		return floor;
+	}
+
+	public void setFloor(int floor) {
+		this.floor = floor;
+	}
+
 	public boolean isBooked() {
 		return booked;
 	}
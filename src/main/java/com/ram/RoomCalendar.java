@@ -0,0 +1,264 @@
+package com.ram;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ram.Room.RoomType;
+
+/**
+ * Availability of every room for the nights of a rolling window of days (say
+ * the next 365), for reservations ahead of time. Per room type there is one
+ * bitmap per night, bit = room of that type, set = reserved.
+ * <p>
+ * The bitmaps are stored word-major: the words of one group of 64 rooms for
+ * all the nights are next to each other. Finding a free room from A to B ORs
+ * the nights of the first group of rooms (sequential memory), and moves on to
+ * the next group only if all 64 rooms are taken on some night. Even with
+ * 100k rooms and a full year that is a few thousand long ORs on a busy
+ * calendar, and usually far fewer.
+ * <p>
+ * Nights are [from, to): a stay from the 1st to the 3rd needs the nights of
+ * the 1st and the 2nd. Not thread-safe, see {@link AdvanceReservations}.
+ *
+ * @author Ram
+ *
+ */
+public class RoomCalendar {
+	private final int days;
+	private LocalDate firstDay;
+	private final Map<RoomType, TypeCalendar> calendars = new EnumMap<>(RoomType.class);
+	private final Map<String, RoomSlot> roomSlots = new HashMap<>();
+
+	/**
+	 * @param firstDay
+	 *            first night that can be reserved
+	 * @param days
+	 *            number of nights that can be reserved ahead
+	 * @param rooms
+	 *            every room of the hotel
+	 */
+	public RoomCalendar(LocalDate firstDay, int days, Collection<Room> rooms) {
+		if (firstDay == null || rooms == null)
+			throw new IllegalArgumentException("First day and rooms must not be null.");
+		if (days <= 0)
+			throw new IllegalArgumentException("Days must be positive.");
+		this.firstDay = firstDay;
+		this.days = days;
+		Map<RoomType, List<String>> roomNos = new EnumMap<>(RoomType.class);
+		for (Room room : rooms) {
+			List<String> ofType = roomNos.get(room.getType());
+			if (ofType == null) {
+				ofType = new ArrayList<>();
+				roomNos.put(room.getType(), ofType);
+			}
+			roomSlots.put(room.getRoomNo(), new RoomSlot(room.getType(), ofType.size()));
+			ofType.add(room.getRoomNo());
+		}
+		for (Map.Entry<RoomType, List<String>> entry : roomNos.entrySet()) {
+			calendars.put(entry.getKey(), new TypeCalendar(entry.getValue()));
+		}
+	}
+
+	public LocalDate getFirstDay() {
+		return firstDay;
+	}
+
+	/**
+	 * @return first day after the window
+	 */
+	public LocalDate getEndDay() {
+		return firstDay.plusDays(days);
+	}
+
+	/**
+	 * @return a room of the type that is free for all the nights, null if
+	 *         there is none
+	 */
+	public String findFreeRoom(RoomType roomType, LocalDate from, LocalDate to) {
+		int nights = checkRange(from, to);
+		TypeCalendar calendar = calendars.get(roomType);
+		if (calendar == null)
+			return null;
+		int room = calendar.findFree(slot(from), nights);
+		return room < 0 ? null : calendar.roomNos[room];
+	}
+
+	public boolean isFree(String roomNo, LocalDate from, LocalDate to) {
+		int nights = checkRange(from, to);
+		RoomSlot roomSlot = roomSlot(roomNo);
+		return calendars.get(roomSlot.roomType).isFree(roomSlot.index, slot(from), nights);
+	}
+
+	/**
+	 * Marks the room reserved for the nights.
+	 *
+	 * @return false if it was already reserved for any of them, nothing is
+	 *         changed then
+	 */
+	public boolean reserve(String roomNo, LocalDate from, LocalDate to) {
+		int nights = checkRange(from, to);
+		RoomSlot roomSlot = roomSlot(roomNo);
+		TypeCalendar calendar = calendars.get(roomSlot.roomType);
+		if (!calendar.isFree(roomSlot.index, slot(from), nights))
+			return false;
+		calendar.set(roomSlot.index, slot(from), nights, true);
+		return true;
+	}
+
+	/**
+	 * Finds a free room of the type and reserves it.
+	 *
+	 * @return the room, null if there is none
+	 */
+	public String reserve(RoomType roomType, LocalDate from, LocalDate to) {
+		String roomNo = findFreeRoom(roomType, from, to);
+		if (roomNo != null)
+			reserve(roomNo, from, to);
+		return roomNo;
+	}
+
+	/**
+	 * Frees the nights of the room that are still in the window.
+	 */
+	public void cancel(String roomNo, LocalDate from, LocalDate to) {
+		if (to.isAfter(getEndDay()))
+			to = getEndDay();
+		if (from.isBefore(firstDay))
+			from = firstDay;
+		if (!from.isBefore(to))
+			return;
+		int nights = checkRange(from, to);
+		RoomSlot roomSlot = roomSlot(roomNo);
+		calendars.get(roomSlot.roomType).set(roomSlot.index, slot(from), nights, false);
+	}
+
+	/**
+	 * Moves the window forward, the nights before the new first day are
+	 * forgotten and as many new, free nights come in at the end.
+	 */
+	public void advanceTo(LocalDate newFirstDay) {
+		long shift = newFirstDay.toEpochDay() - firstDay.toEpochDay();
+		if (shift < 0)
+			throw new IllegalArgumentException("The calendar can't go back in time: " + newFirstDay);
+		int cleared = (int) Math.min(shift, days);
+		int firstSlot = slot(firstDay);
+		for (TypeCalendar calendar : calendars.values()) {
+			calendar.clear(firstSlot, cleared);
+		}
+		firstDay = newFirstDay;
+	}
+
+	private int checkRange(LocalDate from, LocalDate to) {
+		if (from == null || to == null)
+			throw new IllegalArgumentException("Dates must not be null.");
+		if (!from.isBefore(to))
+			throw new IllegalArgumentException("Stay must end after it starts: " + from + " - " + to);
+		if (from.isBefore(firstDay) || to.isAfter(getEndDay()))
+			throw new IllegalArgumentException("Stay " + from + " - " + to + " is outside " + firstDay + " - "
+					+ getEndDay());
+		return (int) (to.toEpochDay() - from.toEpochDay());
+	}
+
+	// the night of epoch day d is in slot d % days, so moving the window
+	// forward only clears slots
+	private int slot(LocalDate day) {
+		return (int) Math.floorMod(day.toEpochDay(), (long) days);
+	}
+
+	private RoomSlot roomSlot(String roomNo) {
+		RoomSlot roomSlot = roomSlots.get(roomNo);
+		if (roomSlot == null)
+			throw new IllegalArgumentException("Unknown room: " + roomNo);
+		return roomSlot;
+	}
+
+	private static final class RoomSlot {
+		final RoomType roomType;
+		final int index;
+
+		RoomSlot(RoomType roomType, int index) {
+			this.roomType = roomType;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * The bitmaps of the rooms of one type.
+	 */
+	private final class TypeCalendar {
+		private final String[] roomNos;
+		// word w of night slot s is at w * days + s
+		private final long[] reserved;
+		// bits past the last room of the last word, always taken
+		private final long lastWordPadding;
+
+		TypeCalendar(List<String> roomNos) {
+			this.roomNos = roomNos.toArray(new String[roomNos.size()]);
+			int words = (this.roomNos.length + 63) >>> 6;
+			this.reserved = new long[words * days];
+			int usedBits = this.roomNos.length & 63;
+			this.lastWordPadding = usedBits == 0 ? 0 : -1L << usedBits;
+		}
+
+		int findFree(int fromSlot, int nights) {
+			int words = reserved.length / days;
+			for (int word = 0; word < words; word++) {
+				long taken = word == words - 1 ? lastWordPadding : 0;
+				int base = word * days;
+				int slot = fromSlot;
+				for (int night = 0; night < nights && taken != -1L; night++) {
+					taken |= reserved[base + slot];
+					if (++slot == days)
+						slot = 0;
+				}
+				if (taken != -1L)
+					return (word << 6) + Long.numberOfTrailingZeros(~taken);
+			}
+			return -1;
+		}
+
+		boolean isFree(int room, int fromSlot, int nights) {
+			int base = (room >>> 6) * days;
+			long bit = 1L << room;
+			int slot = fromSlot;
+			for (int night = 0; night < nights; night++) {
+				if ((reserved[base + slot] & bit) != 0)
+					return false;
+				if (++slot == days)
+					slot = 0;
+			}
+			return true;
+		}
+
+		void set(int room, int fromSlot, int nights, boolean taken) {
+			int base = (room >>> 6) * days;
+			long bit = 1L << room;
+			int slot = fromSlot;
+			for (int night = 0; night < nights; night++) {
+				if (taken)
+					reserved[base + slot] |= bit;
+				else
+					reserved[base + slot] &= ~bit;
+				if (++slot == days)
+					slot = 0;
+			}
+		}
+
+		void clear(int fromSlot, int nights) {
+			int words = reserved.length / days;
+			for (int word = 0; word < words; word++) {
+				int slot = fromSlot;
+				for (int night = 0; night < nights; night++) {
+					reserved[word * days + slot] = 0;
+					if (++slot == days)
+						slot = 0;
+				}
+			}
+		}
+	}
+}
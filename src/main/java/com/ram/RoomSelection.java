@@ -0,0 +1,53 @@
+package com.ram;
+
+/**
+ * How {@link DefaultRoomService} picks the free room to hand out, per room
+ * type. Each strategy keeps its own index of the free rooms, so picking,
+ * freeing and reserving a given room stay O(1) however big the hotel.
+ *
+ * @author Ram
+ *
+ */
+public enum RoomSelection {
+	/**
+	 * The room that has been free the longest, so the wear spreads over all
+	 * rooms. What the service always did, and the default.
+	 */
+	LEAST_RECENTLY_USED {
+		@Override
+		FreeRooms newFreeRooms(Room[] rooms) {
+			return new FreeRooms.LeastRecentlyUsed(rooms.length);
+		}
+	},
+	/**
+	 * Keeps filling one floor ({@link Room#getFloor()}) while it has free
+	 * rooms, then moves on to the floor with the most free rooms. A group
+	 * checking in one after the other ends up together, and housekeeping has
+	 * fewer floors to walk. Within a floor, least recently used first.
+	 */
+	FLOOR_CLUSTERED {
+		@Override
+		FreeRooms newFreeRooms(Room[] rooms) {
+			return new FreeRooms.FloorClustered(rooms);
+		}
+	},
+	/**
+	 * Rooms housekeeping is done with first (see
+	 * {@link DefaultBookingService#roomCleaned(String)}), the rooms still
+	 * waiting for it only when there is no clean one, the one checked out the
+	 * longest ago first. Every room is clean at the start.
+	 */
+	CLEANED_FIRST {
+		@Override
+		FreeRooms newFreeRooms(Room[] rooms) {
+			return new FreeRooms.CleanedFirst(rooms.length);
+		}
+	};
+
+	/**
+	 * @param rooms
+	 *            the rooms of one type, the index in the array is the one the
+	 *            pool uses, all free
+	 */
+	abstract FreeRooms newFreeRooms(Room[] rooms);
+}
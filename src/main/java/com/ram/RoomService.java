@@ -7,8 +7,33 @@ public interface RoomService {
 
 	Room reserveRoom(RoomType roomType);
 
+	/**
+	 * Reserves this particular room, used when booking state is restored and
+	 * when a guest with an advance reservation checks in to the room reserved
+	 * for them. Room services that support neither don't have to implement
+	 * it.
+	 * 
+	 * @param roomNo
+	 * @return the room, null if it is unknown or not free
+	 * @throws UnsupportedOperationException
+	 *             if the room service can't reserve a particular room
+	 */
+	default Room reserveRoom(String roomNo) {
+		throw new UnsupportedOperationException("Reserving a particular room is not supported.");
+	}
+
 	void freeUpRoom(String roomNo);
 
+	/**
+	 * Housekeeping is done with this room. Called with the same locking as
+	 * freeUpRoom. Ignored unless the room service picks rooms by how clean
+	 * they are.
+	 * 
+	 * @param roomNo
+	 */
+	default void roomCleaned(String roomNo) {
+	}
+
 	boolean isRoomAvailable(RoomType roomType);
 
 	int getTotalRooms();
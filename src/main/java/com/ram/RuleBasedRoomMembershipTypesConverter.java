@@ -0,0 +1,122 @@
+package com.ram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * Upgrade rules loaded from configuration instead of hard-coded, so any
+ * many-to-many relationship between membership and room types can be set up
+ * per property. The rules file is a properties file:
+ *
+ * <pre>
+ * # membership type = eligible room types, most preferred first
+ * member.GOLD = GOLD, STANDARD
+ * # room type = membership types picked up from the waiting list for it, in order
+ * room.STANDARD = PLATINUM, GOLD, STANDARD
+ * # tier whose priority waiting list is served first for a room type
+ * priority.room.STANDARD = STANDARD
+ * # preferred room type of a tier
+ * priority.member.GOLD = GOLD
+ * </pre>
+ *
+ * Every membership type needs a member.* rule. Missing room.* rules are
+ * derived from the member.* rules (highest tier first), missing priorities
+ * default to the type of the same name.
+ * <p>
+ * Lookups go through EnumMaps, DefaultBookingService compiles the rules into
+ * an EligibilityTable anyway.
+ *
+ * @author Ram
+ *
+ */
+public class RuleBasedRoomMembershipTypesConverter implements RoomMembershipTypesConverter {
+	private final Map<MembershipType, List<RoomType>> eligibleRoomTypes = new EnumMap<>(MembershipType.class);
+	private final Map<RoomType, List<MembershipType>> eligibleMembershipTypes = new EnumMap<>(RoomType.class);
+	private final Map<MembershipType, RoomType> priorityRoomTypes = new EnumMap<>(MembershipType.class);
+	private final Map<RoomType, MembershipType> priorityMembershipTypes = new EnumMap<>(RoomType.class);
+
+	public RuleBasedRoomMembershipTypesConverter(Properties rules) {
+		for (MembershipType memType : MembershipType.values()) {
+			String rule = rules.getProperty("member." + memType);
+			if (rule == null)
+				throw new IllegalArgumentException("Missing rule member." + memType);
+			eligibleRoomTypes.put(memType, Collections.unmodifiableList(parse(RoomType.class, rule)));
+			String priority = rules.getProperty("priority.member." + memType, memType.name());
+			priorityRoomTypes.put(memType, RoomType.valueOf(priority.trim()));
+		}
+
+		for (RoomType roomType : RoomType.values()) {
+			String rule = rules.getProperty("room." + roomType);
+			List<MembershipType> memTypes;
+			if (rule != null) {
+				memTypes = parse(MembershipType.class, rule);
+			} else {
+				memTypes = new ArrayList<>();
+				MembershipType[] all = MembershipType.values();
+				for (int i = all.length - 1; i >= 0; i--) {
+					if (eligibleRoomTypes.get(all[i]).contains(roomType))
+						memTypes.add(all[i]);
+				}
+			}
+			eligibleMembershipTypes.put(roomType, Collections.unmodifiableList(memTypes));
+			String priority = rules.getProperty("priority.room." + roomType, roomType.name());
+			priorityMembershipTypes.put(roomType, MembershipType.valueOf(priority.trim()));
+		}
+	}
+
+	/**
+	 * Reads the rules from a properties file.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static RuleBasedRoomMembershipTypesConverter load(File file) throws IOException {
+		Properties rules = new Properties();
+		try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			rules.load(reader);
+		}
+		return new RuleBasedRoomMembershipTypesConverter(rules);
+	}
+
+	@Override
+	public RoomType getPriorityRoomTypes(MembershipType memType) {
+		return priorityRoomTypes.get(memType);
+	}
+
+	@Override
+	public MembershipType getPriorityMembershipType(RoomType roomType) {
+		return priorityMembershipTypes.get(roomType);
+	}
+
+	@Override
+	public List<RoomType> getEligibleRoomTypes(MembershipType memType) {
+		return eligibleRoomTypes.get(memType);
+	}
+
+	@Override
+	public List<MembershipType> getEligibleMembershipTypes(RoomType roomType) {
+		return eligibleMembershipTypes.get(roomType);
+	}
+
+	private static <E extends Enum<E>> List<E> parse(Class<E> type, String rule) {
+		List<E> values = new ArrayList<>();
+		for (String value : rule.split(",")) {
+			if (!value.trim().isEmpty())
+				values.add(Enum.valueOf(type, value.trim()));
+		}
+		return values;
+	}
+}
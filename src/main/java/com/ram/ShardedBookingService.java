@@ -0,0 +1,263 @@
+package com.ram;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Front end for many properties. Every property (or group of properties) is
+ * one shard, an independent BookingService with its own RoomService inventory,
+ * and every shard is owned by a single event-loop thread: all calls to a shard
+ * are queued and run one after the other on its thread. The event loop is
+ * not the only writer though: the clock of the shard's service runs the
+ * promotion sweep on its own thread, and that moves guests between the
+ * waiting lists under the shard's locks. So the locks inside a shard are only
+ * contended by its own sweeper. Shards never share any state, so they scale
+ * out without ever contending with each other.
+ * <p>
+ * Each shard queues a bounded number of calls. When a shard falls that far
+ * behind, further calls to it fail right away with a
+ * RejectedExecutionException in their future instead of piling up.
+ * <p>
+ * Calls return CompletableFutures that are completed on the shard's thread.
+ * Don't block in dependent stages that run there, use the *Async variants
+ * instead. Aggregates (occupancy, waiting list) are scatter-gather: the query
+ * is queued on every shard and the answers are combined.
+ *
+ * @author Ram
+ *
+ */
+public class ShardedBookingService {
+
+	/**
+	 * Decides which shard owns a check-in or a room.
+	 */
+	public static interface ShardRouter {
+		int shardForCheckIn(String propertyId, String guestId);
+
+		int shardForRoom(String roomNo);
+	}
+
+	private final List<Shard> shards;
+	private final ShardRouter router;
+
+	public ShardedBookingService(List<Shard> shards, ShardRouter router) {
+		if (shards == null || shards.isEmpty())
+			throw new IllegalArgumentException("Need at least one shard.");
+		if (router == null)
+			throw new IllegalArgumentException("Router must not be null.");
+		this.shards = new ArrayList<>(shards);
+		this.router = router;
+	}
+
+	public CompletableFuture<Booking> checkIn(String propertyId, final String guestId) {
+		if (guestId == null)
+			throw new IllegalArgumentException("GuestId must not be null.");
+		final Shard shard = shard(router.shardForCheckIn(propertyId, guestId));
+		return shard.submit(new Callable<Booking>() {
+			@Override
+			public Booking call() {
+				return shard.service.checkIn(guestId);
+			}
+		});
+	}
+
+	public CompletableFuture<Void> checkOut(final String roomNo) {
+		if (roomNo == null)
+			throw new IllegalArgumentException("Room Number must not be null.");
+		final Shard shard = shard(router.shardForRoom(roomNo));
+		return shard.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				shard.service.checkOut(roomNo);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @return occupancy over all the rooms of all shards, in percent
+	 */
+	public CompletableFuture<Double> getOccupancyRatio() {
+		CompletableFuture<Double> occupiedRooms = CompletableFuture.completedFuture(0.0);
+		int totalRooms = 0;
+		for (final Shard shard : shards) {
+			totalRooms += shard.totalRooms;
+			CompletableFuture<Double> shardOccupied = shard.submit(new Callable<Double>() {
+				@Override
+				public Double call() {
+					return shard.service.getOccupancyRatio() / 100 * shard.totalRooms;
+				}
+			});
+			occupiedRooms = occupiedRooms.thenCombine(shardOccupied, new BiFunction<Double, Double, Double>() {
+				@Override
+				public Double apply(Double sum, Double occupied) {
+					return sum + occupied;
+				}
+			});
+		}
+		final int allRooms = totalRooms;
+		return occupiedRooms.thenApply(new Function<Double, Double>() {
+			@Override
+			public Double apply(Double occupied) {
+				return allRooms == 0 ? 0 : occupied / allRooms * 100;
+			}
+		});
+	}
+
+	/**
+	 * @return the waiting lists of all shards, shard by shard
+	 */
+	public CompletableFuture<List<Booking>> getWaitingList() {
+		CompletableFuture<List<Booking>> waiting = CompletableFuture.completedFuture(Collections
+				.<Booking> emptyList());
+		for (final Shard shard : shards) {
+			CompletableFuture<Collection<Booking>> shardWaiting = shard.submit(new Callable<Collection<Booking>>() {
+				@Override
+				public Collection<Booking> call() {
+					return shard.service.getWaitingList();
+				}
+			});
+			waiting = waiting.thenCombine(shardWaiting,
+					new BiFunction<List<Booking>, Collection<Booking>, List<Booking>>() {
+						@Override
+						public List<Booking> apply(List<Booking> all, Collection<Booking> more) {
+							List<Booking> combined = new ArrayList<>(all.size() + more.size());
+							combined.addAll(all);
+							combined.addAll(more);
+							return Collections.unmodifiableList(combined);
+						}
+					});
+		}
+		return waiting;
+	}
+
+	/**
+	 * Stops the event loops once the calls already queued have run. The shard
+	 * services themselves belong to the caller.
+	 */
+	public void shutdown() {
+		for (Shard shard : shards) {
+			shard.loop.shutdown();
+		}
+	}
+
+	private Shard shard(int index) {
+		if (index < 0 || index >= shards.size())
+			throw new IllegalArgumentException("No such shard: " + index);
+		return shards.get(index);
+	}
+
+	/**
+	 * One booking service and the thread that owns it.
+	 */
+	public static class Shard {
+		public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+		private final BookingService service;
+		private final int totalRooms;
+		private final ExecutorService loop;
+
+		/**
+		 * @param name
+		 *            used for the event-loop thread
+		 * @param service
+		 *            must not be called by anyone but this shard from now on
+		 * @param roomService
+		 *            the inventory behind the service
+		 */
+		public Shard(String name, BookingService service, RoomService roomService) {
+			this(name, service, roomService, DEFAULT_QUEUE_CAPACITY);
+		}
+
+		/**
+		 * @param queueCapacity
+		 *            calls waiting for the event loop at most, any more are
+		 *            rejected
+		 */
+		public Shard(final String name, BookingService service, RoomService roomService, int queueCapacity) {
+			if (queueCapacity <= 0)
+				throw new IllegalArgumentException("Queue capacity must be positive.");
+			this.service = service;
+			this.totalRooms = roomService.getTotalRooms();
+			this.loop = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+					queueCapacity), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "booking-shard-" + name);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+
+		<T> CompletableFuture<T> submit(final Callable<T> task) {
+			final CompletableFuture<T> future = new CompletableFuture<>();
+			try {
+				loop.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							future.complete(task.call());
+						} catch (Throwable e) {
+							// Errors too, or the caller waits forever
+							future.completeExceptionally(e);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// shut down, or the queue is full
+				future.completeExceptionally(e);
+			}
+			return future;
+		}
+	}
+
+	/**
+	 * Routes check-ins by property and rooms by room-number range. Each shard
+	 * registers the first room number of its range, a room belongs to the
+	 * range with the greatest first room number not after it (so use room
+	 * numbers that sort, like "P01-0001").
+	 */
+	public static class RangeShardRouter implements ShardRouter {
+		private final Map<String, Integer> shardsByProperty = new HashMap<>();
+		private final TreeMap<String, Integer> shardsByFirstRoomNo = new TreeMap<>();
+
+		public void addProperty(String propertyId, String firstRoomNo, int shard) {
+			if (propertyId == null || firstRoomNo == null)
+				throw new IllegalArgumentException("Property and first room number must not be null.");
+			shardsByProperty.put(propertyId, shard);
+			shardsByFirstRoomNo.put(firstRoomNo, shard);
+		}
+
+		@Override
+		public int shardForCheckIn(String propertyId, String guestId) {
+			Integer shard = shardsByProperty.get(propertyId);
+			if (shard == null)
+				throw new IllegalArgumentException("Unknown property: " + propertyId);
+			return shard;
+		}
+
+		@Override
+		public int shardForRoom(String roomNo) {
+			Map.Entry<String, Integer> range = shardsByFirstRoomNo.floorEntry(roomNo);
+			if (range == null)
+				throw new IllegalArgumentException("No property has room: " + roomNo);
+			return range.getValue();
+		}
+	}
+}
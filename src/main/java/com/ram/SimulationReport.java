@@ -0,0 +1,138 @@
+package com.ram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a {@link WorkloadSimulator} run. Latencies are in nanos of wall
+ * time, waiting times in millis of the trace's time. The lock contention
+ * comes from the service's own {@link BookingMetrics}, when it has them, and
+ * covers everything since the service started.
+ *
+ * @author Ram
+ *
+ */
+public final class SimulationReport {
+	private final int events;
+	private final long requests;
+	private final long wallNanos;
+	private final long traceMillis;
+	private final LatencyHistogram checkInLatency;
+	private final LatencyHistogram checkOutLatency;
+	private final LatencyHistogram waitingTime;
+	private final int stillWaiting;
+	private final int walkedAway;
+	private final int errors;
+	private final BookingMetrics serviceMetrics;
+
+	SimulationReport(int events, long requests, long wallNanos, long traceMillis, LatencyHistogram checkInLatency,
+			LatencyHistogram checkOutLatency, LatencyHistogram waitingTime, int stillWaiting, int walkedAway,
+			int errors, BookingMetrics serviceMetrics) {
+		this.events = events;
+		this.requests = requests;
+		this.wallNanos = wallNanos;
+		this.traceMillis = traceMillis;
+		this.checkInLatency = checkInLatency;
+		this.checkOutLatency = checkOutLatency;
+		this.waitingTime = waitingTime;
+		this.stillWaiting = stillWaiting;
+		this.walkedAway = walkedAway;
+		this.errors = errors;
+		this.serviceMetrics = serviceMetrics;
+	}
+
+	public int getEvents() {
+		return events;
+	}
+
+	/**
+	 * @return arrivals and departures sent to the service
+	 */
+	public long getRequests() {
+		return requests;
+	}
+
+	public long getWallNanos() {
+		return wallNanos;
+	}
+
+	/**
+	 * @return requests per second of wall time
+	 */
+	public double getThroughput() {
+		return wallNanos == 0 ? 0 : requests * (double) TimeUnit.SECONDS.toNanos(1) / wallNanos;
+	}
+
+	/**
+	 * @return trace time replayed per wall time, 604800 is a week in a second
+	 */
+	public double getSpeedup() {
+		return wallNanos == 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(traceMillis) / (double) wallNanos;
+	}
+
+	public LatencyHistogram getCheckInLatency() {
+		return checkInLatency;
+	}
+
+	public LatencyHistogram getCheckOutLatency() {
+		return checkOutLatency;
+	}
+
+	/**
+	 * @return trace millis from check-in to getting a room, of the guests who
+	 *         had to wait and got one
+	 */
+	public LatencyHistogram getWaitingTime() {
+		return waitingTime;
+	}
+
+	/**
+	 * @return guests who had to wait and never got a room
+	 */
+	public int getStillWaiting() {
+		return stillWaiting;
+	}
+
+	/**
+	 * @return guests who were due to leave while still waiting
+	 */
+	public int getWalkedAway() {
+		return walkedAway;
+	}
+
+	public int getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @return null if the service doesn't measure itself
+	 */
+	public BookingMetrics getServiceMetrics() {
+		return serviceMetrics;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%d events, %d requests in %.3f s: %.0f requests/s, %.0fx real time%n", events,
+				requests, wallNanos / 1e9, getThroughput(), getSpeedup()));
+		appendLatency(report, "check-in", checkInLatency);
+		appendLatency(report, "check-out", checkOutLatency);
+		report.append(String.format("waited for a room: %d, p50 %d ms, p99 %d ms, max %d ms%n",
+				waitingTime.getCount(), waitingTime.getValueAtPercentile(50),
+				waitingTime.getValueAtPercentile(99), waitingTime.getMax()));
+		report.append(String.format("still waiting: %d, walked away: %d, errors: %d%n", stillWaiting, walkedAway,
+				errors));
+		if (serviceMetrics != null) {
+			appendLatency(report, "lock wait", serviceMetrics.getLockWait());
+			appendLatency(report, "lock hold", serviceMetrics.getLockHold());
+		}
+		return report.toString();
+	}
+
+	private static void appendLatency(StringBuilder report, String name, LatencyHistogram latency) {
+		report.append(String.format("%s: %d, p50 %d us, p99 %d us, p99.9 %d us, max %d us%n", name,
+				latency.getCount(), latency.getValueAtPercentile(50) / 1000,
+				latency.getValueAtPercentile(99) / 1000, latency.getValueAtPercentile(99.9) / 1000,
+				latency.getMax() / 1000));
+	}
+}
@@ -0,0 +1,29 @@
+package com.ram;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The wall clock, with one scheduler thread for the periodic tasks.
+ *
+ * @author Ram
+ *
+ */
+public class SystemBookingClock implements BookingClock {
+	private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+
+	@Override
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public void scheduleAtFixedRate(Runnable task, long period, TimeUnit unit) {
+		scheduler.scheduleAtFixedRate(task, period, period, unit);
+	}
+
+	@Override
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+}
@@ -0,0 +1,136 @@
+package com.ram;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A clock that stands still until {@link #advanceTo(long)} moves it. The
+ * scheduled tasks that fall due on the way run on the advancing thread, in
+ * order of their due time, each with the clock set to that time. A week of
+ * promotion sweeps is a loop, not a week.
+ * <p>
+ * Reading the time is a volatile read and safe from any thread. Advance from
+ * one thread at a time.
+ *
+ * @author Ram
+ *
+ */
+public class VirtualBookingClock implements BookingClock {
+	private static final Logger logger = LoggerFactory.getLogger(VirtualBookingClock.class);
+
+	// guards the tasks, never held while one runs
+	private final ReentrantLock lock = new ReentrantLock();
+	private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+	private long sequence;
+	private boolean shutdown;
+	private volatile long now;
+
+	/**
+	 * @param startMillis
+	 *            millis since the epoch the clock starts at
+	 */
+	public VirtualBookingClock(long startMillis) {
+		this.now = startMillis;
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return now;
+	}
+
+	@Override
+	public void scheduleAtFixedRate(Runnable task, long period, TimeUnit unit) {
+		if (task == null)
+			throw new IllegalArgumentException("Task must not be null.");
+		long periodMillis = unit.toMillis(period);
+		if (periodMillis <= 0)
+			throw new IllegalArgumentException("Period must be at least a millisecond.");
+		lock.lock();
+		try {
+			if (!shutdown)
+				tasks.add(new Task(task, periodMillis, now + periodMillis, sequence++));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void advance(long duration, TimeUnit unit) {
+		advanceTo(now + unit.toMillis(duration));
+	}
+
+	/**
+	 * Moves the clock forward, running every task that falls due up to and
+	 * including the given time.
+	 *
+	 * @param millis
+	 *            millis since the epoch
+	 */
+	public void advanceTo(long millis) {
+		if (millis < now)
+			throw new IllegalArgumentException("The clock can't go back in time: " + millis + " < " + now);
+		while (true) {
+			Task task;
+			lock.lock();
+			try {
+				task = tasks.peek();
+				if (task == null || task.due > millis) {
+					now = millis;
+					return;
+				}
+				tasks.poll();
+				now = task.due;
+			} finally {
+				lock.unlock();
+			}
+			try {
+				task.runnable.run();
+			} catch (RuntimeException e) {
+				logger.error("Scheduled task failed, it won't run again", e);
+				continue;
+			}
+			lock.lock();
+			try {
+				if (!shutdown)
+					tasks.add(new Task(task.runnable, task.period, task.due + task.period, sequence++));
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+			tasks.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static final class Task implements Comparable<Task> {
+		final Runnable runnable;
+		final long period;
+		final long due;
+		// tasks due at the same time run in the order they were (re)scheduled
+		final long sequence;
+
+		Task(Runnable runnable, long period, long due, long sequence) {
+			this.runnable = runnable;
+			this.period = period;
+			this.due = due;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Task other) {
+			int byDue = Long.compare(due, other.due);
+			return byDue != 0 ? byDue : Long.compare(sequence, other.sequence);
+		}
+	}
+}
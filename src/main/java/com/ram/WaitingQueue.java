@@ -0,0 +1,193 @@
+package com.ram;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * FIFO queue of waiting bookings. The queue is linked through the bookings
+ * themselves (each Booking carries its own prev/next handle), so no node is
+ * allocated per booking. A booking is in at most one queue at a time.
+ * <p>
+ * Next to the links the queue keeps an append-only log of its bookings, and
+ * after every change publishes an immutable {@link Snapshot} over a range of
+ * that log. Writers only ever append past the published range or move its
+ * start forward, so a snapshot never changes and can be read without any lock.
+ * That costs one small Snapshot object per change.
+ * <p>
+ * Adding to the back and taking from the front, which is all the booking
+ * paths and promotions do (moveToBack takes the head of the regular list),
+ * are O(1), apart from the log growing now and then. Removing a booking from
+ * the middle is O(n): the log is rebuilt from the links, since published
+ * snapshots may still show the removed booking. Only journal replay and
+ * replicas do that, when a confirmation did not go to the head.
+ * <p>
+ * Not thread-safe, DefaultBookingService guards each queue with the lock of
+ * its membership tier. Only snapshot() may be called from other threads.
+ *
+ * @author Ram
+ *
+ */
+class WaitingQueue {
+	private Booking head;
+	private Booking tail;
+	private int size;
+
+	// bookings of the queue are log[logHead..logTail), in queue order
+	private Booking[] log = new Booking[16];
+	private int logHead;
+	private int logTail;
+	private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+	void addLast(Booking booking) {
+		if (booking.waitingQueue != null)
+			throw new IllegalStateException("Booking is already waiting: " + booking.getBookingId());
+		booking.waitingQueue = this;
+		booking.waitingPrev = tail;
+		booking.waitingNext = null;
+		if (tail == null)
+			head = booking;
+		else
+			tail.waitingNext = booking;
+		tail = booking;
+		size++;
+
+		if (logTail == log.length) {
+			// a fresh array, published snapshots keep the old one
+			Booking[] newLog = new Booking[Math.max(16, size * 2)];
+			System.arraycopy(log, logHead, newLog, 0, logTail - logHead);
+			log = newLog;
+			logTail -= logHead;
+			logHead = 0;
+		}
+		log[logTail++] = booking;
+		publish();
+	}
+
+	Booking peekFirst() {
+		return head;
+	}
+
+	Booking pollFirst() {
+		Booking booking = head;
+		if (booking != null)
+			unlink(booking);
+		return booking;
+	}
+
+	/**
+	 * @param booking
+	 * @return false if the booking is not in this queue
+	 */
+	boolean remove(Booking booking) {
+		if (booking.waitingQueue != this)
+			return false;
+		unlink(booking);
+		return true;
+	}
+
+	/**
+	 * Unlinks the booking from its current queue and appends it to this one.
+	 *
+	 * @param booking
+	 */
+	void moveToBack(Booking booking) {
+		if (booking.waitingQueue != null)
+			booking.waitingQueue.unlink(booking);
+		addLast(booking);
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Copies the bookings, in queue order, into the given collection.
+	 *
+	 * @param target
+	 */
+	void copyTo(Collection<Booking> target) {
+		for (Booking booking = head; booking != null; booking = booking.waitingNext) {
+			target.add(booking);
+		}
+	}
+
+	/**
+	 * Safe to call from any thread without the tier lock.
+	 *
+	 * @return the queue as of its last change
+	 */
+	Snapshot snapshot() {
+		return snapshot;
+	}
+
+	private void unlink(Booking booking) {
+		Booking prev = booking.waitingPrev;
+		Booking next = booking.waitingNext;
+		if (prev == null)
+			head = next;
+		else
+			prev.waitingNext = next;
+		if (next == null)
+			tail = prev;
+		else
+			next.waitingPrev = prev;
+		booking.waitingPrev = null;
+		booking.waitingNext = null;
+		booking.waitingQueue = null;
+		size--;
+
+		if (log[logHead] == booking) {
+			// the slot stays as it is, older snapshots may still show it
+			logHead++;
+		} else {
+			// removal from the middle, rebuild the log from the links
+			Booking[] newLog = new Booking[Math.max(16, size * 2)];
+			int i = 0;
+			for (Booking b = head; b != null; b = b.waitingNext) {
+				newLog[i++] = b;
+			}
+			log = newLog;
+			logHead = 0;
+			logTail = i;
+		}
+		publish();
+	}
+
+	private void publish() {
+		snapshot = logHead == logTail ? Snapshot.EMPTY : new Snapshot(log, logHead, logTail);
+	}
+
+	/**
+	 * Immutable view of a queue at one point in time.
+	 */
+	static final class Snapshot {
+		static final Snapshot EMPTY = new Snapshot(new Booking[0], 0, 0);
+
+		private final Booking[] log;
+		private final int from;
+		private final int to;
+
+		private Snapshot(Booking[] log, int from, int to) {
+			this.log = log;
+			this.from = from;
+			this.to = to;
+		}
+
+		int size() {
+			return to - from;
+		}
+
+		Booking get(int index) {
+			return log[from + index];
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(Arrays.copyOfRange(log, from, to));
+		}
+	}
+}
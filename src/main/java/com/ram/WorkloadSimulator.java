@@ -0,0 +1,358 @@
+package com.ram;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ram.Booking.BookingStatus;
+import com.ram.BookingService.BookingEventListener;
+import com.ram.WorkloadTrace.Event;
+
+/**
+ * Replays a {@link WorkloadTrace} against any {@link BookingService}: an
+ * arrival is a check-in, a departure checks the guest's room out. At most
+ * "sessions" requests are in flight at a time, on as many platform threads or
+ * on virtual threads.
+ * <p>
+ * Two modes:
+ * <ul>
+ * <li>{@link #runRealTime(WorkloadTrace, double)} sends every event at its
+ * time in the trace, optionally sped up, to see how the service copes with
+ * the real arrival pattern.</li>
+ * <li>{@link #runSimulated(WorkloadTrace, long)} doesn't wait at all: the
+ * trace is cut into ticks of simulated time, the events of one tick run
+ * concurrently and the next tick starts when they are all done. A week of
+ * traffic takes seconds, and with one session the run is the same every
+ * time.</li>
+ * </ul>
+ * Give it the service's {@link VirtualBookingClock} and simulated runs move
+ * it along with the trace, so waiting guests are promoted after the trace's
+ * time rather than the wall clock's.
+ * <p>
+ * A guest who is still on the waiting list when they are due to leave walks
+ * away: they are checked out as soon as they get a room (there is no
+ * cancel), so the room goes to the next guest. Waiting times are measured in
+ * the trace's time, from the check-in to the event confirming the room.
+ *
+ * @author Ram
+ *
+ */
+public class WorkloadSimulator {
+	private static final Logger logger = LoggerFactory.getLogger(WorkloadSimulator.class);
+
+	private final BookingService bookingService;
+	private final int sessions;
+	private final boolean virtualThreads;
+	// null unless the service runs on one
+	private final VirtualBookingClock clock;
+
+	/**
+	 * @param bookingService
+	 * @param sessions
+	 *            requests in flight at most
+	 * @param virtualThreads
+	 *            one virtual thread per request (needs JDK 21, before that
+	 *            it is a pool of as many platform threads as sessions too),
+	 *            else a pool of as many threads as sessions
+	 */
+	public WorkloadSimulator(BookingService bookingService, int sessions, boolean virtualThreads) {
+		this(bookingService, sessions, virtualThreads, null);
+	}
+
+	/**
+	 * @param clock
+	 *            the service's clock, advanced tick by tick in simulated runs
+	 */
+	public WorkloadSimulator(BookingService bookingService, int sessions, boolean virtualThreads,
+			VirtualBookingClock clock) {
+		if (bookingService == null)
+			throw new IllegalArgumentException("Booking service must not be null.");
+		if (sessions <= 0)
+			throw new IllegalArgumentException("Sessions must be positive.");
+		this.bookingService = bookingService;
+		this.sessions = sessions;
+		this.virtualThreads = virtualThreads;
+		this.clock = clock;
+	}
+
+	/**
+	 * Sends each event at its time in the trace.
+	 *
+	 * @param speedup
+	 *            2 replays the trace twice as fast
+	 */
+	public SimulationReport runRealTime(WorkloadTrace trace, double speedup) throws InterruptedException {
+		if (speedup <= 0)
+			throw new IllegalArgumentException("Speedup must be positive.");
+		return new Run(trace).execute(speedup, 0);
+	}
+
+	/**
+	 * Runs the trace as fast as the service goes, tick by tick.
+	 *
+	 * @param tickMillis
+	 *            simulated time of one tick, events within one tick run
+	 *            concurrently
+	 */
+	public SimulationReport runSimulated(WorkloadTrace trace, long tickMillis) throws InterruptedException {
+		if (tickMillis <= 0)
+			throw new IllegalArgumentException("Tick must be positive.");
+		return new Run(trace).execute(0, tickMillis);
+	}
+
+	/**
+	 * State of one replay.
+	 */
+	private class Run implements BookingEventListener {
+		private final WorkloadTrace trace;
+		private final ExecutorService executor = virtualThreads ? RequestExecutors.newPerRequestExecutor(sessions)
+				: Executors.newFixedThreadPool(sessions);
+		private final Semaphore inFlight = new Semaphore(sessions);
+		// only touched by the thread dispatching the events: guest --> their
+		// check-in, for their departure
+		private final Map<String, CompletableFuture<Booking>> stays = new HashMap<>();
+		// trace time they joined the waiting list
+		private final ConcurrentMap<Booking, Long> waitingSince = new ConcurrentHashMap<>();
+		// bookingId --> trace time they got a room, as heard from the events
+		private final ConcurrentMap<Integer, Long> confirmedAt = new ConcurrentHashMap<>();
+		// guests who walked away, to check out when they get their room
+		private final ConcurrentMap<Integer, Booking> leaveWhenConfirmed = new ConcurrentHashMap<>();
+		private final AtomicInteger pendingCheckOuts = new AtomicInteger();
+		private final AtomicInteger walkedAway = new AtomicInteger();
+		private final AtomicInteger errors = new AtomicInteger();
+		private final AtomicLong requests = new AtomicLong();
+		private final LatencyHistogram checkInLatency = new LatencyHistogram();
+		private final LatencyHistogram checkOutLatency = new LatencyHistogram();
+		private volatile long now;
+
+		Run(WorkloadTrace trace) {
+			if (trace == null)
+				throw new IllegalArgumentException("Trace must not be null.");
+			this.trace = trace;
+		}
+
+		SimulationReport execute(double speedup, long tickMillis) throws InterruptedException {
+			bookingService.subscribeToBookingEvents(this);
+			long start = System.nanoTime();
+			// trace time 0 on the service's clock
+			long origin = clock != null ? clock.currentTimeMillis() : 0;
+			try {
+				long tickEnd = tickMillis;
+				for (Event event : trace.getEvents()) {
+					if (tickMillis > 0) {
+						if (event.getTime() >= tickEnd) {
+							awaitInFlight();
+							tickEnd = (event.getTime() / tickMillis + 1) * tickMillis;
+							// nothing is in flight, the sweeper has the
+							// service to itself
+							if (clock != null)
+								clock.advanceTo(origin + event.getTime());
+						}
+					} else {
+						long due = start + (long) (TimeUnit.MILLISECONDS.toNanos(event.getTime()) / speedup);
+						long wait;
+						while ((wait = due - System.nanoTime()) > 0) {
+							LockSupport.parkNanos(wait);
+						}
+					}
+					now = event.getTime();
+					dispatch(event);
+				}
+				awaitInFlight();
+				if (clock != null && tickMillis > 0)
+					clock.advanceTo(origin + trace.getDuration());
+				checkOutWalkedAway();
+			} finally {
+				bookingService.unsubscribeFromBookingEvents(this);
+				executor.shutdown();
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			}
+			return report(System.nanoTime() - start);
+		}
+
+		private void dispatch(Event event) throws InterruptedException {
+			final String guestId = event.getGuestId();
+			switch (event.getType()) {
+			case ARRIVAL:
+				final CompletableFuture<Booking> stay = new CompletableFuture<>();
+				final long arrivedAt = event.getTime();
+				stays.put(guestId, stay);
+				submit(new Runnable() {
+					@Override
+					public void run() {
+						Booking booking = null;
+						try {
+							booking = arrive(guestId, arrivedAt);
+						} finally {
+							// the departure must not wait forever for a failed
+							// check-in
+							stay.complete(booking);
+						}
+					}
+				});
+				break;
+			case DEPARTURE:
+				final CompletableFuture<Booking> leaving = stays.remove(guestId);
+				if (leaving == null) {
+					logger.warn("{} leaves without having arrived", guestId);
+					errors.incrementAndGet();
+					break;
+				}
+				// the check-in was submitted before, so it is running already
+				// and joining it can't starve the sessions
+				submit(new Runnable() {
+					@Override
+					public void run() {
+						Booking booking = leaving.join();
+						if (booking != null)
+							depart(booking);
+					}
+				});
+				break;
+			}
+		}
+
+		private void submit(final Runnable request) throws InterruptedException {
+			inFlight.acquire();
+			requests.incrementAndGet();
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						request.run();
+					} catch (RuntimeException e) {
+						logger.warn("Request failed", e);
+						errors.incrementAndGet();
+					} finally {
+						inFlight.release();
+					}
+				}
+			});
+		}
+
+		private void awaitInFlight() throws InterruptedException {
+			inFlight.acquire(sessions);
+			inFlight.release(sessions);
+		}
+
+		private Booking arrive(String guestId, long arrivedAt) {
+			long started = System.nanoTime();
+			Booking booking;
+			try {
+				booking = bookingService.checkIn(guestId);
+			} finally {
+				checkInLatency.recordSince(started);
+			}
+			if (isWaiting(booking) || confirmedAt.containsKey(booking.getBookingId()))
+				waitingSince.put(booking, arrivedAt);
+			return booking;
+		}
+
+		private void depart(Booking booking) {
+			if (isWaiting(booking)) {
+				walkedAway.incrementAndGet();
+				leaveWhenConfirmed.put(booking.getBookingId(), booking);
+				// the room may have come in the meantime, and then whoever
+				// removes the booking checks it out
+				if (booking.getStatus() != BookingStatus.CONFIRMED
+						|| leaveWhenConfirmed.remove(booking.getBookingId()) == null)
+					return;
+			}
+			checkOut(booking);
+		}
+
+		private void checkOut(Booking booking) {
+			long started = System.nanoTime();
+			try {
+				bookingService.checkOut(booking.getRoomNo());
+			} finally {
+				checkOutLatency.recordSince(started);
+			}
+		}
+
+		@Override
+		public void updated(final Booking booking) {
+			if (booking.getStatus() != BookingStatus.CONFIRMED)
+				return;
+			confirmedAt.putIfAbsent(booking.getBookingId(), now);
+			if (leaveWhenConfirmed.remove(booking.getBookingId()) == null)
+				return;
+			// not on the listener's thread, the check-out publishes events too
+			pendingCheckOuts.incrementAndGet();
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						checkOut(booking);
+					} finally {
+						pendingCheckOuts.decrementAndGet();
+					}
+				}
+			});
+		}
+
+		/**
+		 * Events may still be on their way, or dropped by the bus: the guests
+		 * who walked away and got a room meanwhile are checked out here, until
+		 * those check-outs hand no more rooms to them.
+		 */
+		private void checkOutWalkedAway() {
+			boolean checkedOut;
+			do {
+				checkedOut = false;
+				for (Booking booking : leaveWhenConfirmed.values()) {
+					if (booking.getStatus() == BookingStatus.CONFIRMED
+							&& leaveWhenConfirmed.remove(booking.getBookingId()) != null) {
+						checkOut(booking);
+						checkedOut = true;
+					}
+				}
+				while (pendingCheckOuts.get() > 0) {
+					checkedOut = true;
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+				}
+			} while (checkedOut);
+		}
+
+		/**
+		 * On either waiting list, the sweeper may have promoted them.
+		 */
+		private boolean isWaiting(Booking booking) {
+			BookingStatus status = booking.getStatus();
+			return status == BookingStatus.WAITING || status == BookingStatus.PRIORITY_WAITING;
+		}
+
+		private SimulationReport report(long wallNanos) {
+			LatencyHistogram waitingTime = new LatencyHistogram();
+			int stillWaiting = 0;
+			for (Map.Entry<Booking, Long> waiting : waitingSince.entrySet()) {
+				if (isWaiting(waiting.getKey())) {
+					stillWaiting++;
+					continue;
+				}
+				// the event may be late or dropped, then we don't know when
+				Long confirmed = confirmedAt.get(waiting.getKey().getBookingId());
+				if (confirmed != null)
+					waitingTime.record(confirmed - waiting.getValue());
+			}
+			BookingMetrics serviceMetrics = bookingService instanceof DefaultBookingService ? ((DefaultBookingService) bookingService)
+					.getMetrics() : null;
+			return new SimulationReport(trace.size(), requests.get(), wallNanos, trace.getDuration(),
+					checkInLatency, checkOutLatency, waitingTime, stillWaiting, walkedAway.get(), errors.get(),
+					serviceMetrics);
+		}
+	}
+
+}
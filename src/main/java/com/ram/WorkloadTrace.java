@@ -0,0 +1,286 @@
+package com.ram;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Arrivals and departures of guests over time, for {@link WorkloadSimulator}.
+ * Traces are generated (Poisson arrivals, conference spikes) or replayed from
+ * real, anonymized logs converted to the binary format:
+ *
+ * <pre>
+ * int magic "HTRC", int version
+ * varint guests, then each guestId as modified UTF-8
+ * varint events, then per event:
+ *   varint millis since the previous event, byte type, varint guest index
+ * </pre>
+ *
+ * A week of a busy hotel is a few bytes per event.
+ *
+ * @author Ram
+ *
+ */
+public final class WorkloadTrace {
+	private static final int MAGIC = 0x48545243;
+	private static final int VERSION = 1;
+
+	public static enum EventType {
+		ARRIVAL, DEPARTURE
+	}
+
+	/**
+	 * A guest arriving (checking in) or departing (checking out) at a time.
+	 */
+	public static final class Event {
+		private final long time;
+		private final EventType type;
+		private final String guestId;
+
+		public Event(long time, EventType type, String guestId) {
+			if (time < 0 || type == null || guestId == null)
+				throw new IllegalArgumentException("Invalid event: " + time + " " + type + " " + guestId);
+			this.time = time;
+			this.type = type;
+			this.guestId = guestId;
+		}
+
+		/**
+		 * @return millis since the start of the trace
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public EventType getType() {
+			return type;
+		}
+
+		public String getGuestId() {
+			return guestId;
+		}
+
+		@Override
+		public String toString() {
+			return time + " " + type + " " + guestId;
+		}
+	}
+
+	private static final Comparator<Event> BY_TIME = new Comparator<Event>() {
+		@Override
+		public int compare(Event a, Event b) {
+			return Long.compare(a.time, b.time);
+		}
+	};
+
+	private final List<Event> events;
+
+	/**
+	 * @param events
+	 *            sorted by time (stable, so events at the same time keep
+	 *            their order)
+	 */
+	public WorkloadTrace(List<Event> events) {
+		List<Event> sorted = new ArrayList<>(events);
+		Collections.sort(sorted, BY_TIME);
+		this.events = Collections.unmodifiableList(sorted);
+	}
+
+	public List<Event> getEvents() {
+		return events;
+	}
+
+	public int size() {
+		return events.size();
+	}
+
+	/**
+	 * @return time of the last event
+	 */
+	public long getDuration() {
+		return events.isEmpty() ? 0 : events.get(events.size() - 1).time;
+	}
+
+	/**
+	 * Guests arrive as a Poisson process and stay for an exponentially
+	 * distributed time. A guest arrives again only after they left, arrivals
+	 * when every guest is in the hotel are skipped.
+	 *
+	 * @param seed
+	 *            same seed, same trace
+	 * @param guestIds
+	 *            the guests to draw from
+	 * @param arrivalsPerHour
+	 * @param meanStayMillis
+	 * @param durationMillis
+	 *            no arrivals after this, departures may come later
+	 * @return
+	 */
+	public static WorkloadTrace poisson(long seed, List<String> guestIds, double arrivalsPerHour,
+			long meanStayMillis, long durationMillis) {
+		if (arrivalsPerHour <= 0 || meanStayMillis <= 0)
+			throw new IllegalArgumentException("Arrival rate and mean stay must be positive.");
+		Random random = new Random(seed);
+		double meanGapMillis = 3600000 / arrivalsPerHour;
+		List<Event> events = new ArrayList<>();
+		// guest --> time they leave, guests not in the hotel have none
+		Map<String, Long> leaving = new HashMap<>();
+		Set<String> away = new LinkedHashSet<>(guestIds);
+		long time = 0;
+		while (true) {
+			time += exponential(random, meanGapMillis);
+			if (time > durationMillis)
+				break;
+			for (Map.Entry<String, Long> stay : new ArrayList<>(leaving.entrySet())) {
+				if (stay.getValue() <= time) {
+					leaving.remove(stay.getKey());
+					away.add(stay.getKey());
+				}
+			}
+			if (away.isEmpty())
+				continue;
+			String guestId = pick(random, away);
+			long departure = time + Math.max(1, exponential(random, meanStayMillis));
+			events.add(new Event(time, EventType.ARRIVAL, guestId));
+			events.add(new Event(departure, EventType.DEPARTURE, guestId));
+			leaving.put(guestId, departure);
+		}
+		return new WorkloadTrace(events);
+	}
+
+	/**
+	 * Adds a conference: the guests all arrive within the window starting at
+	 * the given time and all leave when it ends plus the stay. They must not
+	 * be in the hotel at that time in this trace.
+	 *
+	 * @return a new trace
+	 */
+	public WorkloadTrace withConference(long seed, List<String> guestIds, long startMillis, long windowMillis,
+			long stayMillis) {
+		Random random = new Random(seed);
+		List<Event> merged = new ArrayList<>(events);
+		for (String guestId : guestIds) {
+			long arrival = startMillis + (long) (random.nextDouble() * windowMillis);
+			merged.add(new Event(arrival, EventType.ARRIVAL, guestId));
+			merged.add(new Event(startMillis + windowMillis + stayMillis, EventType.DEPARTURE, guestId));
+		}
+		return new WorkloadTrace(merged);
+	}
+
+	public void write(File file) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+			write(out);
+		}
+	}
+
+	public void write(OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(stream);
+		Map<String, Integer> guestIndexes = new HashMap<>();
+		List<String> guests = new ArrayList<>();
+		for (Event event : events) {
+			if (!guestIndexes.containsKey(event.guestId)) {
+				guestIndexes.put(event.guestId, guests.size());
+				guests.add(event.guestId);
+			}
+		}
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		writeVarint(out, guests.size());
+		for (String guestId : guests) {
+			out.writeUTF(guestId);
+		}
+		writeVarint(out, events.size());
+		long previous = 0;
+		for (Event event : events) {
+			writeVarint(out, event.time - previous);
+			out.writeByte(event.type.ordinal());
+			writeVarint(out, guestIndexes.get(event.guestId));
+			previous = event.time;
+		}
+		out.flush();
+	}
+
+	public static WorkloadTrace read(File file) throws IOException {
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+			return read(in);
+		}
+	}
+
+	public static WorkloadTrace read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a workload trace");
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported trace version " + version);
+		String[] guests = new String[(int) readVarint(in)];
+		for (int i = 0; i < guests.length; i++) {
+			guests[i] = in.readUTF();
+		}
+		int count = (int) readVarint(in);
+		EventType[] types = EventType.values();
+		List<Event> events = new ArrayList<>(count);
+		long time = 0;
+		for (int i = 0; i < count; i++) {
+			time += readVarint(in);
+			int type = in.readUnsignedByte();
+			int guest = (int) readVarint(in);
+			if (type >= types.length || guest >= guests.length)
+				throw new IOException("Corrupt trace at event " + i);
+			events.add(new Event(time, types[type], guests[guest]));
+		}
+		return new WorkloadTrace(events);
+	}
+
+	private static long exponential(Random random, double mean) {
+		return (long) (-Math.log(1 - random.nextDouble()) * mean);
+	}
+
+	private static String pick(Random random, Set<String> away) {
+		int index = random.nextInt(away.size());
+		for (String guestId : away) {
+			if (index-- == 0) {
+				away.remove(guestId);
+				return guestId;
+			}
+		}
+		throw new IllegalStateException();
+	}
+
+	private static void writeVarint(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarint(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0)
+				throw new EOFException();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+}
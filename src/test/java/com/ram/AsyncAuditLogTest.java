@@ -0,0 +1,105 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ram.BookingEventBus.OverflowPolicy;
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * @author Ram
+ *
+ */
+public class AsyncAuditLogTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void writes_every_transition_of_the_service() throws Exception {
+		Map<String, Room> roomCache = new LinkedHashMap<>();
+		Room room = new Room();
+		room.setRoomNo("R1");
+		room.setType(RoomType.STANDARD);
+		roomCache.put(room.getRoomNo(), room);
+		Map<String, Guest> guestCache = new LinkedHashMap<>();
+		for (int i = 1; i <= 2; i++) {
+			Guest guest = new Guest();
+			guest.setGuestId("G" + i);
+			guest.setMemType(MembershipType.STANDARD);
+			guestCache.put(guest.getGuestId(), guest);
+		}
+
+		File file = new File(folder.getRoot(), "audit.log");
+		AsyncAuditLog auditLog = new AsyncAuditLog(file, 1024);
+		// stamped on the service's clock, not the wall clock
+		VirtualBookingClock clock = new VirtualBookingClock(42);
+		DefaultBookingService bookingService = new DefaultBookingService(100, new DefaultGuestService(guestCache),
+				new DefaultRoomService(roomCache), new PriorityBasedRoomMembershipTypesConverter(),
+				new BookingEventBus(16, OverflowPolicy.BLOCK), null, auditLog, clock);
+		try {
+			bookingService.checkIn("G1");
+			bookingService.checkIn("G2");
+			bookingService.checkOut("R1");
+		} finally {
+			bookingService.shutdown();
+			auditLog.close();
+		}
+
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		assertEquals(4, lines.size());
+		assertEquals(4, auditLog.getWritten());
+		assertEquals(0, auditLog.getDropped());
+		assertEquals(0, auditLog.getFailed());
+		String[] expected = { "CHECKED_IN\t\\d+\tG1\tSTANDARD\tR1", "WAITING\t\\d+\tG2\tSTANDARD\tnull",
+				"CHECKED_OUT\t\\d+\tnull\tnull\tR1", "CONFIRMED_FROM_WAITING\t\\d+\tnull\tSTANDARD\tR1" };
+		for (int i = 0; i < expected.length; i++) {
+			assertTrue(lines.get(i), lines.get(i).matches("42\t" + expected[i]));
+		}
+	}
+
+	@Test
+	public void drops_instead_of_blocking_when_the_writer_is_behind() throws Exception {
+		AsyncAuditLog auditLog = new AsyncAuditLog(new File(folder.getRoot(), "audit.log"), 1);
+		Booking booking = new Booking("G1", MembershipType.STANDARD);
+		int recorded = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (auditLog.record(BookingTransition.waiting(booking)))
+				recorded++;
+		}
+		auditLog.close();
+		assertEquals(1000, recorded + auditLog.getDropped());
+		assertEquals(recorded, auditLog.getWritten());
+	}
+
+	@Test
+	public void an_idle_writer_wakes_up_for_the_next_record() throws Exception {
+		AsyncAuditLog auditLog = new AsyncAuditLog(new File(folder.getRoot(), "audit.log"), 16);
+		try {
+			Booking booking = new Booking("G1", MembershipType.STANDARD);
+			for (int i = 1; i <= 3; i++) {
+				// long enough for the writer to have parked
+				Thread.sleep(50);
+				assertTrue(auditLog.record(BookingTransition.waiting(booking), i));
+				long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+				while (auditLog.getWritten() < i && System.nanoTime() < deadline) {
+					Thread.yield();
+				}
+				assertEquals(i, auditLog.getWritten());
+			}
+		} finally {
+			auditLog.close();
+		}
+	}
+}
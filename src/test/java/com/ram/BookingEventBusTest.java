@@ -0,0 +1,146 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ram.BookingEventBus.OverflowPolicy;
+import com.ram.BookingService.BookingEventListener;
+
+/**
+ * @author Ram
+ *
+ */
+public class BookingEventBusTest {
+	private BookingEventBus bus;
+
+	@After
+	public void tearDown() {
+		bus.shutdown();
+	}
+
+	@Test
+	public void events_reach_each_listener_in_publish_order() throws Exception {
+		bus = new BookingEventBus(16, OverflowPolicy.BLOCK);
+		RecordingListener listener = new RecordingListener(0, 3);
+		bus.subscribe(listener);
+		Booking b1 = new Booking("G1"), b2 = new Booking("G2"), b3 = new Booking("G3");
+		bus.publish(Arrays.asList(b1, b2));
+		bus.publish(Collections.singletonList(b3));
+		assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(b1, b2, b3), listener.received);
+		// the delivered counter moves once the listener call returns
+		long deadline = System.currentTimeMillis() + 5000;
+		while (bus.getDelivered(listener) < 3 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(3, bus.getDelivered(listener));
+	}
+
+	@Test
+	public void slow_listener_does_not_hold_up_publisher_or_other_listeners() throws Exception {
+		bus = new BookingEventBus(4, OverflowPolicy.DROP_OLDEST);
+		RecordingListener slow = new RecordingListener(10000, 1);
+		RecordingListener fast = new RecordingListener(0, 1);
+		bus.subscribe(slow);
+		bus.subscribe(fast);
+		Booking last = null;
+		long start = System.nanoTime();
+		for (int i = 0; i < 10; i++) {
+			last = new Booking("G" + i);
+			bus.publish(Collections.singletonList(last));
+		}
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+		assertTrue(fast.done.await(5, TimeUnit.SECONDS));
+		// drop oldest always keeps the newest event
+		awaitDelivered(fast, last);
+		// the slow one is stuck on its first event, everything it could not
+		// buffer was dropped
+		assertTrue(slow.done.await(5, TimeUnit.SECONDS));
+		assertEquals(0, bus.getDelivered(slow));
+		assertEquals(10, bus.getLag(slow) + bus.getDropped(slow));
+	}
+
+	@Test
+	public void coalesce_queues_a_booking_only_once() throws Exception {
+		bus = new BookingEventBus(4, OverflowPolicy.COALESCE);
+		RecordingListener slow = new RecordingListener(10000, 1);
+		bus.subscribe(slow);
+		Booking first = new Booking("G1");
+		bus.publish(Collections.singletonList(first));
+		assertTrue(slow.done.await(5, TimeUnit.SECONDS));
+
+		Booking booking = new Booking("G2");
+		bus.publish(Arrays.asList(booking, booking, booking));
+		// the first booking is still being delivered
+		assertEquals(2, bus.getLag(slow));
+		assertEquals(2, bus.getDropped(slow));
+	}
+
+	@Test
+	public void blocked_publisher_that_gives_up_counts_the_rest_as_dropped() throws Exception {
+		bus = new BookingEventBus(2, OverflowPolicy.BLOCK);
+		RecordingListener slow = new RecordingListener(10000, 1);
+		bus.subscribe(slow);
+		bus.publish(Collections.singletonList(new Booking("G0")));
+		assertTrue(slow.done.await(5, TimeUnit.SECONDS));
+
+		Thread publisher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				bus.publish(Arrays.asList(new Booking("G1"), new Booking("G2"), new Booking("G3"),
+						new Booking("G4"), new Booking("G5")));
+			}
+		});
+		publisher.start();
+		// two fit into the ring, then it waits for the listener
+		long deadline = System.currentTimeMillis() + 5000;
+		while (publisher.getState() != Thread.State.WAITING) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+		publisher.interrupt();
+		publisher.join(5000);
+
+		assertEquals(3, bus.getDropped(slow));
+		assertEquals(6, bus.getLag(slow) + bus.getDropped(slow) + bus.getDelivered(slow));
+	}
+
+	private void awaitDelivered(RecordingListener listener, Booking booking) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (bus.getLag(listener) > 0 || !listener.received.contains(booking)) {
+			assertTrue("not delivered: " + booking, System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private static class RecordingListener implements BookingEventListener {
+		final List<Booking> received = new CopyOnWriteArrayList<>();
+		final CountDownLatch done;
+		final long delayMillis;
+
+		RecordingListener(long delayMillis, int expected) {
+			this.delayMillis = delayMillis;
+			this.done = new CountDownLatch(expected);
+		}
+
+		@Override
+		public void updated(Booking booking) {
+			received.add(booking);
+			done.countDown();
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
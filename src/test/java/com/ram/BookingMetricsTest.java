@@ -0,0 +1,107 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ram.BookingService.BookingEventListener;
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * @author Ram
+ *
+ */
+public class BookingMetricsTest {
+	private DefaultBookingService bookingService;
+
+	@Before
+	public void setUp() {
+		Map<String, Room> roomCache = new LinkedHashMap<>();
+		RoomType[] roomTypes = { RoomType.PLATINUM, RoomType.GOLD, RoomType.STANDARD };
+		for (int i = 0; i < roomTypes.length; i++) {
+			Room room = new Room();
+			room.setRoomNo("R" + (i + 1));
+			room.setType(roomTypes[i]);
+			roomCache.put(room.getRoomNo(), room);
+		}
+		Map<String, Guest> guestCache = new LinkedHashMap<>();
+		for (String guestId : new String[] { "P1", "P2", "S1", "S2" }) {
+			Guest guest = new Guest();
+			guest.setGuestId(guestId);
+			guest.setMemType(guestId.startsWith("P") ? MembershipType.PLATINUM : MembershipType.STANDARD);
+			guestCache.put(guestId, guest);
+		}
+		// no waiting time, so waiting guests are promoted by the next sweep
+		bookingService = new DefaultBookingService(0, new DefaultGuestService(guestCache), new DefaultRoomService(
+				roomCache), new PriorityBasedRoomMembershipTypesConverter());
+	}
+
+	@After
+	public void tearDown() {
+		bookingService.shutdown();
+	}
+
+	@Test
+	public void measures_check_ins_check_outs_and_waiting_guests() throws Exception {
+		BookingMetrics metrics = bookingService.getMetrics();
+		bookingService.subscribeToBookingEvents(new BookingEventListener() {
+			@Override
+			public void updated(Booking booking) {
+			}
+		});
+		bookingService.checkIn("P1");
+		bookingService.checkIn("P2");
+		bookingService.checkIn("S1");
+		bookingService.checkIn("S2");
+		assertEquals(4, metrics.getCheckInLatency().getCount());
+		assertEquals(1, metrics.getUpgrades(MembershipType.PLATINUM, RoomType.GOLD));
+		assertEquals(0, metrics.getUpgrades(MembershipType.PLATINUM, RoomType.PLATINUM));
+		assertEquals(1, metrics.getWaitingDepth(MembershipType.STANDARD));
+		assertTrue(metrics.getLockWait().getCount() >= 4);
+		assertEquals(metrics.getLockWait().getCount(), metrics.getLockHold().getCount());
+
+		while (metrics.getPromotions() == 0) {
+			Thread.sleep(10);
+		}
+		bookingService.checkOut("R3");
+		assertEquals(1, metrics.getCheckOutLatency().getCount());
+		assertEquals(1, metrics.getTimeToRoom().getCount());
+		assertEquals(0, metrics.getWaitingDepth(MembershipType.STANDARD));
+		while (metrics.getListenerDispatch().getCount() == 0) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void reporters_get_the_flattened_metrics() throws Exception {
+		bookingService.checkIn("P1");
+		bookingService.checkIn("P2");
+
+		InMemoryMetricsReporter inMemory = new InMemoryMetricsReporter();
+		bookingService.reportMetrics(inMemory);
+		assertEquals(2L, inMemory.get("checkIn.latency.count"));
+		assertEquals(1L, inMemory.get("upgrades.PLATINUM.GOLD"));
+		assertNull(inMemory.get("upgrades.PLATINUM.PLATINUM"));
+		assertEquals(0, inMemory.get("waiting.depth.GOLD"));
+
+		JmxMetricsReporter jmx = new JmxMetricsReporter("com.ram:type=BookingService,name=metrics-test");
+		try {
+			bookingService.reportMetrics(jmx);
+			assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(
+					new ObjectName("com.ram:type=BookingService,name=metrics-test"),
+					"checkIn.latency.count"));
+			assertEquals(inMemory.getLastReport().size(), jmx.getMBeanInfo().getAttributes().length);
+		} finally {
+			jmx.unregister();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ram.Booking.BookingStatus;
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * @author Ram
+ *
+ */
+public class BookingSnapshotTest {
+	private static final long START = 1000000000000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<DefaultBookingService> services = new ArrayList<>();
+
+	@After
+	public void tearDown() {
+		for (DefaultBookingService service : services) {
+			service.shutdown();
+		}
+	}
+
+	@Test
+	public void restored_service_has_the_same_bookings_and_waiting_lists() throws Exception {
+		VirtualBookingClock clock = new VirtualBookingClock(START);
+		DefaultBookingService primary = newService(2, 1, clock);
+		// 2 standard rooms and 1 gold room
+		Booking g1 = primary.checkIn("S1");
+		primary.checkIn("S2");
+		primary.checkIn("S3");
+		primary.checkIn("G1");
+		clock.advance(2, TimeUnit.SECONDS);
+		primary.checkIn("S4");
+		primary.checkIn("P1");
+		assertEquals(BookingStatus.PRIORITY_WAITING, primary.getWaitingList().iterator().next().getStatus());
+
+		File file = folder.newFile("hotel.snap");
+		primary.captureSnapshot().write(file);
+		BookingSnapshot snapshot = BookingSnapshot.read(file);
+		assertEquals(START + 2000, snapshot.getCapturedAt());
+		assertEquals(3, snapshot.getBooked());
+		assertEquals(3, snapshot.getWaiting());
+
+		DefaultBookingService standby = newService(2, 1, new VirtualBookingClock(START + 2000));
+		standby.restore(snapshot);
+		assertEquals(primary.getOccupancyRatio(), standby.getOccupancyRatio(), 0);
+		assertEquals(describe(primary.getWaitingList()), describe(standby.getWaitingList()));
+
+		// both pick the promoted guest for the next standard room
+		primary.checkOut(g1.getRoomNo());
+		standby.checkOut(g1.getRoomNo());
+		assertEquals(describe(primary.getWaitingList()), describe(standby.getWaitingList()));
+		assertEquals(primary.getOccupancyRatio(), standby.getOccupancyRatio(), 0);
+	}
+
+	@Test
+	public void snapshot_is_not_changed_by_later_check_ins_and_check_outs() throws Exception {
+		DefaultBookingService service = newService(5000, 0, new VirtualBookingClock(START));
+		List<Booking> booked = new ArrayList<>();
+		for (int i = 1; i <= 5000; i++) {
+			booked.add(service.checkIn("S" + i));
+		}
+		BookingSnapshot snapshot = service.captureSnapshot();
+		// every page gets written after the capture
+		for (Booking booking : booked) {
+			service.checkOut(booking.getRoomNo());
+		}
+		service.checkIn("S1");
+		assertEquals(5000, snapshot.getBooked());
+		assertEquals(0, snapshot.getWaiting());
+
+		File file = folder.newFile("hotel.snap");
+		snapshot.write(file);
+		DefaultBookingService standby = newService(5000, 0, new VirtualBookingClock(START));
+		standby.restore(BookingSnapshot.read(file));
+		assertEquals(100, standby.getOccupancyRatio(), 0);
+		assertEquals(BookingStatus.WAITING, standby.checkIn("S5001").getStatus());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void restore_needs_a_fresh_service() throws Exception {
+		DefaultBookingService service = newService(2, 0, new VirtualBookingClock(START));
+		service.checkIn("S1");
+		service.restore(service.captureSnapshot());
+	}
+
+	private DefaultBookingService newService(int standardRooms, int goldRooms, BookingClock clock) {
+		Map<String, Room> roomCache = new LinkedHashMap<>();
+		for (int i = 1; i <= standardRooms + goldRooms; i++) {
+			Room room = new Room();
+			room.setRoomNo("R" + i);
+			room.setType(i <= standardRooms ? RoomType.STANDARD : RoomType.GOLD);
+			roomCache.put(room.getRoomNo(), room);
+		}
+		Map<String, Guest> guestCache = new LinkedHashMap<>();
+		for (int i = 1; i <= standardRooms + 10; i++) {
+			addGuest(guestCache, "S" + i, MembershipType.STANDARD);
+			addGuest(guestCache, "G" + i, MembershipType.GOLD);
+			addGuest(guestCache, "P" + i, MembershipType.PLATINUM);
+		}
+		DefaultBookingService service = new DefaultBookingService(1, new DefaultGuestService(guestCache),
+				new DefaultRoomService(roomCache), new PriorityBasedRoomMembershipTypesConverter(), clock);
+		services.add(service);
+		return service;
+	}
+
+	private static void addGuest(Map<String, Guest> guestCache, String guestId, MembershipType memType) {
+		Guest guest = new Guest();
+		guest.setGuestId(guestId);
+		guest.setMemType(memType);
+		guestCache.put(guestId, guest);
+	}
+
+	private static List<String> describe(Iterable<Booking> bookings) {
+		List<String> described = new ArrayList<>();
+		for (Booking booking : bookings) {
+			described.add(booking.getBookingId() + " " + booking.getGuestId() + " " + booking.getStatus() + " "
+					+ booking.getCreatedTime());
+		}
+		return described;
+	}
+}
@@ -0,0 +1,49 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.ram.Booking.BookingStatus;
+import com.ram.Guest.MembershipType;
+
+/**
+ * @author Ram
+ *
+ */
+public class BookingTest {
+
+	@Test
+	public void illegal_transitions_throw_and_leave_the_booking_alone() {
+		Booking booking = new Booking("G1", MembershipType.GOLD, 0);
+		try {
+			booking.checkOut();
+			fail();
+		} catch (IllegalStateException e) {
+			// never had a room
+		}
+		booking.promote();
+		try {
+			booking.promote();
+			fail();
+		} catch (IllegalStateException e) {
+			// already on the priority waiting list
+		}
+		booking.confirm("R1");
+		Booking.State confirmed = booking.getState();
+		try {
+			booking.confirm("R2");
+			fail();
+		} catch (IllegalStateException e) {
+			// already in a room
+		}
+		assertSame(confirmed, booking.getState());
+		assertEquals("R1", booking.getRoomNo());
+
+		booking.checkOut();
+		assertEquals(BookingStatus.CHECKEDOUT, booking.getStatus());
+		assertEquals("R1", booking.getRoomNo());
+		// promoted, confirmed and checked out
+		assertEquals(3, booking.getState().getVersion());
+	}
+}
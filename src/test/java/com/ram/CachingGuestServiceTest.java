@@ -0,0 +1,141 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.ram.Guest.MembershipType;
+
+/**
+ * Runs the cache against a slow in-process stand-in for the guest database.
+ *
+ * @author Ram
+ *
+ */
+public class CachingGuestServiceTest {
+
+	@Test
+	public void concurrent_misses_for_one_guest_load_it_once() throws Exception {
+		SlowGuestService backend = new SlowGuestService(100);
+		final CachingGuestService guestService = new CachingGuestService(backend, 100, 1, TimeUnit.MINUTES);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<Guest>> results = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			results.add(executor.submit(new Callable<Guest>() {
+				@Override
+				public Guest call() {
+					return guestService.getGuest("G1");
+				}
+			}));
+		}
+		for (Future<Guest> result : results) {
+			assertEquals("GuestName1", result.get(5, TimeUnit.SECONDS).getName());
+		}
+		executor.shutdown();
+
+		assertEquals(1, backend.calls.get());
+		assertEquals(1, guestService.getLoadCount());
+		assertEquals(8, guestService.getHitCount() + guestService.getMissCount());
+		assertTrue(guestService.getAverageLoadNanos() >= TimeUnit.MILLISECONDS.toNanos(100));
+
+		guestService.getGuest("G1");
+		assertEquals(1, backend.calls.get());
+		assertNull(guestService.getGuest("G100"));
+		assertEquals(2, backend.calls.get());
+	}
+
+	@Test
+	public void evicts_least_recently_used_and_expired_guests() throws Exception {
+		SlowGuestService backend = new SlowGuestService(0);
+		CachingGuestService guestService = new CachingGuestService(backend, 2, 200, TimeUnit.MILLISECONDS);
+
+		guestService.getGuest("G1");
+		guestService.getGuest("G2");
+		guestService.getGuest("G1");
+		// G2 is the least recently used one
+		guestService.getGuest("G3");
+		assertEquals(1, guestService.getEvictionCount());
+		assertEquals(3, backend.calls.get());
+		guestService.getGuest("G1");
+		assertEquals(3, backend.calls.get());
+		guestService.getGuest("G2");
+		assertEquals(4, backend.calls.get());
+
+		Thread.sleep(300);
+		guestService.getGuest("G2");
+		assertEquals(5, backend.calls.get());
+	}
+
+	@Test
+	public void batch_lookup_only_loads_the_missing_guests() {
+		SlowGuestService backend = new SlowGuestService(0);
+		CachingGuestService guestService = new CachingGuestService(backend, 100, 1, TimeUnit.MINUTES);
+		guestService.getGuest("G1");
+
+		Map<String, Guest> guests = guestService.getGuests(Arrays.asList("G1", "G2", "G3", "G100"));
+		assertEquals(3, guests.size());
+		assertEquals(Arrays.asList("G2", "G3", "G100"), backend.lastBatch);
+		assertSame(guests.get("G2"), guestService.getGuest("G2"));
+		assertEquals(2 / 6.0, guestService.getHitRatio(), 0.000001);
+	}
+
+	/**
+	 * Stand-in for a remote guest database, every call takes a while.
+	 */
+	private static class SlowGuestService implements GuestService {
+		private final DefaultGuestService guests;
+		private final long latencyMillis;
+		private final AtomicInteger calls = new AtomicInteger();
+		private volatile List<String> lastBatch;
+
+		SlowGuestService(long latencyMillis) {
+			this.latencyMillis = latencyMillis;
+			Map<String, Guest> cache = new LinkedHashMap<>();
+			for (int i = 1; i <= 10; i++) {
+				Guest guest = new Guest();
+				guest.setGuestId("G" + i);
+				guest.setMemType(MembershipType.STANDARD);
+				guest.setName("GuestName" + i);
+				cache.put(guest.getGuestId(), guest);
+			}
+			guests = new DefaultGuestService(cache);
+		}
+
+		@Override
+		public Guest getGuest(String guestId) {
+			calls.incrementAndGet();
+			sleep();
+			return guests.getGuest(guestId);
+		}
+
+		@Override
+		public Map<String, Guest> getGuests(Collection<String> guestIds) {
+			calls.incrementAndGet();
+			lastBatch = new ArrayList<>(guestIds);
+			sleep();
+			return guests.getGuests(guestIds);
+		}
+
+		private void sleep() {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -3,12 +3,21 @@ package com.ram;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
@@ -16,6 +25,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.ram.Booking.BookingStatus;
+import com.ram.BookingService.BatchBookingEventListener;
 import com.ram.BookingService.BookingEventListener;
 import com.ram.Guest.MembershipType;
 import com.ram.Room.RoomType;
@@ -24,8 +34,8 @@ import com.ram.Room.RoomType;
  * Considering this is an interview test, to save some time, I made a few
  * compromises:
  * <p>
- * 1. Used Thread.sleep in couple of places to keep tests simple, in real
- * projects I strive hard to avoid them.
+ * 1. Waiting guests are promoted on a VirtualBookingClock, the tests move it
+ * forward instead of sleeping.
  * <p>
  * 2. Used some tests without stubbing to keep tests easy to understand.
  * 
@@ -34,6 +44,8 @@ import com.ram.Room.RoomType;
  */
 public class DefaultBookingServiceTest {
 	private static final double EPSILON = 0.000001;
+	// promotions run on a VirtualBookingClock starting here
+	private static final long START = 1000000000000L;
 	private DefaultRoomService roomService;
 	private DefaultGuestService guestService;
 	private BookingService bookingService;
@@ -173,6 +185,28 @@ public class DefaultBookingServiceTest {
 		assertEquals(10d, bookingService.getOccupancyRatio(), EPSILON);
 	}
 
+	@Test
+	public void reserved_guest_gets_another_room_when_a_walk_in_holds_the_reserved_one() {
+		DefaultBookingService localBookingService = new DefaultBookingService(20, guestService, roomService,
+				converter);
+		bookingService = localBookingService;
+
+		assertEquals("R3", localBookingService.checkInToRoom("G1", "R3").getRoomNo());
+		// the walk-in gets the first free room
+		assertEquals("R1", bookingService.checkIn("G2").getRoomNo());
+		Booking booking = localBookingService.checkInToRoom("G3", "R1");
+		assertEquals(BookingStatus.CONFIRMED, booking.getStatus());
+		assertEquals("R2", booking.getRoomNo());
+		bookingService.checkIn("G4");
+		bookingService.checkIn("G5");
+
+		// no standard room left, the reserved guest waits like everybody else
+		booking = localBookingService.checkInToRoom("G1", "R3");
+		assertEquals(BookingStatus.WAITING, booking.getStatus());
+		assertEquals(1, bookingService.getWaitingList().size());
+		assertEquals(50d, bookingService.getOccupancyRatio(), EPSILON);
+	}
+
 	@Test
 	public void checkout_triggers_checkin_of_guest_in_waiting_list() throws InterruptedException {
 		Map<String, Guest> localGuestCache = getDefaultGuestCache();
@@ -222,7 +256,8 @@ public class DefaultBookingServiceTest {
 	public void move_the_longest_waiting_guest_into_priority_waiting_list() throws InterruptedException {
 		DefaultGuestService localGuestService = mock(DefaultGuestService.class);
 		DefaultRoomService localRoomService = mock(DefaultRoomService.class);
-		bookingService = new DefaultBookingService(1, localGuestService, localRoomService, converter);
+		VirtualBookingClock clock = new VirtualBookingClock(START);
+		bookingService = new DefaultBookingService(1, localGuestService, localRoomService, converter, clock);
 
 		Guest guest11 = new Guest();
 		guest11.setGuestId("G11");
@@ -231,7 +266,7 @@ public class DefaultBookingServiceTest {
 		when(localGuestService.getGuest(guest11.getGuestId())).thenReturn(guest11);
 
 		Booking booking1 = bookingService.checkIn(guest11.getGuestId());
-		Thread.sleep(2000);
+		clock.advance(2, TimeUnit.SECONDS);
 		assertEquals(BookingStatus.PRIORITY_WAITING, booking1.getStatus());
 	}
 
@@ -240,7 +275,8 @@ public class DefaultBookingServiceTest {
 			throws Exception {
 		DefaultGuestService localGuestService = mock(DefaultGuestService.class);
 		DefaultRoomService localRoomService = mock(DefaultRoomService.class);
-		bookingService = new DefaultBookingService(1, localGuestService, localRoomService, converter);
+		VirtualBookingClock clock = new VirtualBookingClock(START);
+		bookingService = new DefaultBookingService(1, localGuestService, localRoomService, converter, clock);
 
 		// checkout a standard room
 		Room room1 = new Room();
@@ -264,7 +300,7 @@ public class DefaultBookingServiceTest {
 		when(localGuestService.getGuest(guest2.getGuestId())).thenReturn(guest2);
 
 		Booking booking1 = bookingService.checkIn(guest2.getGuestId());
-		Thread.sleep(2000);
+		clock.advance(2, TimeUnit.SECONDS);
 		assertEquals(BookingStatus.PRIORITY_WAITING, booking1.getStatus());
 
 		Guest guest3 = new Guest();
@@ -287,7 +323,8 @@ public class DefaultBookingServiceTest {
 			throws Exception {
 		DefaultGuestService localGuestService = mock(DefaultGuestService.class);
 		DefaultRoomService localRoomService = mock(DefaultRoomService.class);
-		bookingService = new DefaultBookingService(1, localGuestService, localRoomService, converter);
+		VirtualBookingClock clock = new VirtualBookingClock(START);
+		bookingService = new DefaultBookingService(1, localGuestService, localRoomService, converter, clock);
 
 		// checkout a standard room
 		Room room1 = new Room();
@@ -311,7 +348,7 @@ public class DefaultBookingServiceTest {
 		when(localGuestService.getGuest(guest2.getGuestId())).thenReturn(guest2);
 
 		Booking booking1 = bookingService.checkIn(guest2.getGuestId());
-		Thread.sleep(2000);
+		clock.advance(2, TimeUnit.SECONDS);
 		assertEquals(BookingStatus.PRIORITY_WAITING, booking1.getStatus());
 
 		Guest guest3 = new Guest();
@@ -333,7 +370,8 @@ public class DefaultBookingServiceTest {
 	public void get_waiting_list_details() throws Exception {
 		DefaultGuestService localGuestService = mock(DefaultGuestService.class);
 		DefaultRoomService localRoomService = mock(DefaultRoomService.class);
-		bookingService = new DefaultBookingService(1, localGuestService, localRoomService, converter);
+		VirtualBookingClock clock = new VirtualBookingClock(START);
+		bookingService = new DefaultBookingService(1, localGuestService, localRoomService, converter, clock);
 
 		// no more rooms left
 		when(localRoomService.reserveRoom(RoomType.STANDARD)).thenReturn(null);
@@ -343,7 +381,7 @@ public class DefaultBookingServiceTest {
 		when(localGuestService.getGuest(guest2.getGuestId())).thenReturn(guest2);
 
 		Booking booking1 = bookingService.checkIn(guest2.getGuestId());
-		Thread.sleep(2000);
+		clock.advance(2, TimeUnit.SECONDS);
 		assertEquals(BookingStatus.PRIORITY_WAITING, booking1.getStatus());
 
 		Guest guest3 = new Guest();
@@ -361,8 +399,212 @@ public class DefaultBookingServiceTest {
 		Booking second = iter.next();
 
 		assertEquals(BookingStatus.PRIORITY_WAITING, first.getStatus());
-		assertTrue(first.getCreated().before(new Date()));
+		assertEquals(START, first.getCreatedTime());
 		assertEquals(BookingStatus.WAITING, second.getStatus());
-		assertTrue(second.getCreated().before(new Date()));
+		assertEquals(START + 2000, second.getCreatedTime());
+	}
+
+	@Test
+	public void concurrent_checkins_and_checkouts_across_tiers_never_double_book() throws Exception {
+		Map<String, Guest> localGuestCache = new LinkedHashMap<>();
+		for (int i = 1; i <= 60; i++) {
+			Guest guest = new Guest();
+			guest.setGuestId("G" + i);
+			guest.setMemType(MembershipType.values()[i % MembershipType.values().length]);
+			localGuestCache.put(guest.getGuestId(), guest);
+		}
+		final BookingService localBookingService = new DefaultBookingService(20, new DefaultGuestService(
+				localGuestCache), roomService, converter);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<Booking>> checkIns = new ArrayList<>();
+		for (final String guestId : localGuestCache.keySet()) {
+			checkIns.add(executor.submit(new Callable<Booking>() {
+				@Override
+				public Booking call() throws Exception {
+					return localBookingService.checkIn(guestId);
+				}
+			}));
+		}
+		Set<String> bookedRooms = new HashSet<>();
+		for (Future<Booking> checkIn : checkIns) {
+			Booking booking = checkIn.get();
+			if (booking.getStatus() == BookingStatus.CONFIRMED)
+				assertTrue("double booked " + booking.getRoomNo(), bookedRooms.add(booking.getRoomNo()));
+		}
+		assertEquals(10, bookedRooms.size());
+		assertEquals(50, localBookingService.getWaitingList().size());
+		assertEquals(100d, localBookingService.getOccupancyRatio(), EPSILON);
+
+		// every check-out hands the room to somebody from the waiting list
+		final CountDownLatch checkOutLatch = new CountDownLatch(10);
+		for (final String roomNo : bookedRooms) {
+			executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					localBookingService.checkOut(roomNo);
+					checkOutLatch.countDown();
+				}
+			});
+		}
+		assertTrue(checkOutLatch.await(10, TimeUnit.SECONDS));
+		executor.shutdown();
+		assertEquals(40, localBookingService.getWaitingList().size());
+		assertEquals(100d, localBookingService.getOccupancyRatio(), EPSILON);
+	}
+
+	@Test
+	public void batch_checkin_assigns_rooms_like_single_checkins() {
+		bookingService = new DefaultBookingService(20, guestService, roomService, converter);
+
+		List<Booking> bookings = bookingService.checkInAll(Arrays.asList("G9", "G10", "G9", "G1", "G2", "G3", "G4",
+				"G5", "G1"));
+		assertEquals(9, bookings.size());
+		assertEquals("R9", bookings.get(0).getRoomNo());
+		assertEquals("R10", bookings.get(1).getRoomNo());
+		// platinum guest upgraded into a gold room, like a single check-in
+		assertEquals("R6", bookings.get(2).getRoomNo());
+		assertEquals("R5", bookings.get(7).getRoomNo());
+		assertEquals(BookingStatus.WAITING, bookings.get(8).getStatus());
+		assertEquals(1, bookingService.getWaitingList().size());
+		assertEquals(80d, bookingService.getOccupancyRatio(), EPSILON);
+	}
+
+	@Test
+	public void default_batch_calls_go_one_by_one() {
+		final DefaultBookingService delegate = new DefaultBookingService(20, guestService, roomService, converter);
+		final List<String> checkedOut = new ArrayList<>();
+		// a BookingService written before the batch calls existed
+		bookingService = new BookingService() {
+			@Override
+			public Booking checkIn(String guestId) {
+				return delegate.checkIn(guestId);
+			}
+
+			@Override
+			public void checkOut(String roomNo) {
+				checkedOut.add(roomNo);
+				delegate.checkOut(roomNo);
+			}
+
+			@Override
+			public void subscribeToBookingEvents(BookingEventListener listener) {
+			}
+
+			@Override
+			public void unsubscribeFromBookingEvents(BookingEventListener listener) {
+			}
+
+			@Override
+			public double getOccupancyRatio() {
+				return delegate.getOccupancyRatio();
+			}
+
+			@Override
+			public Collection<Booking> getWaitingList() {
+				return delegate.getWaitingList();
+			}
+		};
+
+		List<Booking> bookings = bookingService.checkInAll(Arrays.asList("G9", "G10", "G1"));
+		assertEquals(Arrays.asList("R9", "R10", "R1"),
+				Arrays.asList(bookings.get(0).getRoomNo(), bookings.get(1).getRoomNo(), bookings.get(2).getRoomNo()));
+		assertEquals(Arrays.asList(null, null), bookingService.checkOutAll(Arrays.asList("R10", "R1")));
+		assertEquals(Arrays.asList("R10", "R1"), checkedOut);
+		assertEquals(10d, bookingService.getOccupancyRatio(), EPSILON);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void batch_checkin_rejects_unknown_guest_before_booking_anyone() {
+		bookingService = new DefaultBookingService(20, guestService, roomService, converter);
+
+		try {
+			bookingService.checkInAll(Arrays.asList("G1", "G99"));
+		} finally {
+			assertEquals(0d, bookingService.getOccupancyRatio(), EPSILON);
+		}
+	}
+
+	@Test
+	public void batch_checkout_confirms_waiting_guests_in_one_event() throws InterruptedException {
+		bookingService = new DefaultBookingService(20, guestService, roomService, converter);
+		bookingService.checkInAll(Arrays.asList("G1", "G2", "G3", "G4", "G5"));
+		List<Booking> waiting = bookingService.checkInAll(Arrays.asList("G1", "G2"));
+
+		final List<List<Booking>> events = new CopyOnWriteArrayList<>();
+		final CountDownLatch eventLatch = new CountDownLatch(1);
+		bookingService.subscribeToBookingEvents(new BatchBookingEventListener() {
+			@Override
+			public void updated(Booking booking) {
+				fail("batch listener should get one updatedAll call");
+			}
+
+			@Override
+			public void updatedAll(List<Booking> bookings) {
+				events.add(bookings);
+				eventLatch.countDown();
+			}
+		});
+
+		List<Booking> checkedOut = bookingService.checkOutAll(Arrays.asList("R1", "R2", "R7"));
+		assertEquals(BookingStatus.CHECKEDOUT, checkedOut.get(0).getStatus());
+		assertEquals(BookingStatus.CHECKEDOUT, checkedOut.get(1).getStatus());
+		assertNull(checkedOut.get(2));
+		assertTrue(eventLatch.await(5, TimeUnit.SECONDS));
+		assertEquals(1, events.size());
+		assertEquals(waiting, events.get(0));
+		assertEquals("R1", waiting.get(0).getRoomNo());
+		assertEquals("R2", waiting.get(1).getRoomNo());
+		assertEquals(0, bookingService.getWaitingList().size());
+	}
+
+	@Test
+	public void waiting_list_snapshot_does_not_change_under_the_reader() {
+		bookingService = new DefaultBookingService(20, guestService, roomService, converter);
+		bookingService.checkInAll(Arrays.asList("G1", "G2", "G3", "G4", "G5"));
+		List<Booking> waiting = bookingService.checkInAll(Arrays.asList("G1", "G2", "G3"));
+
+		Collection<Booking> before = bookingService.getWaitingList();
+		assertEquals(waiting, new ArrayList<>(before));
+		Iterator<Booking> iter = before.iterator();
+		assertEquals(waiting.get(0), iter.next());
+
+		bookingService.checkOut("R1");
+		bookingService.checkIn("G4");
+		// the snapshot we are walking is untouched, no CME either
+		assertEquals(waiting.get(1), iter.next());
+		assertEquals(waiting.get(2), iter.next());
+		assertFalse(iter.hasNext());
+		assertEquals(3, before.size());
+
+		List<Booking> after = new ArrayList<>(bookingService.getWaitingList());
+		assertEquals(3, after.size());
+		assertEquals(waiting.subList(1, 3), after.subList(0, 2));
+		assertEquals("G4", after.get(2).getGuestId());
+		assertEquals(50.0, bookingService.getOccupancyRatio(), EPSILON);
+	}
+
+	@Test
+	public void every_transition_publishes_a_new_booking_version() {
+		bookingService = new DefaultBookingService(20, guestService, roomService, converter);
+		bookingService.checkInAll(Arrays.asList("G1", "G2", "G3", "G4"));
+		Booking leaving = bookingService.checkIn("G5");
+		Booking waiting = bookingService.checkIn("G1");
+		Booking.State waitingState = waiting.getState();
+		assertEquals(BookingStatus.WAITING, waitingState.getStatus());
+		assertEquals(0, waitingState.getVersion());
+		assertEquals(1, leaving.getState().getVersion());
+
+		bookingService.checkOut(leaving.getRoomNo());
+		assertEquals(BookingStatus.CHECKEDOUT, leaving.getState().getStatus());
+		assertEquals("R5", leaving.getState().getRoomNo());
+		assertEquals(2, leaving.getState().getVersion());
+		Booking.State confirmed = waiting.getState();
+		assertEquals(BookingStatus.CONFIRMED, confirmed.getStatus());
+		assertEquals("R5", confirmed.getRoomNo());
+		assertEquals(1, confirmed.getVersion());
+		// what a reader got before is a consistent, unchanged version
+		assertEquals(BookingStatus.WAITING, waitingState.getStatus());
+		assertNull(waitingState.getRoomNo());
 	}
 }
@@ -0,0 +1,38 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author Ram
+ *
+ */
+public class IdInternerTest {
+
+	@Test
+	public void handles_are_dense_and_stable() {
+		IdInterner interner = new IdInterner();
+		assertEquals(0, interner.intern("R1"));
+		assertEquals(1, interner.intern("G1"));
+		assertEquals(0, interner.intern(new String("R1")));
+		assertEquals(1, interner.indexOf("G1"));
+		assertEquals(-1, interner.indexOf("R2"));
+		assertEquals(-1, interner.indexOf(null));
+		assertEquals("G1", interner.idOf(1));
+		assertEquals(2, interner.size());
+	}
+
+	@Test
+	public void keeps_every_id_while_growing() {
+		IdInterner interner = new IdInterner(4);
+		for (int i = 0; i < 100000; i++) {
+			assertEquals(i, interner.intern("R" + i));
+		}
+		for (int i = 0; i < 100000; i++) {
+			assertEquals(i, interner.indexOf("R" + i));
+			assertEquals("R" + i, interner.idOf(i));
+		}
+		assertEquals(-1, interner.indexOf("R100000"));
+	}
+}
@@ -0,0 +1,65 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author Ram
+ *
+ */
+public class IntFifoSetTest {
+
+	@Test
+	public void removing_a_value_that_is_not_there_changes_nothing() {
+		IntFifoSet set = new IntFifoSet(4);
+		assertFalse(set.remove(2));
+		set.addLast(1);
+		set.addLast(3);
+		assertFalse(set.remove(2));
+		assertTrue(set.remove(1));
+		assertFalse(set.remove(1));
+		assertEquals(1, set.size());
+		assertEquals("[3]", set.toString());
+		assertEquals(3, set.pollFirst());
+		assertEquals(-1, set.pollFirst());
+		assertFalse(set.remove(3));
+		assertEquals(0, set.size());
+	}
+
+	@Test
+	public void adding_a_value_twice_keeps_its_place() {
+		IntFifoSet set = new IntFifoSet(4);
+		assertTrue(set.addLast(2));
+		assertTrue(set.addLast(0));
+		assertFalse(set.addLast(2));
+		assertFalse(set.addLast(0));
+		assertEquals(2, set.size());
+		assertEquals("[2, 0]", set.toString());
+		assertTrue(set.contains(0));
+		assertFalse(set.contains(1));
+	}
+
+	@Test
+	public void a_removed_value_added_again_goes_to_the_back() {
+		IntFifoSet set = IntFifoSet.full(5);
+		assertEquals("[0, 1, 2, 3, 4]", set.toString());
+		// from the middle, the front and the back
+		assertTrue(set.remove(2));
+		assertTrue(set.addLast(2));
+		assertEquals("[0, 1, 3, 4, 2]", set.toString());
+		assertTrue(set.remove(0));
+		assertTrue(set.addLast(0));
+		assertTrue(set.remove(0));
+		assertTrue(set.addLast(0));
+		assertEquals("[1, 3, 4, 2, 0]", set.toString());
+		assertEquals(1, set.pollFirst());
+		assertTrue(set.addLast(1));
+		assertEquals("[3, 4, 2, 0, 1]", set.toString());
+		for (int expected : new int[] { 3, 4, 2, 0, 1 }) {
+			assertEquals(expected, set.pollFirst());
+		}
+		assertEquals(-1, set.pollFirst());
+		assertEquals("[]", IntFifoSet.full(0).toString());
+	}
+}
@@ -0,0 +1,43 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author Ram
+ *
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void percentiles_are_within_the_bucket_precision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 100000; value++) {
+			histogram.record(value * 1000);
+		}
+		assertEquals(100000, histogram.getCount());
+		assertEquals(100000000, histogram.getMax());
+		assertEquals(50000500, histogram.getMean(), 1);
+		assertWithinBucket(50000000, histogram.getValueAtPercentile(50));
+		assertWithinBucket(99000000, histogram.getValueAtPercentile(99));
+		assertEquals(100000000, histogram.getValueAtPercentile(100));
+		assertEquals(0, new LatencyHistogram().getValueAtPercentile(99));
+	}
+
+	@Test
+	public void buckets_cover_every_value() {
+		long previous = -1;
+		for (int bucket = 0; bucket <= LatencyHistogram.bucketOf(Long.MAX_VALUE); bucket++) {
+			long highest = LatencyHistogram.highestValueOf(bucket);
+			assertEquals(bucket, LatencyHistogram.bucketOf(previous + 1));
+			assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+			previous = highest;
+		}
+		assertEquals(Long.MAX_VALUE, previous);
+	}
+
+	private static void assertWithinBucket(long expected, long actual) {
+		assertTrue(actual + " is not within 12.5% of " + expected, Math.abs(actual - expected) <= expected / 8);
+	}
+}
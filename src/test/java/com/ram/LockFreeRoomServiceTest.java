@@ -0,0 +1,102 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ram.Room.RoomType;
+
+/**
+ * @author Ram
+ *
+ */
+public class LockFreeRoomServiceTest {
+	private LockFreeRoomService roomService;
+
+	@Before
+	public void setUp() throws Exception {
+		roomService = new LockFreeRoomService(getRoomsCache(200));
+	}
+
+	private Map<String, Room> getRoomsCache(int size) {
+		Map<String, Room> roomCache = new LinkedHashMap<>(size);
+		for (int i = 1; i <= size; i++) {
+			Room room = new Room();
+			room.setRoomNo("R" + i);
+			room.setType(i <= size / 2 ? RoomType.STANDARD : RoomType.GOLD);
+			roomCache.put(room.getRoomNo(), room);
+		}
+		return roomCache;
+	}
+
+	@Test
+	public void rooms_are_reserved_in_the_order_they_were_given() {
+		assertEquals("R1", roomService.reserveRoom(RoomType.STANDARD).getRoomNo());
+		assertEquals("R2", roomService.reserveRoom(RoomType.STANDARD).getRoomNo());
+		assertEquals("R101", roomService.reserveRoom(RoomType.GOLD).getRoomNo());
+	}
+
+	@Test
+	public void freed_room_is_reserved_again() {
+		roomService.reserveRoom(RoomType.STANDARD);
+		roomService.reserveRoom(RoomType.STANDARD);
+		roomService.freeUpRoom("R1");
+		assertEquals("R1", roomService.reserveRoom(RoomType.STANDARD).getRoomNo());
+	}
+
+	@Test
+	public void no_room_when_type_is_exhausted() {
+		assertFalse(roomService.isRoomAvailable(RoomType.PLATINUM));
+		assertNull(roomService.reserveRoom(RoomType.PLATINUM));
+		for (int i = 0; i < 100; i++) {
+			assertNotNull(roomService.reserveRoom(RoomType.GOLD));
+		}
+		assertFalse(roomService.isRoomAvailable(RoomType.GOLD));
+		assertNull(roomService.reserveRoom(RoomType.GOLD));
+	}
+
+	@Test
+	public void concurrent_reserve_and_free_never_hand_out_a_room_twice() throws Exception {
+		final Set<String> held = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final AtomicInteger doubleBooked = new AtomicInteger();
+		int threads = 8;
+		final CountDownLatch done = new CountDownLatch(threads);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 20000; i++) {
+						Room room = roomService.reserveRoom(RoomType.STANDARD);
+						if (room == null)
+							continue;
+						if (!held.add(room.getRoomNo()))
+							doubleBooked.incrementAndGet();
+						held.remove(room.getRoomNo());
+						roomService.freeUpRoom(room.getRoomNo());
+					}
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		executor.shutdown();
+		assertEquals(0, doubleBooked.get());
+		for (int i = 0; i < 100; i++) {
+			assertNotNull(roomService.reserveRoom(RoomType.STANDARD));
+		}
+		assertNull(roomService.reserveRoom(RoomType.STANDARD));
+	}
+}
@@ -0,0 +1,236 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * Restart tests: whatever a journaled service did, a fresh service recovered
+ * from the journal must end up with the same bookings and waiting lists.
+ *
+ * @author Ram
+ *
+ */
+public class MappedBookingJournalTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final RoomMembershipTypesConverter converter = new PriorityBasedRoomMembershipTypesConverter();
+	private File directory;
+	private List<MappedBookingJournal> journals = new ArrayList<>();
+	private List<DefaultBookingService> services = new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		directory = folder.newFolder("journal");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (DefaultBookingService service : services) {
+			service.shutdown();
+		}
+		for (MappedBookingJournal journal : journals) {
+			journal.close();
+		}
+	}
+
+	@Test
+	public void recovered_service_has_the_same_bookings_and_waiting_lists() throws Exception {
+		MappedBookingJournal journal = openJournal(1 << 20);
+		// no waiting time, so the first sweep promotes everybody waiting
+		VirtualBookingClock clock = new VirtualBookingClock(0);
+		DefaultBookingService service = newService(0, journal, clock);
+		service.checkInAll(Arrays.asList("G1", "G2", "G3", "G4", "G5", "G6", "G7", "G8"));
+		clock.advance(1, TimeUnit.SECONDS);
+		journal.awaitDurable(journal.lastSequence());
+		for (Booking waiting : service.getWaitingList()) {
+			assertEquals(Booking.BookingStatus.PRIORITY_WAITING, waiting.getStatus());
+		}
+		service.checkIn("G9");
+		service.checkIn("G10");
+		service.checkOut("R1");
+		service.checkOut("R4");
+		service.shutdown();
+		journal.close();
+
+		DefaultBookingService recovered = newService(1000, openJournal(1 << 20));
+		recovered.recover(journals.get(1));
+
+		assertSameState(service, recovered);
+	}
+
+	@Test
+	public void recovery_starts_from_the_latest_snapshot() throws Exception {
+		// tiny segments, so the journal rolls over a few times
+		MappedBookingJournal journal = openJournal(256);
+		DefaultBookingService service = newService(1000, journal);
+		service.checkInAll(Arrays.asList("G1", "G2", "G3", "G4", "G5", "G6"));
+		service.checkOut("R2");
+		service.writeSnapshot(journal);
+		assertEquals(1, directory.list().length - countSegments());
+		// the first segments are covered by the snapshot
+		assertFalse(new File(directory, String.format("journal-%020d.log", 1)).exists());
+		service.checkIn("G7");
+		service.checkOut("R3");
+		service.checkIn("G8");
+		service.shutdown();
+		journal.close();
+
+		DefaultBookingService recovered = newService(1000, openJournal(256));
+		recovered.recover(journals.get(1));
+
+		assertSameState(service, recovered);
+	}
+
+	@Test
+	public void appends_after_a_restart_go_after_the_recovered_records() throws Exception {
+		MappedBookingJournal journal = openJournal(1 << 20);
+		DefaultBookingService service = newService(1000, journal);
+		service.checkInAll(Arrays.asList("G1", "G2", "G3"));
+		service.shutdown();
+		journal.close();
+
+		journal = openJournal(1 << 20);
+		DefaultBookingService restarted = newService(1000, journal);
+		restarted.recover(journal);
+		restarted.checkIn("G4");
+		restarted.shutdown();
+		journal.close();
+
+		DefaultBookingService recovered = newService(1000, openJournal(1 << 20));
+		recovered.recover(journals.get(2));
+
+		assertEquals(100, recovered.getOccupancyRatio(), 0);
+		assertSameState(restarted, recovered);
+	}
+
+	@Test
+	public void snapshots_written_while_guests_check_in_do_not_corrupt_the_journal() throws Exception {
+		final MappedBookingJournal journal = openJournal(1 << 16);
+		final DefaultBookingService service = newService(1000, journal);
+		final AtomicBoolean done = new AtomicBoolean();
+		final List<Exception> errors = new CopyOnWriteArrayList<>();
+		Runnable snapshots = new Runnable() {
+			@Override
+			public void run() {
+				while (!done.get()) {
+					try {
+						service.writeSnapshot(journal);
+					} catch (Exception e) {
+						errors.add(e);
+					}
+				}
+			}
+		};
+		Thread first = new Thread(snapshots);
+		Thread second = new Thread(snapshots);
+		first.start();
+		second.start();
+		try {
+			for (int i = 0; i < 1000; i++) {
+				service.checkIn("G" + (i % 10 + 1));
+				service.checkOut("R" + (i % 4 + 1));
+			}
+			service.checkInAll(Arrays.asList("G1", "G2", "G3"));
+		} finally {
+			done.set(true);
+			first.join();
+			second.join();
+		}
+		assertEquals(Collections.emptyList(), errors);
+		service.shutdown();
+		journal.close();
+
+		DefaultBookingService recovered = newService(1000, openJournal(1 << 16));
+		recovered.recover(journals.get(1));
+
+		assertSameState(service, recovered);
+	}
+
+	private void assertSameState(DefaultBookingService expected, DefaultBookingService actual) {
+		assertEquals(expected.getOccupancyRatio(), actual.getOccupancyRatio(), 0.000001);
+		assertEquals(describe(new ArrayList<>(expected.getWaitingList())),
+				describe(new ArrayList<>(actual.getWaitingList())));
+		List<String> rooms = new ArrayList<>(getRoomsCache().keySet());
+		assertEquals(describe(expected.checkOutAll(rooms)), describe(actual.checkOutAll(rooms)));
+	}
+
+	private static List<String> describe(List<Booking> bookings) {
+		List<String> description = new ArrayList<>();
+		for (Booking booking : bookings) {
+			description.add(booking == null ? null : booking.getBookingId() + "/" + booking.getGuestId() + "/"
+					+ booking.getStatus() + "/" + booking.getCreatedTime());
+		}
+		return description;
+	}
+
+	private int countSegments() {
+		int segments = 0;
+		for (String name : directory.list()) {
+			if (name.startsWith("journal-"))
+				segments++;
+		}
+		return segments;
+	}
+
+	private MappedBookingJournal openJournal(int segmentSize) throws Exception {
+		MappedBookingJournal journal = new MappedBookingJournal(directory, segmentSize, true);
+		journals.add(journal);
+		return journal;
+	}
+
+	private DefaultBookingService newService(int maxWaitingTime, MappedBookingJournal journal) {
+		return newService(maxWaitingTime, journal, new SystemBookingClock());
+	}
+
+	private DefaultBookingService newService(int maxWaitingTime, MappedBookingJournal journal, BookingClock clock) {
+		DefaultBookingService service = new DefaultBookingService(maxWaitingTime, new DefaultGuestService(
+				getGuestCache()), new DefaultRoomService(getRoomsCache()), converter, new BookingEventBus(16,
+				BookingEventBus.OverflowPolicy.BLOCK), journal, null, clock);
+		services.add(service);
+		return service;
+	}
+
+	private static Map<String, Room> getRoomsCache() {
+		Map<String, Room> roomCache = new LinkedHashMap<>();
+		for (int i = 1; i <= 4; i++) {
+			Room room = new Room();
+			room.setRoomNo("R" + i);
+			room.setType(i <= 2 ? RoomType.STANDARD : i == 3 ? RoomType.GOLD : RoomType.PLATINUM);
+			roomCache.put(room.getRoomNo(), room);
+		}
+		return roomCache;
+	}
+
+	private static Map<String, Guest> getGuestCache() {
+		Map<String, Guest> guestCache = new LinkedHashMap<>();
+		for (int i = 1; i <= 10; i++) {
+			Guest guest = new Guest();
+			guest.setGuestId("G" + i);
+			guest.setMemType(i % 3 == 0 ? MembershipType.PLATINUM : i % 3 == 1 ? MembershipType.STANDARD
+					: MembershipType.GOLD);
+			guest.setName("GuestName" + i);
+			guestCache.put(guest.getGuestId(), guest);
+		}
+		return guestCache;
+	}
+}
@@ -0,0 +1,72 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ram.Guest.MembershipType;
+
+/**
+ * @author Ram
+ *
+ */
+public class OffHeapGuestServiceTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void loads_guests_from_a_flat_file() throws Exception {
+		File file = folder.newFile("guests.csv");
+		Files.write(file.toPath(), Arrays.asList("G1,STANDARD,Anna", "", "G22,PLATINUM,Smith, John", "G3,GOLD,"),
+				StandardCharsets.UTF_8);
+		OffHeapGuestService guestService = OffHeapGuestService.load(file);
+
+		assertEquals(3, guestService.size());
+		Guest guest = guestService.getGuest("G22");
+		assertEquals("G22", guest.getGuestId());
+		assertEquals(MembershipType.PLATINUM, guest.getMemType());
+		assertEquals("Smith, John", guest.getName());
+		assertEquals("", guestService.getGuest("G3").getName());
+		assertNull(guestService.getGuest("G2"));
+		assertNull(guestService.getGuest("G1234567"));
+		assertNull(guestService.getGuest(null));
+	}
+
+	@Test
+	public void getGuest_reuses_the_view_but_getGuests_copies() {
+		Map<String, Guest> cache = new LinkedHashMap<>();
+		for (int i = 1; i <= 1000; i++) {
+			Guest guest = new Guest();
+			guest.setGuestId("G" + i);
+			guest.setMemType(MembershipType.values()[i % 3]);
+			guest.setName("GuestName" + i);
+			cache.put(guest.getGuestId(), guest);
+		}
+		OffHeapGuestService guestService = new OffHeapGuestService(cache);
+
+		Guest first = guestService.getGuest("G1");
+		Guest second = guestService.getGuest("G2");
+		assertSame(first, second);
+		assertEquals("GuestName2", first.getName());
+		try {
+			first.setName("Changed");
+			fail("Views are read-only");
+		} catch (UnsupportedOperationException expected) {
+		}
+
+		Map<String, Guest> guests = guestService.getGuests(Arrays.asList("G999", "G1000", "G1001"));
+		assertEquals(2, guests.size());
+		assertNotSame(guests.get("G999"), guests.get("G1000"));
+		assertEquals(MembershipType.values()[999 % 3], guests.get("G999").getMemType());
+		assertEquals("GuestName1000", guests.get("G1000").getName());
+	}
+}
@@ -0,0 +1,200 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ram.Booking.BookingStatus;
+import com.ram.BookingEventBus.OverflowPolicy;
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * Primary and replicas in one JVM, over loopback.
+ *
+ * @author Ram
+ *
+ */
+public class ReplicationTest {
+	private static final long START = 1000000000000L;
+	private static final int GUESTS_PER_WORKER = 50;
+
+	private final List<DefaultBookingService> services = new ArrayList<>();
+	private final List<Closeable> closeables = new ArrayList<>();
+
+	@After
+	public void tearDown() throws Exception {
+		for (Closeable closeable : closeables) {
+			closeable.close();
+		}
+		for (DefaultBookingService service : services) {
+			service.shutdown();
+		}
+	}
+
+	@Test
+	public void replica_answers_reads_like_the_primary() throws Exception {
+		VirtualBookingClock clock = new VirtualBookingClock(START);
+		ReplicationPublisher publisher = new ReplicationPublisher(100000);
+		DefaultBookingService primary = newService(2, 1, clock, publisher);
+		InetSocketAddress address = listen(publisher, primary);
+
+		primary.checkIn("S1");
+		primary.checkIn("S2");
+		Booking s3 = primary.checkIn("S3");
+		BookingReplica replica = replicate(newService(2, 1, new VirtualBookingClock(START), null), address);
+		DefaultBookingService standby = services.get(1);
+		assertTrue(replica.awaitSequence(publisher.lastSequence(), 10, TimeUnit.SECONDS));
+		assertEquals(200 / 3.0, standby.getOccupancyRatio(), 0.001);
+
+		// the promotion happens on the primary only
+		clock.advance(2, TimeUnit.SECONDS);
+		assertEquals(BookingStatus.PRIORITY_WAITING, s3.getStatus());
+		primary.checkIn("G1");
+		primary.checkIn("G2");
+		assertTrue(replica.awaitSequence(publisher.lastSequence(), 10, TimeUnit.SECONDS));
+		assertEquals(100, standby.getOccupancyRatio(), 0);
+		assertEquals(describe(primary.getWaitingList()), describe(standby.getWaitingList()));
+		assertEquals(BookingStatus.PRIORITY_WAITING, standby.getWaitingList().iterator().next().getStatus());
+
+		primary.checkOut("R1");
+		assertTrue(replica.awaitSequence(publisher.lastSequence(), 10, TimeUnit.SECONDS));
+		assertEquals(describe(primary.getWaitingList()), describe(standby.getWaitingList()));
+		assertEquals(100, standby.getOccupancyRatio(), 0);
+	}
+
+	@Test
+	public void replicas_joining_under_load_end_up_with_the_primary_state() throws Exception {
+		final VirtualBookingClock clock = new VirtualBookingClock(START);
+		ReplicationPublisher publisher = new ReplicationPublisher(1000000);
+		final DefaultBookingService primary = newService(40, 20, clock, publisher);
+		InetSocketAddress address = listen(publisher, primary);
+		BookingReplica early = replicate(newService(40, 20, new VirtualBookingClock(START), null), address);
+
+		int workers = 4;
+		Thread[] threads = new Thread[workers];
+		for (int w = 0; w < workers; w++) {
+			final int worker = w;
+			threads[w] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					churn(primary, worker, 3000);
+				}
+			});
+			threads[w].start();
+		}
+		// a replica joins mid-stream and the sweeper promotes meanwhile
+		Thread.sleep(20);
+		BookingReplica late = replicate(newService(40, 20, new VirtualBookingClock(START), null), address);
+		for (int i = 0; i < 10; i++) {
+			clock.advance(1, TimeUnit.MINUTES);
+			Thread.sleep(5);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		long last = publisher.lastSequence();
+		assertTrue(early.awaitSequence(last, 30, TimeUnit.SECONDS));
+		assertTrue(late.awaitSequence(last, 30, TimeUnit.SECONDS));
+		assertEquals(2, publisher.getReplicas());
+		for (DefaultBookingService standby : services.subList(1, 3)) {
+			assertEquals(primary.getOccupancyRatio(), standby.getOccupancyRatio(), 0);
+			assertEquals(describe(primary.getWaitingList()), describe(standby.getWaitingList()));
+		}
+	}
+
+	/**
+	 * Checks the worker's own guests in and out at random, so no two threads
+	 * touch the same booking.
+	 */
+	private static void churn(DefaultBookingService service, int worker, int requests) {
+		Random random = new Random(worker);
+		String[] prefixes = { "S", "G", "P" };
+		List<String> idle = new ArrayList<>();
+		for (int i = 1; i <= GUESTS_PER_WORKER; i++) {
+			idle.add(prefixes[i % 3] + (worker * GUESTS_PER_WORKER + i));
+		}
+		List<Booking> staying = new ArrayList<>();
+		for (int i = 0; i < requests; i++) {
+			if (!idle.isEmpty() && (staying.isEmpty() || random.nextBoolean())) {
+				staying.add(service.checkIn(idle.remove(random.nextInt(idle.size()))));
+				continue;
+			}
+			// waiting guests can't leave, pick one with a room
+			for (int tries = 0; tries < staying.size(); tries++) {
+				Booking booking = staying.get(random.nextInt(staying.size()));
+				if (booking.getStatus() == BookingStatus.CONFIRMED) {
+					service.checkOut(booking.getRoomNo());
+					staying.remove(booking);
+					idle.add(booking.getGuestId());
+					break;
+				}
+			}
+		}
+	}
+
+	private InetSocketAddress listen(ReplicationPublisher publisher, DefaultBookingService primary)
+			throws Exception {
+		closeables.add(publisher);
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		int port = publisher.listen(primary, new InetSocketAddress(loopback, 0));
+		return new InetSocketAddress(loopback, port);
+	}
+
+	private BookingReplica replicate(DefaultBookingService standby, InetSocketAddress address) throws Exception {
+		BookingReplica replica = new BookingReplica(standby, address);
+		// closed before the publisher
+		closeables.add(0, replica);
+		return replica;
+	}
+
+	private DefaultBookingService newService(int standardRooms, int goldRooms, BookingClock clock,
+			BookingJournal journal) {
+		Map<String, Room> roomCache = new LinkedHashMap<>();
+		for (int i = 1; i <= standardRooms + goldRooms; i++) {
+			Room room = new Room();
+			room.setRoomNo("R" + i);
+			room.setType(i <= standardRooms ? RoomType.STANDARD : RoomType.GOLD);
+			roomCache.put(room.getRoomNo(), room);
+		}
+		Map<String, Guest> guestCache = new LinkedHashMap<>();
+		for (int i = 1; i <= 4 * GUESTS_PER_WORKER; i++) {
+			addGuest(guestCache, "S" + i, MembershipType.STANDARD);
+			addGuest(guestCache, "G" + i, MembershipType.GOLD);
+			addGuest(guestCache, "P" + i, MembershipType.PLATINUM);
+		}
+		DefaultBookingService service = new DefaultBookingService(1, new DefaultGuestService(guestCache),
+				new DefaultRoomService(roomCache), new PriorityBasedRoomMembershipTypesConverter(), new BookingEventBus(1024,
+						OverflowPolicy.BLOCK), journal, null, clock);
+		services.add(service);
+		return service;
+	}
+
+	private static void addGuest(Map<String, Guest> guestCache, String guestId, MembershipType memType) {
+		Guest guest = new Guest();
+		guest.setGuestId(guestId);
+		guest.setMemType(memType);
+		guestCache.put(guestId, guest);
+	}
+
+	private static List<String> describe(Iterable<Booking> bookings) {
+		List<String> described = new ArrayList<>();
+		for (Booking booking : bookings) {
+			described.add(booking.getBookingId() + " " + booking.getGuestId() + " " + booking.getStatus() + " "
+					+ booking.getCreatedTime());
+		}
+		return described;
+	}
+}
@@ -0,0 +1,107 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * @author Ram
+ *
+ */
+public class RequestExecutorsTest {
+
+	@Test
+	public void virtual_threads_exactly_when_the_jdk_has_them() {
+		assertEquals(Runtime.version().feature() >= 21, RequestExecutors.isVirtual());
+	}
+
+	@Test
+	public void without_virtual_threads_the_platform_threads_are_bounded() throws Exception {
+		Assume.assumeFalse(RequestExecutors.isVirtual());
+		final int tasks = 50;
+		final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		final CountDownLatch done = new CountDownLatch(tasks);
+		ExecutorService executor = RequestExecutors.newPerRequestExecutor(4);
+		try {
+			for (int i = 0; i < tasks; i++) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						threads.add(Thread.currentThread());
+						LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+						done.countDown();
+					}
+				});
+			}
+			assertTrue(done.await(30, TimeUnit.SECONDS));
+			assertEquals(4, threads.size());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void all_sessions_run_at_once_without_sizing_a_pool() throws Exception {
+		final int sessions = 1000;
+		Map<String, Room> roomCache = new LinkedHashMap<>();
+		for (int i = 1; i <= 100; i++) {
+			Room room = new Room();
+			room.setRoomNo("R" + i);
+			room.setType(RoomType.STANDARD);
+			roomCache.put(room.getRoomNo(), room);
+		}
+		Map<String, Guest> guestCache = new LinkedHashMap<>();
+		for (int i = 1; i <= sessions; i++) {
+			Guest guest = new Guest();
+			guest.setGuestId("G" + i);
+			guest.setMemType(MembershipType.STANDARD);
+			guestCache.put(guest.getGuestId(), guest);
+		}
+		final DefaultBookingService bookingService = new DefaultBookingService(100,
+				new DefaultGuestService(guestCache), new DefaultRoomService(roomCache),
+				new PriorityBasedRoomMembershipTypesConverter());
+
+		// every session waits until all of them are running, a smaller pool
+		// would never get there. Virtual threads don't care about the bound.
+		final CountDownLatch allStarted = new CountDownLatch(sessions);
+		final CountDownLatch done = new CountDownLatch(sessions);
+		ExecutorService executor = RequestExecutors.newPerRequestExecutor(sessions);
+		try {
+			for (int i = 1; i <= sessions; i++) {
+				final String guestId = "G" + i;
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						allStarted.countDown();
+						try {
+							allStarted.await();
+							bookingService.checkIn(guestId);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						done.countDown();
+					}
+				});
+			}
+			assertTrue(done.await(30, TimeUnit.SECONDS));
+			assertEquals(100.0, bookingService.getOccupancyRatio(), 0.000001);
+			assertEquals(sessions - 100, bookingService.getWaitingList().size());
+		} finally {
+			executor.shutdown();
+			bookingService.shutdown();
+		}
+	}
+}
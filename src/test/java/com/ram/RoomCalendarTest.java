@@ -0,0 +1,128 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.ram.Booking.BookingStatus;
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * @author Ram
+ *
+ */
+public class RoomCalendarTest {
+	private static final LocalDate DAY = LocalDate.of(2030, 1, 1);
+
+	@Test
+	public void finds_rooms_free_for_every_night() {
+		RoomCalendar calendar = new RoomCalendar(DAY, 10, rooms(RoomType.STANDARD, 2));
+		assertEquals("STANDARD-0", calendar.reserve(RoomType.STANDARD, DAY, DAY.plusDays(2)));
+		assertEquals("STANDARD-1", calendar.reserve(RoomType.STANDARD, DAY.plusDays(1), DAY.plusDays(3)));
+		assertNull(calendar.findFreeRoom(RoomType.STANDARD, DAY.plusDays(1), DAY.plusDays(2)));
+		// the first guest leaves on the morning of the 3rd
+		assertEquals("STANDARD-0", calendar.findFreeRoom(RoomType.STANDARD, DAY.plusDays(2), DAY.plusDays(5)));
+		assertNull(calendar.findFreeRoom(RoomType.GOLD, DAY, DAY.plusDays(1)));
+		assertFalse(calendar.reserve("STANDARD-1", DAY, DAY.plusDays(2)));
+		assertTrue(calendar.isFree("STANDARD-1", DAY, DAY.plusDays(1)));
+
+		calendar.cancel("STANDARD-1", DAY.plusDays(1), DAY.plusDays(3));
+		assertTrue(calendar.isFree("STANDARD-1", DAY, DAY.plusDays(10)));
+		try {
+			calendar.findFreeRoom(RoomType.STANDARD, DAY, DAY.plusDays(11));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// beyond the window
+		}
+
+		// the window moves on, the nights that come in at the end are free
+		calendar.advanceTo(DAY.plusDays(1));
+		assertFalse(calendar.isFree("STANDARD-0", DAY.plusDays(1), DAY.plusDays(2)));
+		assertTrue(calendar.reserve("STANDARD-0", DAY.plusDays(2), DAY.plusDays(11)));
+		calendar.advanceTo(DAY.plusDays(6));
+		assertEquals("STANDARD-1", calendar.findFreeRoom(RoomType.STANDARD, DAY.plusDays(6), DAY.plusDays(16)));
+		assertTrue(calendar.isFree("STANDARD-0", DAY.plusDays(11), DAY.plusDays(16)));
+	}
+
+	@Test
+	public void searches_a_year_of_a_large_property() {
+		int rooms = 100000;
+		RoomCalendar calendar = new RoomCalendar(DAY, 365, rooms(RoomType.STANDARD, rooms));
+		// every room but the last is taken for one night somewhere in the year
+		for (int i = 0; i < rooms - 1; i++) {
+			LocalDate night = DAY.plusDays(i % 365);
+			assertTrue(calendar.reserve("STANDARD-" + i, night, night.plusDays(1)));
+		}
+		for (int i = 0; i < 100; i++) {
+			assertEquals("STANDARD-" + (rooms - 1),
+					calendar.findFreeRoom(RoomType.STANDARD, DAY, DAY.plusDays(365)));
+		}
+		assertEquals("STANDARD-364", calendar.findFreeRoom(RoomType.STANDARD, DAY, DAY.plusDays(364)));
+	}
+
+	@Test
+	public void reserved_guests_are_checked_in_on_arrival() {
+		List<Room> rooms = rooms(RoomType.STANDARD, 2);
+		Map<String, Room> roomCache = new LinkedHashMap<>();
+		for (Room room : rooms) {
+			roomCache.put(room.getRoomNo(), room);
+		}
+		Map<String, Guest> guestCache = new LinkedHashMap<>();
+		for (int i = 1; i <= 4; i++) {
+			Guest guest = new Guest();
+			guest.setGuestId("G" + i);
+			guest.setMemType(MembershipType.STANDARD);
+			guestCache.put(guest.getGuestId(), guest);
+		}
+		GuestService guestService = new DefaultGuestService(guestCache);
+		RoomMembershipTypesConverter rules = new PriorityBasedRoomMembershipTypesConverter();
+		DefaultBookingService bookingService = new DefaultBookingService(100, guestService, new DefaultRoomService(
+				roomCache), rules);
+		AdvanceReservations reservations = new AdvanceReservations(new RoomCalendar(DAY, 30, rooms),
+				guestService, rules, bookingService);
+		try {
+			Reservation first = reservations.reserve("G1", DAY.plusDays(1), DAY.plusDays(3));
+			Reservation second = reservations.reserve("G2", DAY.plusDays(1), DAY.plusDays(3));
+			assertEquals("STANDARD-0", first.getRoomNo());
+			assertEquals("STANDARD-1", second.getRoomNo());
+			assertNull(reservations.reserve("G3", DAY.plusDays(2), DAY.plusDays(4)));
+			assertTrue(reservations.cancel(second.getReservationId()));
+			assertFalse(reservations.cancel(second.getReservationId()));
+			Reservation third = reservations.reserve("G3", DAY.plusDays(2), DAY.plusDays(4));
+			assertEquals("STANDARD-1", third.getRoomNo());
+
+			assertTrue(reservations.checkInArrivals(DAY).isEmpty());
+			List<Booking> arrived = reservations.checkInArrivals(DAY.plusDays(1));
+			assertEquals(1, arrived.size());
+			assertEquals("STANDARD-0", arrived.get(0).getRoomNo());
+
+			// a walk-in takes the room reserved for tomorrow
+			assertEquals("STANDARD-1", bookingService.checkIn("G4").getRoomNo());
+			arrived = reservations.checkInArrivals(DAY.plusDays(2));
+			assertEquals(Arrays.asList("G3"), Arrays.asList(arrived.get(0).getGuestId()));
+			assertEquals(BookingStatus.WAITING, arrived.get(0).getStatus());
+			assertNull(reservations.getReservation(third.getReservationId()));
+		} finally {
+			bookingService.shutdown();
+		}
+	}
+
+	private static List<Room> rooms(RoomType roomType, int count) {
+		List<Room> rooms = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Room room = new Room();
+			room.setRoomNo(roomType + "-" + i);
+			room.setType(roomType);
+			rooms.add(room);
+		}
+		return rooms;
+	}
+}
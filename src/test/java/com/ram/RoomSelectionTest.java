@@ -0,0 +1,146 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * @author Ram
+ *
+ */
+public class RoomSelectionTest {
+
+	@Test
+	public void least_recently_used_hands_out_the_room_free_the_longest() {
+		DefaultRoomService roomService = new DefaultRoomService(rooms(1, 1, 1), RoomSelection.LEAST_RECENTLY_USED);
+		assertEquals("R1", roomService.reserveRoom(RoomType.STANDARD).getRoomNo());
+		assertEquals("R2", roomService.reserveRoom(RoomType.STANDARD).getRoomNo());
+		assertEquals("R3", roomService.reserveRoom(RoomType.STANDARD).getRoomNo());
+		roomService.freeUpRoom("R2");
+		roomService.freeUpRoom("R1");
+		assertEquals("R2", roomService.reserveRoom(RoomType.STANDARD).getRoomNo());
+		assertEquals("R1", roomService.reserveRoom(RoomType.STANDARD).getRoomNo());
+		assertNull(roomService.reserveRoom(RoomType.STANDARD));
+	}
+
+	@Test
+	public void floor_clustered_fills_a_floor_before_moving_to_the_emptiest_one() {
+		// floor 1: R1-R2, floor 2: R3-R5, floor 3: R6
+		DefaultRoomService roomService = new DefaultRoomService(rooms(1, 1, 2, 2, 2, 3),
+				RoomSelection.FLOOR_CLUSTERED);
+		List<String> picked = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			picked.add(roomService.reserveRoom(RoomType.STANDARD).getRoomNo());
+		}
+		assertEquals(List.of("R3", "R4", "R5", "R1"), picked);
+
+		roomService.freeUpRoom("R3");
+		roomService.freeUpRoom("R4");
+		// still filling floor 1
+		assertEquals("R2", roomService.reserveRoom(RoomType.STANDARD).getRoomNo());
+		assertEquals("R3", roomService.reserveRoom(RoomType.STANDARD).getRoomNo());
+		assertNotNull(roomService.reserveRoom("R6"));
+		assertEquals("R4", roomService.reserveRoom(RoomType.STANDARD).getRoomNo());
+		assertFalse(roomService.isRoomAvailable(RoomType.STANDARD));
+	}
+
+	/**
+	 * Random reserves and frees, each pick checked against a plain count of
+	 * the free rooms per floor.
+	 */
+	@Test
+	public void floor_clustered_picks_agree_with_counting_the_free_rooms() {
+		Random random = new Random(7);
+		int[] floors = new int[300];
+		for (int i = 0; i < floors.length; i++) {
+			// floors of different sizes
+			floors[i] = (int) Math.sqrt(random.nextInt(400));
+		}
+		Map<String, Room> roomCache = rooms(floors);
+		DefaultRoomService roomService = new DefaultRoomService(roomCache, RoomSelection.FLOOR_CLUSTERED);
+		Map<Integer, Integer> freeByFloor = new HashMap<>();
+		for (int floor : floors) {
+			count(freeByFloor, floor, 1);
+		}
+		List<Room> booked = new ArrayList<>();
+		int current = -1;
+		for (int i = 0; i < 20000; i++) {
+			if (booked.isEmpty() || (booked.size() < floors.length && random.nextInt(10) < 6)) {
+				Room room = roomService.reserveRoom(RoomType.STANDARD);
+				int floor = room.getFloor();
+				if (current < 0 || freeByFloor.get(current) == 0) {
+					assertEquals(Collections.max(freeByFloor.values()), freeByFloor.get(floor));
+					current = floor;
+				}
+				assertEquals(current, floor);
+				count(freeByFloor, floor, -1);
+				booked.add(room);
+			} else {
+				Room room = booked.remove(random.nextInt(booked.size()));
+				roomService.freeUpRoom(room.getRoomNo());
+				count(freeByFloor, room.getFloor(), 1);
+			}
+			assertEquals(booked.size() < floors.length, roomService.isRoomAvailable(RoomType.STANDARD));
+		}
+	}
+
+	@Test
+	public void cleaned_rooms_go_before_the_ones_waiting_for_housekeeping() {
+		Map<String, Guest> guestCache = new LinkedHashMap<>();
+		for (int i = 1; i <= 5; i++) {
+			Guest guest = new Guest();
+			guest.setGuestId("S" + i);
+			guest.setMemType(MembershipType.STANDARD);
+			guestCache.put(guest.getGuestId(), guest);
+		}
+		DefaultBookingService bookingService = new DefaultBookingService(1, new DefaultGuestService(guestCache),
+				new DefaultRoomService(rooms(1, 1, 1), RoomSelection.CLEANED_FIRST),
+				new PriorityBasedRoomMembershipTypesConverter(), new VirtualBookingClock(0));
+		try {
+			bookingService.checkIn("S1");
+			bookingService.checkIn("S2");
+			bookingService.checkIn("S3");
+			bookingService.checkOut("R1");
+			bookingService.checkOut("R2");
+			// cleaning a room somebody is in doesn't make it free
+			bookingService.roomCleaned("R3");
+			bookingService.roomCleaned("R2");
+			assertEquals("R2", bookingService.checkIn("S4").getRoomNo());
+			// no clean room left, the one checked out first
+			assertEquals("R1", bookingService.checkIn("S5").getRoomNo());
+		} finally {
+			bookingService.shutdown();
+		}
+	}
+
+	private static void count(Map<Integer, Integer> freeByFloor, int floor, int change) {
+		Integer free = freeByFloor.get(floor);
+		freeByFloor.put(floor, (free == null ? 0 : free) + change);
+	}
+
+	/**
+	 * Standard rooms R1, R2, ... on the given floors.
+	 */
+	private static Map<String, Room> rooms(int... floors) {
+		Map<String, Room> roomCache = new LinkedHashMap<>();
+		for (int i = 0; i < floors.length; i++) {
+			Room room = new Room();
+			room.setRoomNo("R" + (i + 1));
+			room.setType(RoomType.STANDARD);
+			room.setFloor(floors[i]);
+			roomCache.put(room.getRoomNo(), room);
+		}
+		return roomCache;
+	}
+}
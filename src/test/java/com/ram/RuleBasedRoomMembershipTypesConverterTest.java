@@ -0,0 +1,132 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ram.Booking.BookingStatus;
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * @author Ram
+ *
+ */
+public class RuleBasedRoomMembershipTypesConverterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void rules_file_can_express_the_priority_based_rules() throws Exception {
+		File file = folder.newFile("upgrade-rules.properties");
+		Files.write(file.toPath(), Arrays.asList("member.STANDARD = STANDARD", "member.GOLD = GOLD, STANDARD",
+				"member.PLATINUM = PLATINUM, GOLD, STANDARD"), StandardCharsets.UTF_8);
+		RoomMembershipTypesConverter rules = RuleBasedRoomMembershipTypesConverter.load(file);
+		RoomMembershipTypesConverter expected = new PriorityBasedRoomMembershipTypesConverter();
+
+		for (MembershipType memType : MembershipType.values()) {
+			assertEquals(expected.getEligibleRoomTypes(memType), rules.getEligibleRoomTypes(memType));
+			assertEquals(expected.getPriorityRoomTypes(memType), rules.getPriorityRoomTypes(memType));
+		}
+		for (RoomType roomType : RoomType.values()) {
+			assertEquals(expected.getEligibleMembershipTypes(roomType), rules.getEligibleMembershipTypes(roomType));
+			assertEquals(expected.getPriorityMembershipType(roomType), rules.getPriorityMembershipType(roomType));
+		}
+	}
+
+	@Test
+	public void booking_service_follows_custom_rules() {
+		// gold members may only upgrade, never take a standard room
+		Properties properties = new Properties();
+		properties.setProperty("member.STANDARD", "STANDARD, GOLD");
+		properties.setProperty("member.GOLD", "GOLD, PLATINUM");
+		properties.setProperty("member.PLATINUM", "PLATINUM");
+		RoomMembershipTypesConverter rules = new RuleBasedRoomMembershipTypesConverter(properties);
+		assertEquals(Arrays.asList(MembershipType.GOLD, MembershipType.STANDARD),
+				rules.getEligibleMembershipTypes(RoomType.GOLD));
+
+		Map<String, Room> roomCache = new LinkedHashMap<>();
+		for (RoomType roomType : RoomType.values()) {
+			Room room = new Room();
+			room.setRoomNo("R" + roomType.ordinal());
+			room.setType(roomType);
+			roomCache.put(room.getRoomNo(), room);
+		}
+		Map<String, Guest> guestCache = new LinkedHashMap<>();
+		for (int i = 1; i <= 3; i++) {
+			Guest guest = new Guest();
+			guest.setGuestId("G" + i);
+			guest.setMemType(i == 1 ? MembershipType.STANDARD : MembershipType.GOLD);
+			guestCache.put(guest.getGuestId(), guest);
+		}
+		DefaultBookingService bookingService = new DefaultBookingService(100, new DefaultGuestService(guestCache),
+				new DefaultRoomService(roomCache), rules);
+		try {
+			assertEquals("R0", bookingService.checkIn("G1").getRoomNo());
+			assertEquals("R1", bookingService.checkIn("G2").getRoomNo());
+			assertEquals("R2", bookingService.checkIn("G3").getRoomNo());
+			bookingService.checkOut("R0");
+			assertEquals(0, bookingService.getWaitingList().size());
+			assertEquals(2 / 3.0 * 100, bookingService.getOccupancyRatio(), 0.000001);
+		} finally {
+			bookingService.shutdown();
+		}
+	}
+
+	@Test
+	public void waiting_guests_keep_out_check_outs_of_rooms_that_only_pick_them_up() {
+		// gold rooms serve standard members from the priority list, but
+		// standard members can't get a gold room at check-in
+		Properties properties = new Properties();
+		properties.setProperty("member.STANDARD", "STANDARD");
+		properties.setProperty("member.GOLD", "GOLD");
+		properties.setProperty("member.PLATINUM", "PLATINUM");
+		properties.setProperty("priority.room.GOLD", "STANDARD");
+		RoomMembershipTypesConverter rules = new RuleBasedRoomMembershipTypesConverter(properties);
+		EligibilityTable table = EligibilityTable.compile(rules);
+		assertEquals(1 << RoomType.STANDARD.ordinal(), table.eligibleRoomTypeMask(MembershipType.STANDARD));
+		assertEquals(1 << RoomType.STANDARD.ordinal() | 1 << RoomType.GOLD.ordinal(),
+				table.waitingRoomTypeMask(MembershipType.STANDARD));
+		assertEquals(1 << RoomType.GOLD.ordinal(), table.waitingRoomTypeMask(MembershipType.GOLD));
+
+		Map<String, Room> roomCache = new LinkedHashMap<>();
+		for (RoomType roomType : RoomType.values()) {
+			Room room = new Room();
+			room.setRoomNo("R" + roomType.ordinal());
+			room.setType(roomType);
+			roomCache.put(room.getRoomNo(), room);
+		}
+		Map<String, Guest> guestCache = new LinkedHashMap<>();
+		for (int i = 1; i <= 3; i++) {
+			Guest guest = new Guest();
+			guest.setGuestId("G" + i);
+			guest.setMemType(i == 2 ? MembershipType.GOLD : MembershipType.STANDARD);
+			guestCache.put(guest.getGuestId(), guest);
+		}
+		VirtualBookingClock clock = new VirtualBookingClock(0);
+		DefaultBookingService bookingService = new DefaultBookingService(1, new DefaultGuestService(guestCache),
+				new DefaultRoomService(roomCache), rules, clock);
+		try {
+			assertEquals("R0", bookingService.checkIn("G1").getRoomNo());
+			assertEquals("R1", bookingService.checkIn("G2").getRoomNo());
+			Booking waiting = bookingService.checkIn("G3");
+			clock.advance(2, TimeUnit.SECONDS);
+			assertEquals(BookingStatus.PRIORITY_WAITING, waiting.getStatus());
+			bookingService.checkOut("R1");
+			assertEquals("R1", waiting.getRoomNo());
+		} finally {
+			bookingService.shutdown();
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+import com.ram.ShardedBookingService.RangeShardRouter;
+import com.ram.ShardedBookingService.Shard;
+
+/**
+ * Two properties, each with two standard rooms, booked through one front end.
+ *
+ * @author Ram
+ *
+ */
+public class ShardedBookingServiceTest {
+	private List<DefaultBookingService> services = new ArrayList<>();
+	private ShardedBookingService bookingService;
+
+	@Before
+	public void setUp() {
+		Map<String, Guest> guestCache = new LinkedHashMap<>();
+		for (int i = 1; i <= 6; i++) {
+			Guest guest = new Guest();
+			guest.setGuestId("G" + i);
+			guest.setMemType(MembershipType.STANDARD);
+			guestCache.put(guest.getGuestId(), guest);
+		}
+		GuestService guestService = new DefaultGuestService(guestCache);
+
+		List<Shard> shards = new ArrayList<>();
+		RangeShardRouter router = new RangeShardRouter();
+		for (int p = 1; p <= 2; p++) {
+			Map<String, Room> roomCache = new LinkedHashMap<>();
+			for (int r = 1; r <= 2; r++) {
+				Room room = new Room();
+				room.setRoomNo("P" + p + "-" + r);
+				room.setType(RoomType.STANDARD);
+				roomCache.put(room.getRoomNo(), room);
+			}
+			RoomService roomService = new DefaultRoomService(roomCache);
+			DefaultBookingService service = new DefaultBookingService(100, guestService, roomService,
+					new PriorityBasedRoomMembershipTypesConverter());
+			services.add(service);
+			shards.add(new Shard("P" + p, service, roomService));
+			router.addProperty("P" + p, "P" + p + "-", p - 1);
+		}
+		bookingService = new ShardedBookingService(shards, router);
+	}
+
+	@After
+	public void tearDown() {
+		bookingService.shutdown();
+		for (DefaultBookingService service : services) {
+			service.shutdown();
+		}
+	}
+
+	@Test
+	public void routes_by_property_and_room_number() throws Exception {
+		assertEquals("P1-1", get(bookingService.checkIn("P1", "G1")).getRoomNo());
+		assertEquals("P1-2", get(bookingService.checkIn("P1", "G2")).getRoomNo());
+		assertNull(get(bookingService.checkIn("P1", "G3")).getRoomNo());
+		assertEquals("P2-1", get(bookingService.checkIn("P2", "G4")).getRoomNo());
+
+		assertEquals(75.0, get(bookingService.getOccupancyRatio()), 0.000001);
+		assertEquals(Arrays.asList("G3"), guestIds(get(bookingService.getWaitingList())));
+
+		get(bookingService.checkOut("P1-1"));
+		// G3 was waiting at the first property and gets the room
+		assertEquals(75.0, get(bookingService.getOccupancyRatio()), 0.000001);
+		assertEquals(0, get(bookingService.getWaitingList()).size());
+		get(bookingService.checkOut("P2-1"));
+		assertEquals(50.0, get(bookingService.getOccupancyRatio()), 0.000001);
+	}
+
+	@Test
+	public void failures_complete_the_future() throws Exception {
+		try {
+			get(bookingService.checkIn("P1", "G100"));
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		try {
+			bookingService.checkIn("P3", "G1");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// unknown property is the caller's mistake
+		}
+	}
+
+	@Test
+	public void every_call_runs_on_the_shard_thread() throws Exception {
+		Shard shard = new Shard("T", services.get(0), new DefaultRoomService(new LinkedHashMap<String, Room>()));
+		String thread = get(shard.submit(new Callable<String>() {
+			@Override
+			public String call() {
+				return Thread.currentThread().getName();
+			}
+		}));
+		assertEquals("booking-shard-T", thread);
+	}
+
+	@Test
+	public void a_shard_that_falls_behind_rejects_calls() throws Exception {
+		Shard shard = new Shard("T", services.get(0), new DefaultRoomService(new LinkedHashMap<String, Room>()), 1);
+		final CountDownLatch busy = new CountDownLatch(1);
+		Callable<String> waitForIt = new Callable<String>() {
+			@Override
+			public String call() throws InterruptedException {
+				busy.await();
+				return "done";
+			}
+		};
+		Future<String> running = shard.submit(waitForIt);
+		Future<String> queued = shard.submit(waitForIt);
+		Future<String> rejected = shard.submit(waitForIt);
+		try {
+			get(rejected);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		busy.countDown();
+		assertEquals("done", get(running));
+		assertEquals("done", get(queued));
+	}
+
+	@Test
+	public void an_error_on_the_shard_thread_completes_the_future() throws Exception {
+		Shard shard = new Shard("T", services.get(0), new DefaultRoomService(new LinkedHashMap<String, Room>()));
+		try {
+			get(shard.submit(new Callable<String>() {
+				@Override
+				public String call() {
+					throw new AssertionError("boom");
+				}
+			}));
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof AssertionError);
+		}
+	}
+
+	private static <T> T get(Future<T> future) throws Exception {
+		return future.get(5, TimeUnit.SECONDS);
+	}
+
+	private static List<String> guestIds(List<Booking> bookings) {
+		List<String> guestIds = new ArrayList<>();
+		for (Booking booking : bookings) {
+			guestIds.add(booking.getGuestId());
+		}
+		return guestIds;
+	}
+}
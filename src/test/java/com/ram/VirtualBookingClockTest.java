@@ -0,0 +1,95 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.ram.Booking.BookingStatus;
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * @author Ram
+ *
+ */
+public class VirtualBookingClockTest {
+	private static final long START = 1000000000000L;
+
+	@Test
+	public void tasks_run_in_order_of_due_time_with_the_clock_at_that_time() {
+		final VirtualBookingClock clock = new VirtualBookingClock(START);
+		final List<String> runs = new ArrayList<>();
+		clock.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				runs.add("3s@" + (clock.currentTimeMillis() - START));
+			}
+		}, 3, TimeUnit.SECONDS);
+		clock.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				runs.add("2s@" + (clock.currentTimeMillis() - START));
+			}
+		}, 2, TimeUnit.SECONDS);
+
+		clock.advance(1999, TimeUnit.MILLISECONDS);
+		assertTrue(runs.isEmpty());
+		clock.advance(5, TimeUnit.SECONDS);
+		// at 6000 the 3s task was rescheduled first, at 3000
+		assertEquals(START + 6999, clock.currentTimeMillis());
+		assertEquals(List.of("2s@2000", "3s@3000", "2s@4000", "3s@6000", "2s@6000"), runs);
+
+		clock.shutdown();
+		clock.advance(1, TimeUnit.HOURS);
+		assertEquals(5, runs.size());
+	}
+
+	@Test
+	public void hours_of_waiting_guests_are_promoted_without_sleeping() {
+		Map<String, Room> roomCache = new LinkedHashMap<>();
+		Room room = new Room();
+		room.setRoomNo("R1");
+		room.setType(RoomType.STANDARD);
+		roomCache.put(room.getRoomNo(), room);
+		int waiters = 10000;
+		Map<String, Guest> guestCache = new LinkedHashMap<>();
+		for (int i = 0; i <= waiters; i++) {
+			Guest guest = new Guest();
+			guest.setGuestId("G" + i);
+			guest.setMemType(MembershipType.STANDARD);
+			guestCache.put(guest.getGuestId(), guest);
+		}
+		VirtualBookingClock clock = new VirtualBookingClock(START);
+		DefaultBookingService bookingService = new DefaultBookingService(60, new DefaultGuestService(guestCache),
+				new DefaultRoomService(roomCache), new PriorityBasedRoomMembershipTypesConverter(), clock);
+		try {
+			assertEquals(BookingStatus.CONFIRMED, bookingService.checkIn("G0").getStatus());
+			// one guest a second for almost three hours
+			List<Booking> waiting = new ArrayList<>();
+			for (int i = 1; i <= waiters; i++) {
+				clock.advance(1, TimeUnit.SECONDS);
+				waiting.add(bookingService.checkIn("G" + i));
+			}
+
+			// the last sweep ran before the last guest came, and promoted
+			// everybody who had waited a minute by then
+			assertEquals(waiters - 60, bookingService.getMetrics().getPromotions());
+			assertEquals(BookingStatus.PRIORITY_WAITING, waiting.get(waiters - 61).getStatus());
+			assertEquals(BookingStatus.WAITING, waiting.get(waiters - 60).getStatus());
+			assertEquals(START + 1000, waiting.get(0).getCreatedTime());
+
+			bookingService.checkOut("R1");
+			assertEquals(BookingStatus.CONFIRMED, waiting.get(0).getStatus());
+			assertEquals(TimeUnit.SECONDS.toNanos(waiters),
+					bookingService.getMetrics().getTimeToRoom().getMax(), TimeUnit.SECONDS.toNanos(waiters) / 8);
+		} finally {
+			bookingService.shutdown();
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.ram.Booking.BookingStatus;
+import com.ram.Guest.MembershipType;
+import com.ram.Room.RoomType;
+
+/**
+ * Randomized differential test of the waiting-list pick-up order. A plain
+ * reference model keeps every waiting guest in one list and, for every freed
+ * room, sorts the eligible ones by (priority waiting first, tier, check-in
+ * time). The service has to pick the same guest every time.
+ *
+ * @author Ram
+ *
+ */
+public class WaitingPickUpOrderTest {
+	private static final int OPERATIONS = 1500;
+
+	@Test
+	public void same_pick_up_order_as_the_reference_with_the_default_rules() throws Exception {
+		for (long seed = 1; seed <= 4; seed++) {
+			run(new PriorityBasedRoomMembershipTypesConverter(), seed);
+		}
+	}
+
+	@Test
+	public void same_pick_up_order_as_the_reference_with_cross_tier_rules() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("member.STANDARD", "STANDARD, GOLD");
+		properties.setProperty("member.GOLD", "GOLD, PLATINUM, STANDARD");
+		properties.setProperty("member.PLATINUM", "PLATINUM, GOLD");
+		// priority waiting platinum guests go first for gold rooms
+		properties.setProperty("priority.room.GOLD", "PLATINUM");
+		for (long seed = 1; seed <= 4; seed++) {
+			run(new RuleBasedRoomMembershipTypesConverter(properties), seed);
+		}
+	}
+
+	private void run(RoomMembershipTypesConverter rules, long seed) throws Exception {
+		Random random = new Random(seed);
+		Map<String, Room> roomCache = new LinkedHashMap<>();
+		for (RoomType roomType : RoomType.values()) {
+			for (int i = 1; i <= 3; i++) {
+				Room room = new Room();
+				room.setRoomNo(roomType + "-" + i);
+				room.setType(roomType);
+				roomCache.put(room.getRoomNo(), room);
+			}
+		}
+		Map<String, Guest> guestCache = new LinkedHashMap<>();
+		for (int i = 1; i <= 40; i++) {
+			Guest guest = new Guest();
+			guest.setGuestId("G" + i);
+			guest.setMemType(MembershipType.values()[random.nextInt(MembershipType.values().length)]);
+			guestCache.put(guest.getGuestId(), guest);
+		}
+		// nobody gets promoted by the sweeper, the test promotes
+		DefaultBookingService bookingService = new DefaultBookingService(1000000, new DefaultGuestService(
+				guestCache), new DefaultRoomService(roomCache), rules);
+		ReferenceHotel reference = new ReferenceHotel(rules, roomCache);
+		List<String> guestIds = new ArrayList<>(guestCache.keySet());
+		Set<String> inHotel = new HashSet<>();
+		try {
+			for (int op = 0; op < OPERATIONS; op++) {
+				int dice = random.nextInt(100);
+				String context = "seed " + seed + ", operation " + op;
+				if (dice < 45) {
+					String guestId = guestIds.get(random.nextInt(guestIds.size()));
+					if (!inHotel.add(guestId))
+						continue;
+					Booking booking = bookingService.checkIn(guestId);
+					RoomType expected = reference.checkIn(booking);
+					if (expected == null) {
+						assertEquals(context, BookingStatus.WAITING, booking.getStatus());
+					} else {
+						assertEquals(context, BookingStatus.CONFIRMED, booking.getStatus());
+						assertEquals(context, expected, roomCache.get(booking.getRoomNo()).getType());
+						reference.occupy(booking.getRoomNo(), booking);
+					}
+				} else if (dice < 85) {
+					List<String> occupied = reference.occupiedRooms();
+					if (occupied.isEmpty())
+						continue;
+					String roomNo = occupied.get(random.nextInt(occupied.size()));
+					Booking leaving = reference.occupant(roomNo);
+					Booking expected = reference.checkOut(roomNo);
+					bookingService.checkOut(roomNo);
+					assertEquals(context, BookingStatus.CHECKEDOUT, leaving.getStatus());
+					inHotel.remove(leaving.getGuestId());
+					if (expected != null) {
+						assertEquals(context, BookingStatus.CONFIRMED, expected.getStatus());
+						assertEquals(context, roomNo, expected.getRoomNo());
+					}
+				} else if (dice < 95) {
+					// promote everybody who checked in before a random waiter
+					Booking waiter = reference.randomWaiter(random);
+					if (waiter == null)
+						continue;
+					long createdBefore = waiter.getCreatedTime() - random.nextInt(2);
+					bookingService.promoteWaitingCreatedBefore(createdBefore);
+					reference.promote(createdBefore);
+				} else {
+					// spread the check-in times
+					Thread.sleep(1);
+				}
+				assertEquals(context, reference.waitingBookingIds(), bookingIds(bookingService.getWaitingList()));
+			}
+		} finally {
+			bookingService.shutdown();
+		}
+	}
+
+	private static Set<Integer> bookingIds(Iterable<Booking> bookings) {
+		Set<Integer> ids = new HashSet<>();
+		for (Booking booking : bookings) {
+			ids.add(booking.getBookingId());
+		}
+		return ids;
+	}
+
+	/**
+	 * The pick-up rules, the slow and obvious way.
+	 */
+	private static class ReferenceHotel {
+		private final RoomMembershipTypesConverter rules;
+		private final Map<String, Room> rooms;
+		private final Map<RoomType, Integer> freeRooms = new EnumMap<>(RoomType.class);
+		private final Map<String, Booking> occupants = new HashMap<>();
+		private final List<Booking> waiting = new ArrayList<>();
+		private final Set<Booking> priorityWaiting = new HashSet<>();
+
+		ReferenceHotel(RoomMembershipTypesConverter rules, Map<String, Room> rooms) {
+			this.rules = rules;
+			this.rooms = rooms;
+			for (RoomType roomType : RoomType.values()) {
+				freeRooms.put(roomType, 0);
+			}
+			for (Room room : rooms.values()) {
+				freeRooms.put(room.getType(), freeRooms.get(room.getType()) + 1);
+			}
+		}
+
+		/**
+		 * @return the room type the booking has to get, null if it has to
+		 *         wait
+		 */
+		RoomType checkIn(Booking booking) {
+			for (RoomType roomType : rules.getEligibleRoomTypes(booking.getMemType())) {
+				if (freeRooms.get(roomType) > 0) {
+					freeRooms.put(roomType, freeRooms.get(roomType) - 1);
+					return roomType;
+				}
+			}
+			waiting.add(booking);
+			return null;
+		}
+
+		void occupy(String roomNo, Booking booking) {
+			occupants.put(roomNo, booking);
+		}
+
+		Booking occupant(String roomNo) {
+			return occupants.get(roomNo);
+		}
+
+		List<String> occupiedRooms() {
+			List<String> roomNos = new ArrayList<>(occupants.keySet());
+			Collections.sort(roomNos);
+			return roomNos;
+		}
+
+		/**
+		 * @return the waiting booking that has to get the room, null if the
+		 *         room has to become free
+		 */
+		Booking checkOut(String roomNo) {
+			occupants.remove(roomNo);
+			final RoomType roomType = rooms.get(roomNo).getType();
+			List<Booking> eligible = new ArrayList<>();
+			for (Booking booking : waiting) {
+				if (rank(booking, roomType) >= 0)
+					eligible.add(booking);
+			}
+			if (eligible.isEmpty()) {
+				freeRooms.put(roomType, freeRooms.get(roomType) + 1);
+				return null;
+			}
+			Collections.sort(eligible, new Comparator<Booking>() {
+				@Override
+				public int compare(Booking a, Booking b) {
+					int byPriority = Boolean.compare(!priorityWaiting.contains(a), !priorityWaiting.contains(b));
+					if (byPriority != 0)
+						return byPriority;
+					int byTier = Integer.compare(rank(a, roomType), rank(b, roomType));
+					if (byTier != 0)
+						return byTier;
+					int byTime = Long.compare(a.getCreatedTime(), b.getCreatedTime());
+					return byTime != 0 ? byTime : Integer.compare(a.getBookingId(), b.getBookingId());
+				}
+			});
+			Booking next = eligible.get(0);
+			waiting.remove(next);
+			priorityWaiting.remove(next);
+			occupants.put(roomNo, next);
+			return next;
+		}
+
+		/**
+		 * @return position of the booking's tier in the pick-up order for the
+		 *         room type, -1 if not eligible
+		 */
+		private int rank(Booking booking, RoomType roomType) {
+			List<MembershipType> order = rules.getEligibleMembershipTypes(roomType);
+			if (priorityWaiting.contains(booking)) {
+				// the room's priority tier first, then the eligible ones
+				MembershipType priorityMemType = rules.getPriorityMembershipType(roomType);
+				if (booking.getMemType() == priorityMemType)
+					return 0;
+				int index = order.indexOf(booking.getMemType());
+				return index < 0 ? -1 : index + 1;
+			}
+			return order.indexOf(booking.getMemType());
+		}
+
+		void promote(long createdBefore) {
+			for (Booking booking : waiting) {
+				if (booking.getCreatedTime() <= createdBefore)
+					priorityWaiting.add(booking);
+			}
+		}
+
+		Booking randomWaiter(Random random) {
+			return waiting.isEmpty() ? null : waiting.get(random.nextInt(waiting.size()));
+		}
+
+		Set<Integer> waitingBookingIds() {
+			return bookingIds(waiting);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ram.Guest.MembershipType;
+
+/**
+ * @author Ram
+ *
+ */
+public class WaitingQueueTest {
+
+	@Test
+	public void removes_from_the_head_the_middle_and_the_tail() {
+		WaitingQueue queue = new WaitingQueue();
+		Booking[] bookings = bookings(5);
+		for (Booking booking : bookings) {
+			queue.addLast(booking);
+		}
+		assertTrue(queue.remove(bookings[2]));
+		assertFalse(queue.remove(bookings[2]));
+		assertEquals(Arrays.asList(bookings[0], bookings[1], bookings[3], bookings[4]), contents(queue));
+		assertTrue(queue.remove(bookings[0]));
+		assertTrue(queue.remove(bookings[4]));
+		assertEquals(Arrays.asList(bookings[1], bookings[3]), contents(queue));
+		assertEquals(contents(queue), contents(queue.snapshot()));
+		assertSame(bookings[1], queue.pollFirst());
+		assertSame(bookings[3], queue.pollFirst());
+		assertNull(queue.pollFirst());
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.snapshot().size());
+	}
+
+	@Test
+	public void move_to_back_takes_the_booking_out_of_its_old_queue() {
+		WaitingQueue regular = new WaitingQueue();
+		WaitingQueue priority = new WaitingQueue();
+		Booking[] bookings = bookings(4);
+		regular.addLast(bookings[0]);
+		regular.addLast(bookings[1]);
+		regular.addLast(bookings[2]);
+		priority.addLast(bookings[3]);
+
+		priority.moveToBack(bookings[1]);
+		assertEquals(Arrays.asList(bookings[0], bookings[2]), contents(regular));
+		assertEquals(Arrays.asList(bookings[3], bookings[1]), contents(priority));
+		assertFalse(regular.remove(bookings[1]));
+		// and back again, to the end of the queue it came from
+		regular.moveToBack(bookings[1]);
+		assertEquals(Arrays.asList(bookings[0], bookings[2], bookings[1]), contents(regular));
+		assertEquals(Arrays.asList(bookings[3]), contents(priority));
+		assertEquals(contents(regular), contents(regular.snapshot()));
+		assertEquals(contents(priority), contents(priority.snapshot()));
+		try {
+			priority.addLast(bookings[0]);
+			fail();
+		} catch (IllegalStateException e) {
+			// already waiting in the regular queue
+		}
+	}
+
+	@Test
+	public void snapshots_do_not_change_when_the_log_is_compacted() {
+		WaitingQueue queue = new WaitingQueue();
+		Booking[] bookings = bookings(40);
+		for (int i = 0; i < 16; i++) {
+			queue.addLast(bookings[i]);
+		}
+		for (int i = 0; i < 10; i++) {
+			queue.pollFirst();
+		}
+		WaitingQueue.Snapshot beforeGrowth = queue.snapshot();
+		List<Booking> expected = contents(beforeGrowth);
+		assertEquals(Arrays.asList(bookings).subList(10, 16), expected);
+
+		// the log is full, the next one moves the queue into a fresh array
+		for (int i = 16; i < 40; i++) {
+			queue.addLast(bookings[i]);
+		}
+		queue.pollFirst();
+		assertEquals(expected, contents(beforeGrowth));
+		WaitingQueue.Snapshot afterGrowth = queue.snapshot();
+		assertEquals(Arrays.asList(bookings).subList(11, 40), contents(afterGrowth));
+
+		// removal from the middle rebuilds the log
+		queue.remove(bookings[20]);
+		assertEquals(expected, contents(beforeGrowth));
+		assertEquals(Arrays.asList(bookings).subList(11, 40), contents(afterGrowth));
+		List<Booking> remaining = new ArrayList<>(Arrays.asList(bookings).subList(11, 40));
+		remaining.remove(bookings[20]);
+		assertEquals(remaining, contents(queue.snapshot()));
+		assertEquals(remaining, contents(queue));
+
+		// appends after the rebuild go to the new log only
+		queue.moveToBack(bookings[20]);
+		remaining.add(bookings[20]);
+		assertEquals(remaining, contents(queue.snapshot()));
+		assertEquals(Arrays.asList(bookings).subList(11, 40), contents(afterGrowth));
+	}
+
+	private static List<Booking> contents(WaitingQueue queue) {
+		List<Booking> bookings = new ArrayList<>();
+		queue.copyTo(bookings);
+		assertEquals(queue.size(), bookings.size());
+		assertSame(bookings.isEmpty() ? null : bookings.get(0), queue.peekFirst());
+		return bookings;
+	}
+
+	private static List<Booking> contents(WaitingQueue.Snapshot snapshot) {
+		List<Booking> bookings = new ArrayList<>();
+		for (int i = 0; i < snapshot.size(); i++) {
+			bookings.add(snapshot.get(i));
+		}
+		return bookings;
+	}
+
+	private static Booking[] bookings(int count) {
+		Booking[] bookings = new Booking[count];
+		for (int i = 0; i < count; i++) {
+			bookings[i] = new Booking("G" + (i + 1), MembershipType.STANDARD, i);
+		}
+		return bookings;
+	}
+}
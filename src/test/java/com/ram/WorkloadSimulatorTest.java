@@ -0,0 +1,111 @@
+package com.ram;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.ram.WorkloadTrace.Event;
+import com.ram.WorkloadTrace.EventType;
+
+/**
+ * @author Ram
+ *
+ */
+public class WorkloadSimulatorTest {
+
+	@Test
+	public void generated_trace_is_reproducible_and_survives_the_binary_format() throws Exception {
+		List<String> guestIds = new ArrayList<>(ReservationRunner.getDefaultGuestCache(100).keySet());
+		long week = TimeUnit.DAYS.toMillis(7);
+		WorkloadTrace trace = WorkloadTrace.poisson(7, guestIds, 20, TimeUnit.HOURS.toMillis(24), week)
+				.withConference(7, List.of("C1", "C2", "C3"), week / 2, TimeUnit.HOURS.toMillis(4),
+						TimeUnit.DAYS.toMillis(2));
+		assertEquals(toString(trace), toString(WorkloadTrace.poisson(7, guestIds, 20, TimeUnit.HOURS.toMillis(24),
+				week).withConference(7, List.of("C1", "C2", "C3"), week / 2, TimeUnit.HOURS.toMillis(4),
+				TimeUnit.DAYS.toMillis(2))));
+
+		// every guest leaves after they arrived, and arrives again only after
+		Map<String, Long> in = new java.util.HashMap<>();
+		for (Event event : trace.getEvents()) {
+			if (event.getType() == EventType.ARRIVAL)
+				assertNull(event.toString(), in.put(event.getGuestId(), event.getTime()));
+			else
+				assertNotNull(event.toString(), in.remove(event.getGuestId()));
+		}
+		assertTrue(in.isEmpty());
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		trace.write(bytes);
+		assertTrue("a few bytes per event", bytes.size() < trace.size() * 8);
+		WorkloadTrace replayed = WorkloadTrace.read(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(toString(trace), toString(replayed));
+	}
+
+	@Test
+	public void simulated_week_leaves_an_empty_hotel() throws Exception {
+		Map<String, Guest> guests = ReservationRunner.getDefaultGuestCache(100);
+		DefaultBookingService bookingService = new DefaultBookingService((int) TimeUnit.DAYS.toMinutes(365),
+				new DefaultGuestService(guests), new DefaultRoomService(ReservationRunner.getDefaultRoomsCache(20)),
+				new PriorityBasedRoomMembershipTypesConverter());
+		try {
+			// more arrivals than rooms, so some guests wait and some walk away
+			WorkloadTrace trace = WorkloadTrace.poisson(3, new ArrayList<>(guests.keySet()), 2,
+					TimeUnit.HOURS.toMillis(24), TimeUnit.DAYS.toMillis(7));
+			SimulationReport report = new WorkloadSimulator(bookingService, 8, true).runSimulated(trace,
+					TimeUnit.HOURS.toMillis(1));
+
+			assertEquals(0, report.getErrors());
+			assertEquals(trace.size(), report.getEvents());
+			assertEquals(trace.size(), report.getRequests());
+			assertEquals(trace.size() / 2, report.getCheckInLatency().getCount());
+			assertTrue(report.getWaitingTime().getCount() > 0);
+			assertTrue(report.getWalkedAway() > 0);
+			assertNotNull(report.getServiceMetrics());
+			assertEquals(0, bookingService.getOccupancyRatio(), 0);
+			assertEquals(bookingService.getWaitingList().size(), report.getStillWaiting());
+		} finally {
+			bookingService.shutdown();
+		}
+	}
+
+	@Test
+	public void promoted_guests_who_walk_away_are_checked_out_when_they_get_a_room() throws Exception {
+		Map<String, Guest> guests = ReservationRunner.getDefaultGuestCache(100);
+		VirtualBookingClock clock = new VirtualBookingClock(0);
+		// an hour of waiting and the guest is promoted
+		DefaultBookingService bookingService = new DefaultBookingService(60, new DefaultGuestService(guests),
+				new DefaultRoomService(ReservationRunner.getDefaultRoomsCache(20)),
+				new PriorityBasedRoomMembershipTypesConverter(), clock);
+		try {
+			WorkloadTrace trace = WorkloadTrace.poisson(3, new ArrayList<>(guests.keySet()), 2,
+					TimeUnit.HOURS.toMillis(24), TimeUnit.DAYS.toMillis(7));
+			SimulationReport report = new WorkloadSimulator(bookingService, 8, true, clock).runSimulated(trace,
+					TimeUnit.MINUTES.toMillis(10));
+
+			assertTrue(bookingService.getMetrics().getPromotions() > 0);
+			assertTrue(report.getWalkedAway() > 0);
+			assertEquals(0, report.getErrors());
+			assertEquals(trace.size(), report.getRequests());
+			// nobody's room was left behind
+			assertEquals(0, bookingService.getOccupancyRatio(), 0);
+			assertEquals(bookingService.getWaitingList().size(), report.getStillWaiting());
+		} finally {
+			bookingService.shutdown();
+		}
+	}
+
+	private static String toString(WorkloadTrace trace) {
+		StringBuilder events = new StringBuilder();
+		for (Event event : trace.getEvents()) {
+			events.append(event).append('\n');
+		}
+		return events.toString();
+	}
+}